@@ -0,0 +1,101 @@
+package org.geekbang.time.commonmistakes.cachedesign.cachepenetration;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guava 布隆过滤器和 ScalableBloomFilter 的对比，误判率都是 1%。
+ * fill 是放入 size 个元素的耗时，配合 -prof gc 的 gc.alloc.rate.norm 看占用的内存；
+ * mightContain 查询的 key 一半存在一半不存在，每个元素占的字节数和实际误判率在准备数据时打印出来。
+ * ScalableBloomFilter 的初始容量只给 size 的 1%，模拟数据量增长后自动扩容的场景。
+ * 亿级元素需要单独跑：java -jar target/benchmarks.jar BloomFilterBenchmark -p size=100000000 -jvmArgsAppend -Xmx4g
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BloomFilterBenchmark {
+
+    private static final double FPP = 0.01;
+
+    @Param({"Guava", "Scalable"})
+    String filter;
+
+    @Param({"10000", "1000000"})
+    int size;
+
+    private BloomFilter<Integer> guava;
+    private ScalableBloomFilter scalable;
+    private int key;
+
+    @Setup
+    public void setup() throws IOException {
+        if ("Guava".equals(filter)) {
+            guava = fillGuava();
+        } else {
+            scalable = fillScalable();
+        }
+        //放进去的是 1 到 size，查询 size/2+1 到 size+size/2
+        int falsePositives = 0;
+        for (int i = size + 1; i <= size + size / 2; i++) {
+            if (contains(i)) {
+                falsePositives++;
+            }
+        }
+        System.out.printf("%s size %d: %.2f bytes/element, fpp %.4f%n", filter, size,
+                (double) sizeInBytes() / size, (double) falsePositives / (size / 2));
+        key = size / 2;
+    }
+
+    private BloomFilter<Integer> fillGuava() {
+        BloomFilter<Integer> filter = BloomFilter.create(Funnels.integerFunnel(), size, FPP);
+        for (int i = 1; i <= size; i++) {
+            filter.put(i);
+        }
+        return filter;
+    }
+
+    private ScalableBloomFilter fillScalable() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(Math.max(1000, size / 100), FPP);
+        for (int i = 1; i <= size; i++) {
+            filter.put(i);
+        }
+        return filter;
+    }
+
+    private boolean contains(int id) {
+        return guava != null ? guava.mightContain(id) : scalable.mightContain(id);
+    }
+
+    private long sizeInBytes() throws IOException {
+        if (guava == null) {
+            return scalable.sizeInBytes();
+        }
+        CountingOutputStream countingOutputStream = new CountingOutputStream(ByteStreams.nullOutputStream());
+        guava.writeTo(countingOutputStream);
+        return countingOutputStream.getCount();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object fill() {
+        return "Guava".equals(filter) ? fillGuava() : fillScalable();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean mightContain() {
+        if (++key > size + size / 2) {
+            key = size / 2 + 1;
+        }
+        return contains(key);
+    }
+}
@@ -0,0 +1,62 @@
+package org.geekbang.time.commonmistakes.collection.linkedlist;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * LinkedListApplication 的 JMH 版本，单次随机位置 get 和 add 的耗时。
+ * add 之后马上删掉同一位置的元素，保证整个测量过程中列表长度不变
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkedListBenchmark {
+
+    private static final int INDEX_COUNT = 1 << 12;
+
+    @Param({"ArrayList", "LinkedList"})
+    String listType;
+
+    @Param({"10000", "100000"})
+    int elementCount;
+
+    private List<Integer> list;
+    //随机下标提前生成好，不把随机数的开销算进去
+    private int[] indexes;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        IntStream elements = IntStream.rangeClosed(1, elementCount);
+        list = "LinkedList".equals(listType)
+                ? elements.boxed().collect(Collectors.toCollection(LinkedList::new))
+                : elements.boxed().collect(Collectors.toCollection(ArrayList::new));
+        indexes = ThreadLocalRandom.current().ints(INDEX_COUNT, 0, elementCount).toArray();
+    }
+
+    private int nextIndex() {
+        return indexes[cursor++ & (INDEX_COUNT - 1)];
+    }
+
+    @Benchmark
+    public Integer get() {
+        return list.get(nextIndex());
+    }
+
+    @Benchmark
+    public Integer addAndRemove() {
+        int index = nextIndex();
+        list.add(index, 1);
+        return list.remove(index);
+    }
+}
@@ -0,0 +1,48 @@
+package org.geekbang.time.commonmistakes.collection.listvsmap;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * ListVsMapApplication 的 JMH 版本，按 orderId 查一次订单的耗时；
+ * 两种结构的内存占用差异看 -prof gc 不准，仍然用 ListVsMapApplication 里的 ObjectSizeCalculator
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListVsMapBenchmark {
+
+    @Param({"10000", "1000000"})
+    int elementCount;
+
+    private List<ListVsMapApplication.Order> list;
+    private Map<Integer, ListVsMapApplication.Order> map;
+
+    @Setup
+    public void setup() {
+        list = IntStream.rangeClosed(1, elementCount).mapToObj(ListVsMapApplication.Order::new).collect(Collectors.toList());
+        map = IntStream.rangeClosed(1, elementCount).boxed().collect(Collectors.toMap(Function.identity(), ListVsMapApplication.Order::new));
+    }
+
+    @Benchmark
+    public ListVsMapApplication.Order listSearch() {
+        int search = ThreadLocalRandom.current().nextInt(1, elementCount + 1);
+        return list.stream().filter(order -> order.getOrderId() == search).findFirst().orElse(null);
+    }
+
+    @Benchmark
+    public ListVsMapApplication.Order mapSearch() {
+        int search = ThreadLocalRandom.current().nextInt(1, elementCount + 1);
+        return map.get(search);
+    }
+}
@@ -0,0 +1,74 @@
+package org.geekbang.time.commonmistakes.concurrenttool.concurrenthashmapperformance;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * ConcurrentHashMapPerformanceController 的 JMH 版本：threadCount 个线程并发给 itemCount 个 key 计数 loopCount 次。
+ * normaluse 是锁住整个 Map 再 get/put，gooduse 是 computeIfAbsent + LongAdder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentHashMapBenchmark {
+
+    @Param({"1000000"})
+    int loopCount;
+
+    @Param({"1", "10"})
+    int threadCount;
+
+    @Param({"10"})
+    int itemCount;
+
+    private ForkJoinPool forkJoinPool;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        forkJoinPool = new ForkJoinPool(threadCount);
+        //key 提前拼好，不把字符串拼接算到计数里
+        keys = IntStream.range(0, itemCount).mapToObj(i -> "item" + i).toArray(String[]::new);
+    }
+
+    @TearDown
+    public void tearDown() {
+        forkJoinPool.shutdownNow();
+    }
+
+    @Benchmark
+    public ConcurrentHashMap<String, Long> normaluse() throws ExecutionException, InterruptedException {
+        ConcurrentHashMap<String, Long> freqs = new ConcurrentHashMap<>(itemCount);
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, loopCount).parallel().forEach(i -> {
+            String key = keys[ThreadLocalRandom.current().nextInt(itemCount)];
+            synchronized (freqs) {
+                if (freqs.containsKey(key)) {
+                    freqs.put(key, freqs.get(key) + 1);
+                } else {
+                    freqs.put(key, 1L);
+                }
+            }
+        })).get();
+        return freqs;
+    }
+
+    @Benchmark
+    public ConcurrentHashMap<String, LongAdder> gooduse() throws ExecutionException, InterruptedException {
+        ConcurrentHashMap<String, LongAdder> freqs = new ConcurrentHashMap<>(itemCount);
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, loopCount).parallel().forEach(i -> {
+            String key = keys[ThreadLocalRandom.current().nextInt(itemCount)];
+            freqs.computeIfAbsent(key, k -> new LongAdder()).increment();
+        })).get();
+        return freqs;
+    }
+}
@@ -0,0 +1,75 @@
+package org.geekbang.time.commonmistakes.concurrenttool.concurrenthashmapperformance;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentHashMapPerformanceController.gooduse 的 ConcurrentHashMap&lt;String, LongAdder&gt; 和 StripedCounterMap 的计数吞吐对比。
+ * 所有 key 在 Trial 开始前都已经插入过，测的是稳定状态下的累加；线程数用 -t 指定。
+ * 堆占用看 CounterMapFootprintBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CounterMapBenchmark {
+
+    private static final int KEY_SAMPLES = 1 << 16;
+
+    @Param({"LongAdderMap", "StripedCounterMap"})
+    String map;
+
+    @Param({"10", "1000", "10000000"})
+    int distinctKeys;
+
+    private ConcurrentHashMap<String, LongAdder> longAdderMap;
+    private StripedCounterMap stripedCounterMap;
+
+    @Setup
+    public void setup() {
+        if ("LongAdderMap".equals(map)) {
+            longAdderMap = new ConcurrentHashMap<>(distinctKeys);
+            for (int i = 0; i < distinctKeys; i++) {
+                longAdderMap.computeIfAbsent("item" + i, k -> new LongAdder()).increment();
+            }
+        } else {
+            stripedCounterMap = new StripedCounterMap(distinctKeys);
+            for (int i = 0; i < distinctKeys; i++) {
+                stripedCounterMap.increment(i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private int[] samples;
+        private int cursor;
+
+        @Setup
+        public void setup(CounterMapBenchmark benchmark) {
+            samples = ThreadLocalRandom.current().ints(KEY_SAMPLES, 0, benchmark.distinctKeys).toArray();
+        }
+
+        int next() {
+            return samples[cursor++ & (KEY_SAMPLES - 1)];
+        }
+    }
+
+    @Benchmark
+    public void increment(Keys keys) {
+        int key = keys.next();
+        if (longAdderMap != null) {
+            //和 gooduse 一样每次拼出 key
+            longAdderMap.computeIfAbsent("item" + key, k -> new LongAdder()).increment();
+        } else {
+            stripedCounterMap.increment(key);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.geekbang.time.commonmistakes.concurrenttool.concurrenthashmapperformance;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把 distinctKeys 个 key 各计数一次的耗时和内存，内存看 -prof gc 的 gc.alloc.rate.norm（每次填充分配的字节数，
+ * 除了扩容时丢掉的旧表以外基本都留在堆里）。
+ * 默认参数要能在 BenchmarkRunner 里整体跑完；千万级 key 的 LongAdderMap 在 -Xmx3g 下会 OOM，需要单独跑：
+ * java -jar target/benchmarks.jar CounterMapFootprintBenchmark -p distinctKeys=10000000 -jvmArgsAppend -Xmx8g
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CounterMapFootprintBenchmark {
+
+    @Param({"LongAdderMap", "StripedCounterMap"})
+    String map;
+
+    @Param({"10", "1000", "1000000"})
+    int distinctKeys;
+
+    @Benchmark
+    public Object fill() {
+        if ("LongAdderMap".equals(map)) {
+            ConcurrentHashMap<String, LongAdder> freqs = new ConcurrentHashMap<>();
+            for (int i = 0; i < distinctKeys; i++) {
+                freqs.computeIfAbsent("item" + i, k -> new LongAdder()).increment();
+            }
+            return freqs;
+        }
+        StripedCounterMap freqs = new StripedCounterMap();
+        for (int i = 0; i < distinctKeys; i++) {
+            freqs.increment(i);
+        }
+        return freqs;
+    }
+}
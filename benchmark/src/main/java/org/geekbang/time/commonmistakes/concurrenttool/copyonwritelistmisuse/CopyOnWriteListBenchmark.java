@@ -0,0 +1,69 @@
+package org.geekbang.time.commonmistakes.concurrenttool.copyonwritelistmisuse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * CopyOnWriteListMisuseController 的 JMH 版本：threadCount 个线程并发写入 size 个元素，
+ * 或者对预先放好 size 个元素的列表并发随机读 size 次
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyOnWriteListBenchmark {
+
+    @Param({"CopyOnWriteArrayList", "synchronizedList"})
+    String listType;
+
+    @Param({"10000", "100000"})
+    int size;
+
+    @Param({"1", "10"})
+    int threadCount;
+
+    private ForkJoinPool forkJoinPool;
+    private List<Integer> readList;
+
+    @Setup
+    public void setup() {
+        forkJoinPool = new ForkJoinPool(threadCount);
+        readList = newList();
+        readList.addAll(IntStream.range(0, size).boxed().collect(Collectors.toList()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        forkJoinPool.shutdownNow();
+    }
+
+    private List<Integer> newList() {
+        return "CopyOnWriteArrayList".equals(listType) ? new CopyOnWriteArrayList<>() : Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @Benchmark
+    public List<Integer> write() throws ExecutionException, InterruptedException {
+        List<Integer> list = newList();
+        forkJoinPool.submit(() -> IntStream.range(0, size).parallel()
+                .forEach(__ -> list.add(ThreadLocalRandom.current().nextInt(size)))).get();
+        return list;
+    }
+
+    @Benchmark
+    public long read() throws ExecutionException, InterruptedException {
+        return forkJoinPool.submit(() -> IntStream.range(0, size).parallel()
+                .mapToLong(__ -> readList.get(ThreadLocalRandom.current().nextInt(size))).sum()).get();
+    }
+}
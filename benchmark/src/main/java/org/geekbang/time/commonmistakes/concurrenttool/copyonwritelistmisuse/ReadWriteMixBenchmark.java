@@ -0,0 +1,62 @@
+package org.geekbang.time.commonmistakes.concurrenttool.copyonwritelistmisuse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 读写混合的场景：每次操作按 readPercent 的概率随机读一个元素，否则追加一个元素。
+ * 列表每轮迭代重新放好 initialSize 个元素，随机读只读这个范围，追加让列表在迭代里一直变长，
+ * CopyOnWriteArrayList 每次追加的复制成本也跟着变大，这正是写入一阵一阵来的时候会发生的事
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ReadWriteMixBenchmark {
+
+    @Param({"CopyOnWriteArrayList", "synchronizedList", "SnapshotList"})
+    String listType;
+
+    @Param({"99", "90", "50"})
+    int readPercent;
+
+    @Param({"1000"})
+    int initialSize;
+
+    private List<Integer> list;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        List<Integer> elements = IntStream.range(0, initialSize).boxed().collect(Collectors.toList());
+        switch (listType) {
+            case "CopyOnWriteArrayList":
+                list = new CopyOnWriteArrayList<>(elements);
+                break;
+            case "synchronizedList":
+                list = Collections.synchronizedList(new ArrayList<>(elements));
+                break;
+            default:
+                list = new SnapshotList<>(elements);
+        }
+    }
+
+    @Benchmark
+    public Object mix() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextInt(100) < readPercent) {
+            return list.get(random.nextInt(initialSize));
+        }
+        return list.add(random.nextInt());
+    }
+}
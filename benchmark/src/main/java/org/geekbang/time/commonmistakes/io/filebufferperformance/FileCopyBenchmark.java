@@ -0,0 +1,64 @@
+package org.geekbang.time.commonmistakes.io.filebufferperformance;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * io.filebufferperformance 的 JMH 版本，用 FileCopyEngine 的各个策略复制 sizeMb 大小的文件。
+ * 逐字节读写的写法在 1MB 下就要几秒，没有放进来，结论看 CommonMistakesApplication 即可。
+ * 配合 -prof gc 看每次复制分配的内存；大文件单独跑：java -jar target/benchmarks.jar FileCopyBenchmark -p sizeMb=1024,10240
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileCopyBenchmark {
+
+    @Param({"BUFFERED_STREAM", "DIRECT_BUFFER", "MAPPED", "TRANSFER_TO"})
+    FileCopyEngine.Strategy strategy;
+
+    @Param({"1", "100"})
+    int sizeMb;
+
+    private Path dir;
+    private Path source;
+    private Path target;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("filecopy-benchmark");
+        source = dir.resolve("src.bin");
+        target = dir.resolve("dest.bin");
+        byte[] block = new byte[1024 * 1024];
+        ThreadLocalRandom.current().nextBytes(block);
+        try (FileChannel channel = FileChannel.open(source, CREATE, WRITE)) {
+            for (int i = 0; i < sizeMb; i++) {
+                channel.write(ByteBuffer.wrap(block));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        return FileCopyEngine.copy(source, target, strategy, null);
+    }
+}
@@ -0,0 +1,98 @@
+package org.geekbang.time.commonmistakes.java8;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * ParallelTest.allMethods 的 JMH 版本：taskCount 个各自睡 sleepMillis 的任务，用 threadCount 个线程跑完的耗时。
+ * 线程池在 Trial 级别创建，只测执行任务的时间；stream 用的是公共 ForkJoinPool，并行度由 CPU 数决定，threadCount 对它无效
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ParallelBenchmark {
+
+    @Param({"1000"})
+    int taskCount;
+
+    @Param({"10", "20"})
+    int threadCount;
+
+    @Param({"10"})
+    int sleepMillis;
+
+    private ExecutorService threadPool;
+    private ForkJoinPool forkJoinPool;
+
+    @Setup
+    public void setup() {
+        threadPool = Executors.newFixedThreadPool(threadCount);
+        forkJoinPool = new ForkJoinPool(threadCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        threadPool.shutdownNow();
+        forkJoinPool.shutdownNow();
+    }
+
+    @Benchmark
+    public int thread() throws InterruptedException {
+        AtomicInteger atomicInteger = new AtomicInteger();
+        CountDownLatch countDownLatch = new CountDownLatch(threadCount);
+        IntStream.rangeClosed(1, threadCount).mapToObj(i -> new Thread(() -> {
+            IntStream.rangeClosed(1, taskCount / threadCount).forEach(j -> increment(atomicInteger));
+            countDownLatch.countDown();
+        })).forEach(Thread::start);
+        countDownLatch.await();
+        return atomicInteger.get();
+    }
+
+    @Benchmark
+    public int threadpool() throws InterruptedException {
+        AtomicInteger atomicInteger = new AtomicInteger();
+        CountDownLatch countDownLatch = new CountDownLatch(taskCount);
+        IntStream.rangeClosed(1, taskCount).forEach(i -> threadPool.execute(() -> {
+            increment(atomicInteger);
+            countDownLatch.countDown();
+        }));
+        countDownLatch.await();
+        return atomicInteger.get();
+    }
+
+    @Benchmark
+    public int stream() {
+        AtomicInteger atomicInteger = new AtomicInteger();
+        IntStream.rangeClosed(1, taskCount).parallel().forEach(i -> increment(atomicInteger));
+        return atomicInteger.get();
+    }
+
+    @Benchmark
+    public int forkjoin() throws ExecutionException, InterruptedException {
+        AtomicInteger atomicInteger = new AtomicInteger();
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, taskCount).parallel().forEach(i -> increment(atomicInteger))).get();
+        return atomicInteger.get();
+    }
+
+    @Benchmark
+    public int completableFuture() throws ExecutionException, InterruptedException {
+        AtomicInteger atomicInteger = new AtomicInteger();
+        CompletableFuture.runAsync(() -> IntStream.rangeClosed(1, taskCount).parallel().forEach(i -> increment(atomicInteger)), forkJoinPool).get();
+        return atomicInteger.get();
+    }
+
+    private void increment(AtomicInteger atomicInteger) {
+        atomicInteger.incrementAndGet();
+        try {
+            TimeUnit.MILLISECONDS.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.geekbang.time.commonmistakes.java8.analytics;
+
+import org.geekbang.time.commonmistakes.java8.Order;
+import org.geekbang.time.commonmistakes.java8.OrderItem;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.*;
+
+/**
+ * StreamDetailTest 里的 Stream 写法（装箱的 Order 对象）和 OrderAnalytics 列式存储在大数据量下的查询耗时，
+ * items 是订单商品数，平均每个订单 4 个商品；列式存储占用的内存在准备数据时打印出来。
+ * 千万级以上只测 OrderAnalytics（装箱的订单对象放不下）：
+ * java -jar target/benchmarks.jar OrderAnalyticsBenchmark -p impl=columnar -p items=50000000 -jvmArgsAppend -Xmx3g
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class OrderAnalyticsBenchmark {
+
+    private static final int CUSTOMERS = 10_000;
+    private static final int PRODUCTS = 1_000;
+
+    @Param({"stream", "columnar"})
+    String impl;
+
+    @Param({"1000000", "5000000"})
+    int items;
+
+    private List<Order> orders;
+    private OrderAnalytics analytics;
+    private LocalDateTime halfYear;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        LocalDateTime now = LocalDateTime.now();
+        halfYear = now.minusMonths(6);
+        List<Order> generated = new ArrayList<>(items / 4 + 1);
+        long id = 0;
+        for (int loaded = 0; loaded < items; ) {
+            Order order = randomOrder(++id, random, now);
+            loaded += order.getOrderItemList().size();
+            generated.add(order);
+        }
+        if ("stream".equals(impl)) {
+            orders = generated;
+        } else {
+            analytics = new OrderAnalytics(generated.size(), items + 8);
+            analytics.appendAll(generated);
+            System.out.printf("orders %d items %d: columnar %dMB%n", analytics.orderCount(), items,
+                    analytics.estimatedBytes() / 1024 / 1024);
+        }
+    }
+
+    private static Order randomOrder(long id, Random random, LocalDateTime now) {
+        Order order = new Order();
+        order.setId(id);
+        order.setPlacedAt(now.minusHours(random.nextInt(24 * 365 * 2)));
+        int customer = random.nextInt(CUSTOMERS);
+        order.setCustomerId((long) customer);
+        order.setCustomerName("customer" + customer);
+        List<OrderItem> items = new ArrayList<>();
+        int count = 1 + random.nextInt(7);
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            int product = random.nextInt(PRODUCTS);
+            OrderItem item = new OrderItem((long) product, "product" + product, 1.0 + product % 100, 1 + random.nextInt(4));
+            total += item.getProductPrice() * item.getProductQuantity();
+            items.add(item);
+        }
+        order.setOrderItemList(items);
+        order.setTotalPrice(total);
+        return order;
+    }
+
+    //按用户名分组统计订单总金额
+    @Benchmark
+    public Map<String, Double> sumTotalPriceByCustomer() {
+        if (analytics != null) {
+            return analytics.query().sumTotalPriceByCustomer();
+        }
+        return orders.stream().collect(groupingBy(Order::getCustomerName, summingDouble(Order::getTotalPrice)));
+    }
+
+    //最受欢迎的商品
+    @Benchmark
+    public String mostPopularProduct() {
+        if (analytics != null) {
+            return analytics.query().mostPopularProduct().orElse(null);
+        }
+        return orders.stream().flatMap(order -> order.getOrderItemList().stream())
+                .collect(groupingBy(OrderItem::getProductName, summingInt(OrderItem::getProductQuantity)))
+                .entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(null);
+    }
+
+    //按下单年月分组的订单ID
+    @Benchmark
+    public Object orderIdsByMonth() {
+        if (analytics != null) {
+            return analytics.query().orderIdsByMonth();
+        }
+        return orders.stream().collect(groupingBy(order -> order.getPlacedAt().format(DateTimeFormatter.ofPattern("yyyyMM")),
+                mapping(Order::getId, toList())));
+    }
+
+    //花钱最多的 5 个人
+    @Benchmark
+    public List<String> topCustomersBySpend() {
+        if (analytics != null) {
+            return analytics.query().topCustomersBySpend(5).stream().map(Map.Entry::getKey).collect(toList());
+        }
+        return orders.stream().collect(groupingBy(Order::getCustomerName, summingDouble(Order::getTotalPrice)))
+                .entrySet().stream().sorted(Map.Entry.<String, Double>comparingByValue().reversed()).limit(5)
+                .map(Map.Entry::getKey).collect(toList());
+    }
+
+    //最近半年金额大于 40 的订单数
+    @Benchmark
+    public long countRecentOrdersAbove40() {
+        if (analytics != null) {
+            return analytics.query().placedAfter(halfYear).totalPriceGreaterThan(40).count();
+        }
+        return orders.stream().filter(order -> order.getPlacedAt().isAfter(halfYear))
+                .filter(order -> order.getTotalPrice() > 40).count();
+    }
+
+    //所有购买过的商品
+    @Benchmark
+    public long distinctProducts() {
+        if (analytics != null) {
+            return analytics.query().distinctProducts().size();
+        }
+        return orders.stream().flatMap(order -> order.getOrderItemList().stream())
+                .map(OrderItem::getProductName).distinct().count();
+    }
+}
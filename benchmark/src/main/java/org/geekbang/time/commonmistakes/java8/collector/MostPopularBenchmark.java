@@ -0,0 +1,88 @@
+package org.geekbang.time.commonmistakes.java8.collector;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+
+/**
+ * 几种“最受欢迎元素”收集器在串行和并行流上处理 size 个元素的耗时，配合 -prof gc 看分配。
+ * key 按近似 Zipf 分布从 10 万个不同的 Integer 里取，Integer 对象和样本都提前准备好，不计入装箱和生成随机数的开销。
+ * 亿级元素单独跑：java -jar target/benchmarks.jar MostPopularBenchmark -p size=100000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MostPopularBenchmark {
+
+    private static final int DISTINCT_KEYS = 100_000;
+    private static final int SAMPLE_SIZE = 1 << 20;
+
+    @Param({"MostPopularCollector", "groupingBy", "mostPopular", "mostPopularConcurrent", "topK"})
+    String collector;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    private Integer[] samples;
+
+    @Setup
+    public void setup() {
+        Integer[] keys = IntStream.range(0, DISTINCT_KEYS).boxed().toArray(Integer[]::new);
+        double[] cumulative = new double[keys.length];
+        double sum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(1);
+        samples = new Integer[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            samples[i] = keys[Math.min(keys.length - 1, index < 0 ? -index - 1 : index)];
+        }
+    }
+
+    //流里按下标循环取样本
+    private Stream<Integer> stream() {
+        IntStream indexes = IntStream.range(0, size);
+        if (parallel) {
+            indexes = indexes.parallel();
+        }
+        return indexes.mapToObj(i -> samples[i & (SAMPLE_SIZE - 1)]);
+    }
+
+    @Benchmark
+    public Optional<Integer> mostPopular() {
+        switch (collector) {
+            case "MostPopularCollector":
+                return stream().collect(new MostPopularCollector<>());
+            case "groupingBy":
+                return stream().collect(groupingBy(Function.identity(), counting()))
+                        .entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey);
+            case "mostPopular":
+                return stream().collect(FrequencyCollectors.mostPopular());
+            case "mostPopularConcurrent":
+                return stream().collect(FrequencyCollectors.mostPopularConcurrent());
+            case "topK":
+                return Optional.of(stream().collect(FrequencyCollectors.topK(1, 1000)).get(0).getItem());
+            default:
+                throw new IllegalArgumentException(collector);
+        }
+    }
+}
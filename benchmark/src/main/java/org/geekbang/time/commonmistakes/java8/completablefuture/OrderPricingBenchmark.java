@@ -0,0 +1,64 @@
+package org.geekbang.time.commonmistakes.java8.completablefuture;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单计价的端到端耗时：串行调用、嵌套 join 的 CompletableFuture 和 OrderPricingGraph 任务图。
+ * Services 里的远程调用都是 sleep，耗时主要看调度方式，任务图应该接近关键路径，每轮的关键路径在迭代结束时打印出来
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class OrderPricingBenchmark {
+
+    @Param({"sequential", "nestedJoin", "taskGraph"})
+    String style;
+
+    private final CompletableFutureTest test = new CompletableFutureTest();
+    private ExecutorService executor;
+    private TaskGraph graph;
+    private GraphResult last;
+
+    @Setup
+    public void setup() {
+        executor = Executors.newFixedThreadPool(16);
+        graph = OrderPricingGraph.create(123L, executor);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printCriticalPath() {
+        if (last != null) {
+            System.out.printf("critical path %dms%n", last.getCriticalPathMillis());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        test.threadPool.shutdownNow();
+    }
+
+    @Benchmark
+    public Object orderPricing() throws Exception {
+        switch (style) {
+            case "sequential":
+                test.testNormal();
+                return null;
+            case "nestedJoin":
+                test.testCompletableFuture();
+                return null;
+            case "taskGraph":
+                last = graph.execute().get();
+                return last;
+            default:
+                throw new IllegalArgumentException(style);
+        }
+    }
+}
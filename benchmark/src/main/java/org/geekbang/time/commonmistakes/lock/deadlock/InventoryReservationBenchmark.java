@@ -0,0 +1,120 @@
+package org.geekbang.time.commonmistakes.lock.deadlock;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * DeadLockController 里排序后逐个 tryLock 的下单方式和 InventoryReservationEngine 的对比，
+ * 每单随机 3 个商品，hotRatio 是每个位置选中热点商品 item0 的概率。
+ * 同时给出吞吐（ops/us，乘 10^6 就是每秒成功下单数）和 SampleTime 的 p99，线程数用 -t 指定，比如 -t 64
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class InventoryReservationBenchmark {
+
+    private static final int ITEM_COUNT = 10;
+    private static final int CART_SIZE = 3;
+    private static final int CART_COUNT = 1 << 10;
+    //库存给足，保证测的都是成功下单的路径
+    private static final int STOCK = 1_000_000_000;
+
+    @Param({"0", "0.5", "0.9"})
+    double hotRatio;
+
+    private List<DeadLockController.Item> items;
+    private InventoryReservationEngine engine;
+    //itemN 在引擎里的下标
+    private int[] engineIndexes;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        items = IntStream.range(0, ITEM_COUNT).mapToObj(i -> new DeadLockController.Item("item" + i)).collect(Collectors.toList());
+        items.forEach(item -> item.remaining = STOCK);
+        Map<String, Integer> stock = items.stream().collect(Collectors.toMap(DeadLockController.Item::getName, item -> STOCK));
+        engine = new InventoryReservationEngine(stock);
+        engineIndexes = IntStream.range(0, ITEM_COUNT).map(i -> engine.index("item" + i)).toArray();
+    }
+
+    @State(Scope.Thread)
+    public static class Carts {
+        private int[][] indexes;
+        private int[][] quantities;
+        private int cursor;
+
+        @Setup
+        public void setup(InventoryReservationBenchmark benchmark) {
+            Random random = new Random(ThreadLocalRandom.current().nextLong());
+            indexes = new int[CART_COUNT][CART_SIZE];
+            quantities = new int[CART_COUNT][CART_SIZE];
+            for (int i = 0; i < CART_COUNT; i++) {
+                for (int j = 0; j < CART_SIZE; j++) {
+                    indexes[i][j] = random.nextDouble() < benchmark.hotRatio ? 0 : random.nextInt(ITEM_COUNT);
+                    quantities[i][j] = 1;
+                }
+            }
+        }
+
+        int next() {
+            return cursor++ & (CART_COUNT - 1);
+        }
+    }
+
+    @Benchmark
+    public boolean lock(Carts carts) {
+        int[] cart = carts.indexes[carts.next()];
+        List<DeadLockController.Item> order = new ArrayList<>(CART_SIZE);
+        for (int index : cart) {
+            order.add(items.get(index));
+        }
+        order.sort(Comparator.comparing(DeadLockController.Item::getName));
+        return createOrder(order);
+    }
+
+    @Benchmark
+    public boolean lockFree(Carts carts) {
+        int cart = carts.next();
+        int[] indexes = carts.indexes[cart];
+        int[] order = new int[CART_SIZE];
+        for (int i = 0; i < CART_SIZE; i++) {
+            order[i] = engineIndexes[indexes[i]];
+        }
+        return engine.reserve(order, carts.quantities[cart]);
+    }
+
+    //DeadLockController.createOrder 的逻辑
+    private boolean createOrder(List<DeadLockController.Item> order) {
+        List<ReentrantLock> locks = new ArrayList<>();
+        for (DeadLockController.Item item : order) {
+            try {
+                if (item.lock.tryLock(10, TimeUnit.SECONDS)) {
+                    locks.add(item.lock);
+                } else {
+                    locks.forEach(ReentrantLock::unlock);
+                    return false;
+                }
+            } catch (InterruptedException e) {
+            }
+        }
+        try {
+            order.forEach(item -> item.remaining--);
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package org.geekbang.time.commonmistakes.lock.lockgranularity;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * LockGranularityController 里 synchronized (data) + ArrayList 的写法和几种并发集合的追加吞吐对比，线程数用 -t 指定（1 到 64）。
+ * 集合一直追加会把堆撑爆，每个线程写满 capacity / 线程数 个元素后就换一个新集合，集合大小大致保持在 capacity 以内
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class AppendBufferBenchmark {
+
+    @Param({"synchronizedList", "CopyOnWriteArrayList", "ConcurrentLinkedQueue", "SegmentedAppendBuffer"})
+    String collection;
+
+    @Param({"1000000"})
+    int capacity;
+
+    private int quota;
+    private volatile Consumer<Integer> adder;
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+    }
+
+    @Setup
+    public void setup(BenchmarkParams params) {
+        quota = Math.max(1, capacity / params.getThreads());
+        reset();
+    }
+
+    private void reset() {
+        switch (collection) {
+            case "synchronizedList":
+                List<Integer> data = new ArrayList<>();
+                //和 LockGranularityController.right 一样锁住 ArrayList
+                adder = i -> {
+                    synchronized (data) {
+                        data.add(i);
+                    }
+                };
+                break;
+            case "CopyOnWriteArrayList":
+                adder = new CopyOnWriteArrayList<Integer>()::add;
+                break;
+            case "ConcurrentLinkedQueue":
+                adder = new ConcurrentLinkedQueue<Integer>()::add;
+                break;
+            case "SegmentedAppendBuffer":
+                adder = new SegmentedAppendBuffer<Integer>()::add;
+                break;
+            default:
+                throw new IllegalArgumentException(collection);
+        }
+    }
+
+    @Benchmark
+    public void add(Counter counter) {
+        adder.accept(1);
+        if (++counter.count == quota) {
+            counter.count = 0;
+            reset();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.geekbang.time.commonmistakes.logging.duplicate;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.filter.Filter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.MarkerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条日志过一次 Filter 的耗时：legacy 是改造前 MultipleLevelsFilter 的做法（装箱的 List.contains），
+ * levelMask 是编译成位掩码的 MultipleLevelsFilter，routeFilter 同时按级别、Logger 前缀和 Marker 匹配
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelsFilterBenchmark {
+
+    private static final Level[] LEVELS = {Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+    private static final String[] LOGGERS = {
+            "org.geekbang.time.commonmistakes.logging.duplicate.LoggingController",
+            "org.springframework.web.servlet.DispatcherServlet",
+            "com.zaxxer.hikari.pool.HikariPool"};
+
+    private ILoggingEvent[] events;
+    private int cursor;
+    private Filter<ILoggingEvent> legacy;
+    private Filter<ILoggingEvent> levelMask;
+    private Filter<ILoggingEvent> routeFilter;
+
+    @Setup
+    public void setup() {
+        LoggerContext context = new LoggerContext();
+        events = new ILoggingEvent[LEVELS.length * LOGGERS.length];
+        for (int i = 0; i < events.length; i++) {
+            LoggingEvent event = new LoggingEvent();
+            event.setLevel(LEVELS[i % LEVELS.length]);
+            event.setLoggerName(LOGGERS[i % LOGGERS.length]);
+            if (i % 2 == 0) {
+                event.setMarker(MarkerFactory.getMarker("time"));
+            }
+            events[i] = event;
+        }
+        LegacyMultipleLevelsFilter legacyFilter = new LegacyMultipleLevelsFilter();
+        legacyFilter.levels = "INFO|WARN";
+        legacy = legacyFilter;
+        MultipleLevelsFilter multipleLevelsFilter = new MultipleLevelsFilter();
+        multipleLevelsFilter.setLevels("INFO|WARN");
+        levelMask = multipleLevelsFilter;
+        RouteFilter route = new RouteFilter();
+        route.setLevels("INFO|WARN");
+        route.setLoggers("org.geekbang|com.zaxxer");
+        route.setMarkers("time");
+        routeFilter = route;
+        for (Filter<ILoggingEvent> filter : Arrays.asList(legacy, levelMask, routeFilter)) {
+            filter.setContext(context);
+            filter.start();
+        }
+    }
+
+    private ILoggingEvent next() {
+        ILoggingEvent event = events[cursor];
+        cursor = cursor + 1 == events.length ? 0 : cursor + 1;
+        return event;
+    }
+
+    @Benchmark
+    public FilterReply legacy() {
+        return legacy.decide(next());
+    }
+
+    @Benchmark
+    public FilterReply levelMask() {
+        return levelMask.decide(next());
+    }
+
+    @Benchmark
+    public FilterReply routeFilter() {
+        return routeFilter.decide(next());
+    }
+
+    //改造前的 MultipleLevelsFilter
+    static class LegacyMultipleLevelsFilter extends Filter<ILoggingEvent> {
+        String levels;
+        private List<Integer> levelList;
+
+        @Override
+        public FilterReply decide(ILoggingEvent event) {
+            if (levelList == null && levels != null && !levels.isEmpty()) {
+                levelList = Arrays.asList(levels.split("\\|")).stream()
+                        .map(item -> Level.valueOf(item))
+                        .map(level -> level.toInt())
+                        .collect(Collectors.toList());
+            }
+            if (levelList.contains(event.getLevel().toInt()))
+                return FilterReply.ACCEPT;
+            else
+                return FilterReply.DENY;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.geekbang.time.commonmistakes.logging.duplicate;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.joran.spi.JoranException;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用 multiplelevelsfilter.xml（每个文件一个 FileAppender，各自过滤、各自编码）和 routing.xml（一个 RoutingAppender 编码一次分发）
+ * 记录 INFO、WARN、ERROR 日志的端到端吞吐。去掉了控制台输出，日志目录换成临时目录
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class LoggingThroughputBenchmark {
+
+    @Param({"multiplelevelsfilter", "routing"})
+    String config;
+
+    private Path logDir;
+    private LoggerContext context;
+    private Logger log;
+
+    @Setup
+    public void setup() throws IOException, JoranException {
+        logDir = Files.createTempDirectory("logging-throughput");
+        String xml;
+        try (InputStream in = LoggingThroughputBenchmark.class.getResourceAsStream(config + ".xml"); Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+            xml = scanner.useDelimiter("\\A").next();
+        }
+        xml = xml.replace("<appender-ref ref=\"CONSOLE\"/>", "")
+                .replace("value=\"./logs\"", "value=\"" + logDir.toAbsolutePath().toString().replace('\\', '/') + "\"");
+        context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        configurator.doConfigure(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        log = LoggerFactory.getLogger(LoggingController.class);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.stop();
+        Files.walk(logDir).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int value;
+    }
+
+    //INFO、WARN、ERROR 按 8:1:1 混合
+    @Benchmark
+    public void log(Counter counter) {
+        int i = counter.value++ % 10;
+        if (i < 8) {
+            log.info("info {}", i);
+        } else if (i == 8) {
+            log.warn("warn {}", i);
+        } else {
+            log.error("error {}", i);
+        }
+    }
+}
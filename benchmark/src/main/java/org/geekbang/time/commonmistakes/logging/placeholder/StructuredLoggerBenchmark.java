@@ -0,0 +1,104 @@
+package org.geekbang.time.commonmistakes.logging.placeholder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 级别没开启（DEBUG）、被采样掉、开启（INFO）三种情况下每次日志调用的耗时，配合 -prof gc 看 gc.alloc.rate.norm：
+ * slf4jFormat 是先 String.format 再判断级别的写法，jacksonEnabled 是先拼 Map 再用 ObjectMapper 序列化的写法。
+ * 结构化日志经过配了 StructuredJsonEncoder 的 OutputStreamAppender 输出到一个丢弃所有字节的流，
+ * 测的是组装日志和交给 logback 的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StructuredLoggerBenchmark {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(StructuredLoggerBenchmark.class);
+    private static final StructuredLogger slog = StructuredLogger.getLogger(StructuredLoggerBenchmark.class);
+    private static final StructuredLogger.CallSite sampled = slog.callSite(org.slf4j.event.Level.INFO, "order.sampled").sampleRate(0.001);
+    //不捕获变量的 lambda 只有一个实例
+    private static final Supplier<String> DETAIL = () -> "detail";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String orderId = "ORDER-20191201-0001";
+    private long amount = 12345;
+
+    @Setup
+    public void setup() {
+        Logger logger = (Logger) LoggerFactory.getLogger(StructuredLoggerBenchmark.class);
+        logger.setLevel(Level.INFO);
+        logger.setAdditive(false);
+        OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(logger.getLoggerContext());
+        StructuredJsonEncoder encoder = new StructuredJsonEncoder();
+        encoder.setContext(logger.getLoggerContext());
+        encoder.start();
+        appender.setEncoder(encoder);
+        appender.setOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        appender.start();
+        logger.detachAndStopAllAppenders();
+        logger.addAppender(appender);
+    }
+
+    @Benchmark
+    public void slf4jFormatDisabled() {
+        log.debug(String.format("order %s amount %d", orderId, amount));
+    }
+
+    @Benchmark
+    public void slf4jPlaceholderDisabled() {
+        log.debug("order {} amount {}", orderId, amount);
+    }
+
+    @Benchmark
+    public void structuredDisabled() {
+        slog.debug("order").kv("orderId", orderId).kv("amount", amount).kv("detail", DETAIL).log();
+    }
+
+    @Benchmark
+    public void structuredSampledOut() {
+        sampled.entry().kv("orderId", orderId).kv("amount", amount).kv("detail", DETAIL).log();
+    }
+
+    @Benchmark
+    public void structuredEnabled() {
+        slog.info("order").kv("orderId", orderId).kv("amount", amount).kv("detail", DETAIL).log();
+    }
+
+    @Benchmark
+    public void jacksonEnabled(Blackhole blackhole) throws JsonProcessingException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("ts", System.currentTimeMillis());
+        fields.put("level", "INFO");
+        fields.put("event", "order");
+        fields.put("orderId", orderId);
+        fields.put("amount", amount);
+        fields.put("detail", DETAIL.get());
+        blackhole.consume(objectMapper.writeValueAsBytes(fields));
+    }
+}
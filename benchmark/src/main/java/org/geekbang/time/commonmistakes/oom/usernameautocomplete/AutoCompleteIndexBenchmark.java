@@ -0,0 +1,112 @@
+package org.geekbang.time.commonmistakes.oom.usernameautocomplete;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 前缀 Map 和 PrefixTrieIndex 的对比，Map 里只放名字本身（不带 UserDTO 的 payload）。
+ * complete 是一次补全（最多 10 个结果）的耗时分布，看 p99；build 是建索引的耗时，
+ * 建好后常驻堆的大小在准备数据时打印出来。
+ * 千万级用户需要单独跑：java -jar target/benchmarks.jar AutoCompleteIndexBenchmark -p size=10000000 -jvmArgsAppend -Xmx8g
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AutoCompleteIndexBenchmark {
+
+    private static final int LIMIT = 10;
+    private static final int PREFIX_COUNT = 1 << 16;
+
+    @Param({"Map", "Trie"})
+    String index;
+
+    @Param({"10000", "1000000"})
+    int size;
+
+    private String[] names;
+    private String[] prefixes;
+    private ConcurrentHashMap<String, List<String>> map;
+    private PrefixTrieIndex trie;
+    private final int[] out = new int[LIMIT];
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = UsernameAutoCompleteService.randomName();
+        }
+        //随机取已有名字的随机长度前缀
+        prefixes = new String[PREFIX_COUNT];
+        for (int i = 0; i < PREFIX_COUNT; i++) {
+            String name = names[ThreadLocalRandom.current().nextInt(size)];
+            prefixes[i] = name.substring(0, ThreadLocalRandom.current().nextInt(name.length()) + 1);
+        }
+        long before = usedMemory();
+        if ("Map".equals(index)) {
+            map = buildMap();
+        } else {
+            trie = buildTrie();
+        }
+        System.out.printf("%s size %d: heap %dMB%n", index, size, (usedMemory() - before) / 1024 / 1024);
+    }
+
+    private ConcurrentHashMap<String, List<String>> buildMap() {
+        ConcurrentHashMap<String, List<String>> map = new ConcurrentHashMap<>();
+        for (String name : names) {
+            for (int i = 0; i < name.length(); i++) {
+                map.computeIfAbsent(name.substring(0, i + 1), s -> new ArrayList<>()).add(name);
+            }
+        }
+        return map;
+    }
+
+    private PrefixTrieIndex buildTrie() {
+        PrefixTrieIndex trie = new PrefixTrieIndex();
+        for (int i = 0; i < names.length; i++) {
+            trie.insert(i, names[i]);
+        }
+        return trie;
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void complete(Blackhole blackhole) {
+        String prefix = prefixes[cursor++ & (PREFIX_COUNT - 1)];
+        if (map != null) {
+            List<String> result = map.get(prefix);
+            if (result != null) {
+                for (int i = 0; i < Math.min(LIMIT, result.size()); i++) {
+                    blackhole.consume(result.get(i));
+                }
+            }
+        } else {
+            int count = trie.complete(prefix, out);
+            for (int i = 0; i < count; i++) {
+                blackhole.consume(out[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object build() {
+        return "Map".equals(index) ? buildMap() : buildTrie();
+    }
+}
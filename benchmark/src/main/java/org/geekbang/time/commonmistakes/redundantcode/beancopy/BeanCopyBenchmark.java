@@ -0,0 +1,111 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy;
+
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.ComplicatedOrderDO;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.ComplicatedOrderDTO;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.OrderItemDO;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.OrderItemDTO;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.BeanUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拷贝一次 ComplicatedOrderDTO（47 个属性加 2 个明细）的吞吐量，配合 -prof gc 看每次拷贝分配的内存：
+ * beanUtils 是 BeanUtils.copyProperties，handWritten 是和生成代码做同样事情的正确手写拷贝
+ * （不用 wrong() 里的 copyByHand，它漏拷、错拷了几个属性，做的事情不一样，没法比），
+ * generated 是 MapperProcessor 编译时生成的 ComplicatedOrderMapperImpl。
+ * 注意 beanUtils 只是把 items 这个 List 的引用原样拷过去，没有转换里面的元素
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeanCopyBenchmark {
+
+    private final ComplicatedOrderDTO orderDTO = new ComplicatedOrderDTO();
+    private final ComplicatedOrderMapper mapper = new ComplicatedOrderMapperImpl();
+
+    @Benchmark
+    public ComplicatedOrderDO beanUtils() {
+        ComplicatedOrderDO orderDO = new ComplicatedOrderDO();
+        BeanUtils.copyProperties(orderDTO, orderDO, "id");
+        return orderDO;
+    }
+
+    @Benchmark
+    public ComplicatedOrderDO handWritten() {
+        return copyByHand(orderDTO);
+    }
+
+    @Benchmark
+    public ComplicatedOrderDO generated() {
+        return mapper.toDO(orderDTO);
+    }
+
+    private static ComplicatedOrderDO copyByHand(ComplicatedOrderDTO orderDTO) {
+        ComplicatedOrderDO orderDO = new ComplicatedOrderDO();
+        orderDO.setOrderNo(orderDTO.getOrderNo());
+        orderDO.setTotalQuantity(orderDTO.getTotalQuantity());
+        orderDO.setCreateDate(orderDTO.getCreateDate());
+        orderDO.setDeliverDate(orderDTO.getDeliverDate());
+        orderDO.setOutDate(orderDTO.getOutDate());
+        orderDO.setExpectDate(orderDTO.getExpectDate());
+        orderDO.setPaymentMethod(orderDTO.getPaymentMethod());
+        orderDO.setAcceptDate(orderDTO.getAcceptDate());
+        orderDO.setUid(orderDTO.getUid());
+        orderDO.setNickName(orderDTO.getNickName());
+        orderDO.setHeadPic(orderDTO.getHeadPic());
+        orderDO.setPhone(orderDTO.getPhone());
+        orderDO.setMerchantId(orderDTO.getMerchantId());
+        orderDO.setMerchantName(orderDTO.getMerchantName());
+        orderDO.setMerchantHeadPic(orderDTO.getMerchantHeadPic());
+        orderDO.setMerchantPhone(orderDTO.getMerchantPhone());
+        orderDO.setMerchantAddress(orderDTO.getMerchantAddress());
+        orderDO.setRemark(orderDTO.getRemark());
+        orderDO.setDeliverPrice(orderDTO.getDeliverPrice());
+        orderDO.setDeliverMethod(orderDTO.getDeliverMethod());
+        orderDO.setPaymentTimeLimit(orderDTO.getPaymentTimeLimit());
+        orderDO.setAddress(orderDTO.getAddress());
+        orderDO.setAddressId(orderDTO.getAddressId());
+        orderDO.setName(orderDTO.getName());
+        orderDO.setStatus(orderDTO.getStatus());
+        orderDO.setCancelable(orderDTO.isCancelable());
+        orderDO.setPayable(orderDTO.isPayable());
+        orderDO.setHasPaid(orderDTO.isHasPaid());
+        orderDO.setComplainable(orderDTO.isComplainable());
+        orderDO.setCommentable(orderDTO.isCommentable());
+        orderDO.setRefundable(orderDTO.isRefundable());
+        orderDO.setDistance(orderDTO.getDistance());
+        orderDO.setCouponId(orderDTO.getCouponId());
+        orderDO.setCouponAmount(orderDTO.getCouponAmount());
+        orderDO.setFirstDeal(orderDTO.isFirstDeal());
+        orderDO.setLongitude(orderDTO.getLongitude());
+        orderDO.setLatitude(orderDTO.getLatitude());
+        orderDO.setDeliverGroup(orderDTO.getDeliverGroup());
+        orderDO.setDirectCancelable(orderDTO.isDirectCancelable());
+        orderDO.setPaymentAmount(orderDTO.getPaymentAmount());
+        orderDO.setPaymentDate(orderDTO.getPaymentDate());
+        orderDO.setDeliverGroupOrderStatus(orderDTO.getDeliverGroupOrderStatus());
+        orderDO.setDeliveryManId(orderDTO.getDeliveryManId());
+        orderDO.setDeliveryManName(orderDTO.getDeliveryManName());
+        orderDO.setDeliveryManMobile(orderDTO.getDeliveryManMobile());
+        orderDO.setUpdateTime(orderDTO.getUpdateTime());
+        if (orderDTO.getItems() != null) {
+            List<OrderItemDO> items = new ArrayList<>(orderDTO.getItems().size());
+            for (OrderItemDTO itemDTO : orderDTO.getItems()) {
+                OrderItemDO itemDO = new OrderItemDO();
+                itemDO.setSkuId(itemDTO.getSkuId());
+                itemDO.setSkuName(itemDTO.getSkuName());
+                itemDO.setQuantity(itemDTO.getQuantity());
+                itemDO.setPrice(itemDTO.getPrice());
+                items.add(itemDO);
+            }
+            orderDO.setItems(items);
+        }
+        return orderDO;
+    }
+}
@@ -0,0 +1,114 @@
+package org.geekbang.time.commonmistakes.redundantcode.reflection.right;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码一个银行请求（含 MD2 签名）的吞吐量，配合 -prof gc 看每次编码分配的内存：
+ * reflection 是 BetterBankService 原来的写法，每次都反射读注解、排序字段、String.format 填充，
+ * codec 是 BankApiCodec 写进复用的 byte 数组。@Setup 里先确认两种写法的结果逐字节相同。
+ * MD2 本身很慢，签名的耗时占了大头，xxxFields 两个方法只比较拼字段的部分
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BankApiCodecBenchmark {
+
+    @Param({"createUser", "pay"})
+    String api;
+
+    private AbstractAPI request;
+    private BankApiCodec<AbstractAPI> codec;
+    private final byte[] buffer = new byte[256];
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        if (api.equals("createUser")) {
+            CreateUserAPI createUserAPI = new CreateUserAPI();
+            createUserAPI.setName("zhuye");
+            createUserAPI.setIdentity("xxxxxxxxxxxxxxxxxx");
+            createUserAPI.setMobile("13612345678");
+            createUserAPI.setAge(36);
+            request = createUserAPI;
+        } else {
+            PayAPI payAPI = new PayAPI();
+            payAPI.setUserId(1234L);
+            payAPI.setAmount(new BigDecimal("100.5"));
+            request = payAPI;
+        }
+        codec = BankApiCodec.of((Class<AbstractAPI>) request.getClass());
+        String expected = reflection();
+        String actual = new String(buffer, 0, codec.encode(request, buffer, 0), StandardCharsets.UTF_8);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(expected + " != " + actual);
+        }
+    }
+
+    @Benchmark
+    public String reflection() {
+        StringBuilder stringBuilder = encodeByReflection(request);
+        stringBuilder.append(DigestUtils.md2Hex(stringBuilder.toString()));
+        return stringBuilder.toString();
+    }
+
+    @Benchmark
+    public int codec() {
+        return codec.encode(request, buffer, 0);
+    }
+
+    @Benchmark
+    public String reflectionFields() {
+        return encodeByReflection(request).toString();
+    }
+
+    @Benchmark
+    public int codecFields() {
+        return codec.encodeFields(request, buffer, 0);
+    }
+
+    //改造前 BetterBankService.remoteCall 里拼报文的部分
+    private static StringBuilder encodeByReflection(AbstractAPI api) {
+        StringBuilder stringBuilder = new StringBuilder();
+        Arrays.stream(api.getClass().getDeclaredFields())
+                .filter(field -> field.isAnnotationPresent(BankAPIField.class))
+                .sorted(Comparator.comparingInt(a -> a.getAnnotation(BankAPIField.class).order()))
+                .peek(field -> field.setAccessible(true))
+                .forEach(field -> {
+                    BankAPIField bankAPIField = field.getAnnotation(BankAPIField.class);
+                    Object value = "";
+                    try {
+                        value = field.get(api);
+                    } catch (IllegalAccessException e) {
+                        e.printStackTrace();
+                    }
+                    switch (bankAPIField.type()) {
+                        case "S": {
+                            stringBuilder.append(String.format("%-" + bankAPIField.length() + "s", value.toString()).replace(' ', '_'));
+                            break;
+                        }
+                        case "N": {
+                            stringBuilder.append(String.format("%" + bankAPIField.length() + "s", value.toString()).replace(' ', '0'));
+                            break;
+                        }
+                        case "M": {
+                            stringBuilder.append(String.format("%0" + bankAPIField.length() + "d", ((BigDecimal) value).setScale(2, RoundingMode.DOWN).multiply(new BigDecimal("100")).longValue()));
+                            break;
+                        }
+                        default:
+                            break;
+                    }
+                });
+        return stringBuilder;
+    }
+}
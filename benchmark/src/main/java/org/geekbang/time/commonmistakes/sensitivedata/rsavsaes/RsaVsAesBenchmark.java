@@ -0,0 +1,70 @@
+package org.geekbang.time.commonmistakes.sensitivedata.rsavsaes;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rsavsaes 的 JMH 版本，一次加密加解密来回的耗时，和原来的写法一样每次都新建 Cipher。
+ * RSA 2048 + PKCS1 一次最多加密 245 字节，所以 dataSize 不超过它；并发度用 -t 指定
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RsaVsAesBenchmark {
+
+    @Param({"100", "200"})
+    int dataSize;
+
+    private KeyPair rsaKeyPair;
+    private SecretKey aesKey;
+    private IvParameterSpec aesIv;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        rsaKeyPair = keyPairGenerator.generateKeyPair();
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        aesKey = keyGenerator.generateKey();
+        byte[] iv = new byte[16];
+        new SecureRandom().nextBytes(iv);
+        aesIv = new IvParameterSpec(iv);
+        data = new byte[dataSize];
+        ThreadLocalRandom.current().nextBytes(data);
+    }
+
+    @Benchmark
+    public byte[] rsa() throws GeneralSecurityException {
+        Cipher encrypt = Cipher.getInstance("RSA");
+        encrypt.init(Cipher.ENCRYPT_MODE, rsaKeyPair.getPublic());
+        byte[] encrypted = encrypt.doFinal(data);
+        Cipher decrypt = Cipher.getInstance("RSA");
+        decrypt.init(Cipher.DECRYPT_MODE, rsaKeyPair.getPrivate());
+        return decrypt.doFinal(encrypted);
+    }
+
+    @Benchmark
+    public byte[] aes() throws GeneralSecurityException {
+        Cipher encrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        encrypt.init(Cipher.ENCRYPT_MODE, aesKey, aesIv);
+        byte[] encrypted = encrypt.doFinal(data);
+        Cipher decrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        decrypt.init(Cipher.DECRYPT_MODE, aesKey, aesIv);
+        return decrypt.doFinal(encrypted);
+    }
+}
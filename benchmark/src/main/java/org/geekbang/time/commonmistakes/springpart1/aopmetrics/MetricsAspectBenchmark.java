@@ -0,0 +1,111 @@
+package org.geekbang.time.commonmistakes.springpart1.aopmetrics;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MetricsAspect 给每次调用增加的耗时：direct 是不经过切面的调用，
+ * metricsOnly 只打点不记日志，sampledLog 按 1% 采样异步记录入参和出参。
+ * 日志照常格式化，只是不挂 appender，测的是切面本身而不是控制台输出。
+ * 4 个线程同时调用，能看出缓存 Timer 的 ConcurrentHashMap 和 Timer 本身的争用；
+ * CPU 核数少于 4 时线程只能轮流跑，平均耗时会按比例放大，单线程开销用 -t 1 看
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class MetricsAspectBenchmark {
+
+    private AnnotationConfigApplicationContext context;
+    private MetricsOnlyService metricsOnlyService;
+    private SampledLogService sampledLogService;
+    private final MetricsOnlyService directService = new MetricsOnlyService();
+
+    @Setup
+    public void setup() {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        Logger aspectLogger = (Logger) LoggerFactory.getLogger(MetricsAspect.class);
+        aspectLogger.setLevel(Level.INFO);
+        aspectLogger.setAdditive(false);
+        context = new AnnotationConfigApplicationContext(Config.class);
+        metricsOnlyService = context.getBean(MetricsOnlyService.class);
+        sampledLogService = context.getBean(SampledLogService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int direct() {
+        return directService.add(1, 2);
+    }
+
+    @Benchmark
+    public int metricsOnly() {
+        return metricsOnlyService.add(1, 2);
+    }
+
+    @Benchmark
+    public int sampledLog() {
+        return sampledLogService.add(1, 2);
+    }
+
+    @Configuration
+    @EnableAspectJAutoProxy(proxyTargetClass = true)
+    public static class Config {
+        @Bean
+        public MetricsAspect metricsAspect() {
+            return new MetricsAspect();
+        }
+
+        @Bean
+        public ObjectMapper objectMapper() {
+            return new ObjectMapper();
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        public MetricsOnlyService metricsOnlyService() {
+            return new MetricsOnlyService();
+        }
+
+        @Bean
+        public SampledLogService sampledLogService() {
+            return new SampledLogService();
+        }
+    }
+
+    @Metrics(logParameters = false, logReturn = false)
+    public static class MetricsOnlyService {
+        public int add(int a, int b) {
+            return a + b;
+        }
+    }
+
+    @Metrics(logSampleRate = 0.01)
+    public static class SampledLogService {
+        public int add(int a, int b) {
+            return a + b;
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package com.ily55421.concurrency;
 
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.concurrenttool.concurrenthashmapperformance.StripedCounterMap;
 import org.springframework.util.Assert;
 import org.springframework.util.StopWatch;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
@@ -111,6 +113,28 @@ public class ConcurrencyController {
                 );
     }
 
+    /**
+     * 用 StripedCounterMap 计数：key 直接用数字，不用每次拼 "item" + n 的字符串，也不用给每个 key 分配 LongAdder，
+     * 只有竞争激烈的热点 key 才会分散到多个 Cell 上累加
+     */
+    @GetMapping("stripedUse")
+    public Map<String, Long> stripedUse() throws InterruptedException {
+
+        StripedCounterMap freqs = new StripedCounterMap(ITEM_COUNT);
+        ForkJoinPool forkJoinPool = new ForkJoinPool(THREAD_COUNT);
+        forkJoinPool.execute(() -> IntStream.rangeClosed(1, LOOP_COUNT).parallel().forEach(i ->
+                freqs.increment(ThreadLocalRandom.current().nextInt(ITEM_COUNT))
+        ));
+
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+
+        //只在输出结果时才拼出 key 的名字
+        Map<String, Long> result = new HashMap<>();
+        freqs.forEach((key, count) -> result.put("item" + key, count));
+        return result;
+    }
+
     /**
      * 优化后的代码，相比使用锁来操作 ConcurrentHashMap 的方式，性能提升了 10 倍。
      * computeIfAbsent 为什么如此高效呢？
@@ -144,6 +168,15 @@ public class ConcurrencyController {
                         .reduce(0, Long::sum) == LOOP_COUNT
                 , "goodUse count error");
 
+        stopWatch.start("stripedUse");
+        Map<String, Long> stripedUse = stripedUse();
+        stopWatch.stop();
+        Assert.isTrue(stripedUse.size() == ITEM_COUNT, "stripedUse size error");
+        Assert.isTrue(stripedUse.entrySet().stream()
+                        .mapToLong(item -> item.getValue())
+                        .reduce(0, Long::sum) == LOOP_COUNT
+                , "stripedUse count error");
+
         // prettyPrint() 生成一个带有描述所有执行任务的表格的字符串。
         log.info(stopWatch.prettyPrint());
 
@@ -1,6 +1,7 @@
 package com.ily55421.concurrency;
 
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.concurrenttool.copyonwritelistmisuse.SnapshotList;
 import org.springframework.util.StopWatch;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -31,6 +32,8 @@ public class ConcurrencyWriteController {
          // CopyOnWriteArrayList
          List copyOnWriteArrayList = new CopyOnWriteArrayList<>();
          List synchronizedList = Collections.synchronizedList(new ArrayList<>());
+         // 追加不复制整个数组、读不加锁的 SnapshotList
+         List snapshotList = new SnapshotList<>();
          StopWatch stopWatch = new StopWatch();
 
          int loopCount = 100000;
@@ -45,11 +48,18 @@ public class ConcurrencyWriteController {
          //循环100000次并发往加锁的ArrayList写入随机元素
          IntStream.
         rangeClosed(1, loopCount).parallel().forEach(A -> synchronizedList.add(ThreadLocalRandom.current().nextInt(loopCount)));
+         stopWatch.stop();
+         stopWatch.start("Write:snapshotList");
+
+         //循环100000次并发往SnapshotList写入随机元素
+         IntStream.
+        rangeClosed(1, loopCount).parallel().forEach(A -> snapshotList.add(ThreadLocalRandom.current().nextInt(loopCount)));
          stopWatch.stop();
          log.info(stopWatch.prettyPrint());
          Map result = new HashMap();
          result.put("copyOnWriteArrayList", copyOnWriteArrayList.size());
          result.put("synchronizedList", synchronizedList.size());
+         result.put("snapshotList", snapshotList.size());
          return result;
          // 结果如下： synchronizedList的运行性能差距太大了吧
         // 运行程序可以看到，大量写的场景（10 万次 add 操作），CopyOnWriteArray 几乎比同步的 ArrayList 慢一百倍：
@@ -85,13 +95,15 @@ public class ConcurrencyWriteController {
     @GetMapping("read")
     public Map testRead() {
 
-         //创建两个测试对象
+         //创建三个测试对象
          List copyOnWriteArrayList = new CopyOnWriteArrayList<>();
          List synchronizedList = Collections.synchronizedList(new ArrayList<>());
+         List snapshotList = new SnapshotList<>();
 
          //填充数据
          addAll (copyOnWriteArrayList);
          addAll (synchronizedList);
+         addAll (snapshotList);
          StopWatch stopWatch = new StopWatch();
          int loopCount = 1000000;
          int count = copyOnWriteArrayList.size();
@@ -108,11 +120,18 @@ public class ConcurrencyWriteController {
          IntStream.
          range(0, loopCount).parallel().forEach(A -> synchronizedList.get(ThreadLocalRandom.current().nextInt(count)));
          stopWatch.stop();
+         stopWatch.start("Read:snapshotList");
+
+         //循环1000000次并发从SnapshotList随机查询元素，读不加锁
+         IntStream.
+         range(0, loopCount).parallel().forEach(A -> snapshotList.get(ThreadLocalRandom.current().nextInt(count)));
+         stopWatch.stop();
          log.info(stopWatch.prettyPrint());
 
          Map result = new HashMap();
          result.put("copyOnWriteArrayList", copyOnWriteArrayList.size());
          result.put("synchronizedList", synchronizedList.size());
+         result.put("snapshotList", snapshotList.size());
          return result;
          // 测试结果: 读取的值都是正确的 没有异常
          // {
@@ -4,6 +4,7 @@ import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.lock.deadlock.InventoryReservationEngine;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -61,19 +62,26 @@ public class ItemController {
         // 100 返回结果
     }
 
-    @GetMapping("right")
+    /**
+     * 库存用 InventoryReservationEngine 做无锁扣减，不需要对购物车排序，也不会在 tryLock 上等待
+     */
+    static InventoryReservationEngine inventory = new InventoryReservationEngine(itemList.stream()
+            .collect(Collectors.toMap(Item::getName, Item::getRemaining)));
 
+    @GetMapping("right")
     public long right() {
-        long success = 100;
-//        long success = IntStream.rangeClosed(1, 100).parallel()
-//                .mapToObj(i -> {
-//                    List cart = createCart().stream()
-//                            .sorted(Comparator.comparing(Item::getName))
-//                            .collect(Collectors.toList());
-//                    return createOrder(cart);
-//                })
-//                .filter(result -> result)
-//                .count();
+        long begin = System.currentTimeMillis();
+        long success = IntStream.rangeClosed(1, 100).parallel()
+                .mapToObj(i -> {
+                    List<Item> cart = createCart();
+                    return inventory.reserve(cart.stream().map(Item::getName).collect(Collectors.toList()));
+                })
+                .filter(result -> result)
+                .count();
+        log.info("success:{} totalRemaining:{} took:{}ms items:{}",
+                success,
+                inventory.totalRemaining(),
+                System.currentTimeMillis() - begin, inventory.snapshot());
         return success;
     }
 
@@ -111,8 +119,10 @@ public class ItemController {
      *
      * @return
      */
-    public List createCart() {
-        return items.get(ThreadLocalRandom.current().nextInt(items.size()) + 1);
+    public List<Item> createCart() {
+        return IntStream.rangeClosed(1, 3)
+                .mapToObj(i -> itemList.get(ThreadLocalRandom.current().nextInt(itemList.size())))
+                .collect(Collectors.toList());
     }
 
 
@@ -1,6 +1,7 @@
 package com.ily55421.synchronize;
 
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.lock.lockgranularity.SegmentedAppendBuffer;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -27,6 +28,8 @@ public class SyncController {
 
     private List data = new ArrayList<>();
 
+    private SegmentedAppendBuffer<Integer> buffer = new SegmentedAppendBuffer<>();
+
     /**
      * 不涉及共享资源的慢方法
      */
@@ -83,4 +86,20 @@ public class SyncController {
         //took:1427  响应时间
         //3000 响应结果  （结果是累加的）
     }
+
+    /**
+     * 每个线程写自己的分段，写入之间完全没有竞争，读的时候再把分段拼起来
+     */
+    @GetMapping("segmented")
+    public int segmented() {
+
+        long begin = System.currentTimeMillis();
+        IntStream.rangeClosed(1, 1000).parallel().forEach(i -> {
+
+            slow();
+            buffer.add(i);
+        });
+        log.info("took:{}", System.currentTimeMillis() - begin);
+        return buffer.size();
+    }
 }
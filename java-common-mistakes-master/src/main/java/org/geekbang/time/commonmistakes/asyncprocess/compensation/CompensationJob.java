@@ -1,23 +1,22 @@
 package org.geekbang.time.commonmistakes.asyncprocess.compensation;
 
-import jodd.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.common.executor.ThreadPools;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @Component
 @Slf4j
 public class CompensationJob {
-    private static ThreadPoolExecutor compensationThreadPool = new ThreadPoolExecutor(
-            10, 10,
-            1, TimeUnit.HOURS,
-            new ArrayBlockingQueue<>(1000),
-            new ThreadFactoryBuilder().setNameFormat("compensation-threadpool-%d").get());
+    private static ThreadPoolExecutor compensationThreadPool = ThreadPools.builder("compensation-threadpool")
+            .corePoolSize(10).maxPoolSize(10)
+            .keepAlive(1, TimeUnit.HOURS)
+            .queueCapacity(1000)
+            .build();
     @Autowired
     private UserService userService;
     @Autowired
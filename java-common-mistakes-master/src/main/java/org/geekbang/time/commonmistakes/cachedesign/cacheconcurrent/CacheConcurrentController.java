@@ -11,6 +11,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -26,10 +27,13 @@ public class CacheConcurrentController {
     private AtomicInteger atomicInteger = new AtomicInteger();
     @Autowired
     private RedissonClient redissonClient;
+    private TwoLevelCache twoLevelCache;
 
     @PostConstruct
     public void init() {
         stringRedisTemplate.opsForValue().set("hotsopt", getExpensiveData(), 5, TimeUnit.SECONDS);
+        twoLevelCache = new TwoLevelCache("hotsopt", stringRedisTemplate, redissonClient,
+                10000, Duration.ofSeconds(1), Duration.ofSeconds(5), Duration.ofSeconds(1));
         Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
             log.info("DB QPS : {}", atomicInteger.getAndSet(0));
         }, 0, 1, TimeUnit.SECONDS);
@@ -65,6 +69,11 @@ public class CacheConcurrentController {
         return data;
     }
 
+    @GetMapping("right2")
+    public String right2() {
+        return twoLevelCache.get("hotsopt", this::getExpensiveData);
+    }
+
     private String getExpensiveData() {
         atomicInteger.incrementAndGet();
         return "important data";
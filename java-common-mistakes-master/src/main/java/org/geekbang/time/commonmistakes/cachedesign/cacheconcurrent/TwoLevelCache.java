@@ -0,0 +1,156 @@
+package org.geekbang.time.commonmistakes.cachedesign.cacheconcurrent;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 两级缓存：进程内 L1（Caffeine，W-TinyLFU 淘汰）+ Redis L2
+ * <p>
+ * 同一个 JVM 内对同一个 Key 的并发回源会合并为一个 Future，只有这个 Future 的发起者才会去抢 Redisson 分布式锁，
+ * 分布式锁只负责跨节点的互斥；没有抢到的请求等待正在进行的加载，而不是直接返回空值。
+ * 等锁超时说明其它节点的回源还没完成，这时只再查一次 Redis，查不到就失败，绝不绕过锁直接回源
+ */
+@Slf4j
+public class TwoLevelCache {
+
+    private final String name;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+    private final Cache<String, String> l1;
+    private final Duration l2Ttl;
+    private final Duration lockWait;
+    //正在进行中的回源，Key 维度合并
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter l2Hit;
+    private final Counter l2Miss;
+    private final Counter coalesced;
+    private final Counter lockTimeout;
+    private final Timer loadTimer;
+
+    public TwoLevelCache(String name, StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                         long l1MaximumSize, Duration l1Ttl, Duration l2Ttl, Duration lockWait) {
+        this.name = name;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.l2Ttl = l2Ttl;
+        this.lockWait = lockWait;
+        //L1 的过期时间要比 L2 短，避免进程内长期持有过期数据
+        this.l1 = Caffeine.newBuilder()
+                .maximumSize(l1MaximumSize)
+                .expireAfterWrite(l1Ttl)
+                .recordStats()
+                .build();
+        //L1 的命中率、淘汰数等直接由 Micrometer 自带的 Caffeine 绑定器输出
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, l1, name);
+        this.l2Hit = Metrics.counter("twoLevelCache.l2", "cache", name, "result", "hit");
+        this.l2Miss = Metrics.counter("twoLevelCache.l2", "cache", name, "result", "miss");
+        this.coalesced = Metrics.counter("twoLevelCache.coalesced", "cache", name);
+        this.lockTimeout = Metrics.counter("twoLevelCache.lockTimeout", "cache", name);
+        this.loadTimer = Timer.builder("twoLevelCache.load").tag("cache", name)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    public String get(String key, Supplier<String> loader) {
+        String data = l1.getIfPresent(key);
+        if (data != null) {
+            return data;
+        }
+        data = stringRedisTemplate.opsForValue().get(key);
+        if (!StringUtils.isEmpty(data)) {
+            l2Hit.increment();
+            l1.put(key, data);
+            return data;
+        }
+        l2Miss.increment();
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            //同一个 Key 已经有线程在加载，等待它的结果即可
+            coalesced.increment();
+            return join(existing);
+        }
+        try {
+            data = loadFromSource(key, loader);
+            if (!StringUtils.isEmpty(data)) {
+                l1.put(key, data);
+            }
+            future.complete(data);
+        } catch (Throwable ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+        return data;
+    }
+
+    public void invalidate(String key) {
+        l1.invalidate(key);
+        stringRedisTemplate.delete(key);
+    }
+
+    private String loadFromSource(String key, Supplier<String> loader) {
+        RLock locker = redissonClient.getLock(name + ":locker:" + key);
+        boolean locked = false;
+        try {
+            locked = locker.tryLock(lockWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            //不管是否拿到锁，都先再查一次 Redis，其它节点可能已经回源完成
+            String data = stringRedisTemplate.opsForValue().get(key);
+            if (!StringUtils.isEmpty(data)) {
+                return data;
+            }
+            if (!locked) {
+                //没拿到锁时不能回源，否则多个节点同时打到数据库，跨节点的合并就失效了
+                lockTimeout.increment();
+                log.warn("cache {} key {} wait locker timeout and no data in redis", name, key);
+                throw new IllegalStateException("cache " + name + " wait locker timeout for key " + key);
+            }
+            data = loadTimer.record(loader);
+            if (!StringUtils.isEmpty(data)) {
+                stringRedisTemplate.opsForValue().set(key, data, l2Ttl.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            return data;
+        } finally {
+            if (locked) {
+                locker.unlock();
+            }
+        }
+    }
+
+    private String join(CompletableFuture<String> future) {
+        try {
+            return future.get(lockWait.toMillis() * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("cache " + name + " wait in-flight load timeout", e);
+        }
+    }
+}
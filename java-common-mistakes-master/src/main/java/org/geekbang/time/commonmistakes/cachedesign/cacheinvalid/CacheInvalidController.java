@@ -9,11 +9,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 @Slf4j
@@ -24,6 +26,7 @@ public class CacheInvalidController {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
     private AtomicInteger atomicInteger = new AtomicInteger();
+    private RefreshAheadCache refreshAheadCache;
 
     //@PostConstruct
     public void wrongInit() {
@@ -68,6 +71,20 @@ public class CacheInvalidController {
         countDownLatch.await();
     }
 
+    //@PostConstruct
+    public void rightInit3() {
+        //只刷新访问次数达到 5 次并且 10 秒内要过期的 Key，8 个并发、每批 50 个 Key 一次 Pipeline
+        refreshAheadCache = new RefreshAheadCache(stringRedisTemplate, key -> getCityFromDb(Integer.parseInt(key.substring(4))),
+                Duration.ofSeconds(30), Duration.ofSeconds(10), Duration.ofSeconds(10), 5, 50, 8);
+        refreshAheadCache.warmUp(IntStream.rangeClosed(1, 1000).mapToObj(i -> "city" + i).collect(Collectors.toList()));
+        log.info("Cache init finished");
+        refreshAheadCache.start(Duration.ofSeconds(5));
+
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
+            log.info("DB QPS : {}", atomicInteger.getAndSet(0));
+        }, 0, 1, TimeUnit.SECONDS);
+    }
+
     @GetMapping("city")
     public String city() {
         int id = ThreadLocalRandom.current().nextInt(1000) + 1;
@@ -81,6 +98,11 @@ public class CacheInvalidController {
         return data;
     }
 
+    @GetMapping("city2")
+    public String city2() {
+        int id = ThreadLocalRandom.current().nextInt(1000) + 1;
+        return refreshAheadCache.get("city" + id);
+    }
 
     private String getCityFromDb(int cityId) {
         atomicInteger.incrementAndGet();
@@ -0,0 +1,162 @@
+package org.geekbang.time.commonmistakes.cachedesign.cacheinvalid;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 提前刷新（refresh-ahead）缓存
+ * <p>
+ * 记录每个 Key 的过期时间和访问次数，定时只挑出“热并且快过期”的 Key，按批次并行回源，
+ * 每个批次用一次 Pipeline 把 SET ... EX 写回 Redis，一轮刷新的往返次数只和热 Key 数量有关
+ */
+@Slf4j
+public class RefreshAheadCache {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Function<String, String> loader;
+    private final Duration ttl;
+    private final Duration ttlJitter;
+    private final Duration refreshWindow;
+    private final int hotThreshold;
+    private final int batchSize;
+    //Key -> 过期时间、访问次数
+    private final ConcurrentHashMap<String, KeyStats> stats = new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public RefreshAheadCache(StringRedisTemplate stringRedisTemplate, Function<String, String> loader,
+                             Duration ttl, Duration ttlJitter, Duration refreshWindow,
+                             int hotThreshold, int batchSize, int concurrency) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.loader = loader;
+        this.ttl = ttl;
+        this.ttlJitter = ttlJitter;
+        this.refreshWindow = refreshWindow;
+        this.hotThreshold = hotThreshold;
+        this.batchSize = batchSize;
+        this.refreshExecutor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    public void start(Duration period) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception ex) {
+                log.error("refresh-ahead cycle failed", ex);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        refreshExecutor.shutdownNow();
+    }
+
+    public String get(String key) {
+        KeyStats keyStats = stats.computeIfAbsent(key, k -> new KeyStats());
+        keyStats.hits.incrementAndGet();
+        String data = stringRedisTemplate.opsForValue().get(key);
+        if (data == null) {
+            data = loader.apply(key);
+            if (!StringUtils.isEmpty(data)) {
+                long ttlSeconds = nextTtlSeconds();
+                stringRedisTemplate.opsForValue().set(key, data, ttlSeconds, TimeUnit.SECONDS);
+                keyStats.expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 批量预热，和刷新一样按批次 Pipeline 写入
+     *
+     * @param keys
+     */
+    public void warmUp(List<String> keys) {
+        keys.forEach(key -> stats.computeIfAbsent(key, k -> new KeyStats()));
+        loadInBatches(keys);
+    }
+
+    /**
+     * 执行一轮刷新，返回本轮刷新的 Key 数量
+     *
+     * @return
+     */
+    public int refresh() {
+        long deadline = System.currentTimeMillis() + refreshWindow.toMillis();
+        List<String> hotKeys = new ArrayList<>();
+        stats.forEach((key, keyStats) -> {
+            //访问次数按轮衰减一半，冷下来的 Key 就不会再被刷新，让它自然过期
+            int hits = keyStats.hits.getAndUpdate(h -> h >> 1);
+            if (hits >= hotThreshold && keyStats.expireAt <= deadline) {
+                hotKeys.add(key);
+            }
+        });
+        loadInBatches(hotKeys);
+        log.info("refresh-ahead cycle finished, tracked keys:{} refreshed keys:{}", stats.size(), hotKeys.size());
+        return hotKeys.size();
+    }
+
+    private void loadInBatches(List<String> keys) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            List<String> batch = keys.subList(from, Math.min(keys.size(), from + batchSize));
+            futures.add(CompletableFuture.runAsync(() -> loadBatch(batch), refreshExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void loadBatch(List<String> batch) {
+        Map<String, String> values = new LinkedHashMap<>();
+        batch.forEach(key -> {
+            String data = loader.apply(key);
+            if (!StringUtils.isEmpty(data)) {
+                values.put(key, data);
+            }
+        });
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<String, Long> ttls = new LinkedHashMap<>();
+        values.keySet().forEach(key -> ttls.put(key, nextTtlSeconds()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, data) -> connection.set(key.getBytes(StandardCharsets.UTF_8),
+                    data.getBytes(StandardCharsets.UTF_8),
+                    Expiration.seconds(ttls.get(key)),
+                    RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+        long now = System.currentTimeMillis();
+        ttls.forEach((key, ttlSeconds) -> stats.get(key).expireAt = now + TimeUnit.SECONDS.toMillis(ttlSeconds));
+    }
+
+    private long nextTtlSeconds() {
+        long jitter = ttlJitter.getSeconds();
+        return ttl.getSeconds() + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0);
+    }
+
+    private static class KeyStats {
+        private final AtomicInteger hits = new AtomicInteger();
+        private volatile long expireAt;
+    }
+}
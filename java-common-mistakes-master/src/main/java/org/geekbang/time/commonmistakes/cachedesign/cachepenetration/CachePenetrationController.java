@@ -1,17 +1,21 @@
 package org.geekbang.time.commonmistakes.cachedesign.cachepenetration;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -25,16 +29,35 @@ public class CachePenetrationController {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
     private AtomicInteger atomicInteger = new AtomicInteger();
-    private BloomFilter<Integer> bloomFilter;
+    private static final Path BLOOM_FILTER_FILE = Paths.get("user.bloom");
+    private ScalableBloomFilter bloomFilter;
 
     @PostConstruct
-    public void init() {
+    public void init() throws IOException {
         Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
             log.info("DB QPS : {}", atomicInteger.getAndSet(0));
         }, 0, 1, TimeUnit.SECONDS);
 
-        bloomFilter = BloomFilter.create(Funnels.integerFunnel(), 10000, 0.01);
-        IntStream.rangeClosed(1, 10000).forEach(bloomFilter::put);
+        //优先从文件加载，只有第一次启动才需要从数据库全量构建
+        if (Files.exists(BLOOM_FILTER_FILE)) {
+            bloomFilter = ScalableBloomFilter.readFrom(BLOOM_FILTER_FILE);
+            log.info("bloom filter loaded from {}, layers:{} elements:{}", BLOOM_FILTER_FILE,
+                    bloomFilter.layerCount(), bloomFilter.approximateElementCount());
+        } else {
+            bloomFilter = new ScalableBloomFilter(10000, 0.01);
+            IntStream.rangeClosed(1, 10000).forEach(bloomFilter::put);
+            bloomFilter.writeTo(BLOOM_FILTER_FILE);
+        }
+        Executors.newSingleThreadScheduledExecutor().scheduleWithFixedDelay(this::saveBloomFilter, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void saveBloomFilter() {
+        try {
+            bloomFilter.writeTo(BLOOM_FILTER_FILE);
+        } catch (IOException ex) {
+            log.error("save bloom filter to {} failed", BLOOM_FILTER_FILE, ex);
+        }
     }
 
     @GetMapping("wrong")
@@ -78,6 +101,12 @@ public class CachePenetrationController {
         return data;
     }
 
+    //新用户写库后增量加入布隆过滤器，过滤器写满会自动追加一层
+    @PostMapping("user")
+    public void addUser(@RequestParam("id") int id) {
+        bloomFilter.put(id);
+    }
+
     private String getCityFromDb(int id) {
         atomicInteger.incrementAndGet();
         if (id > 0 && id <= 10000) return "userdata";
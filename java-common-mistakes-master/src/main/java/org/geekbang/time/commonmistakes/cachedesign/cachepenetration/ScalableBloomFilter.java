@@ -0,0 +1,241 @@
+package org.geekbang.time.commonmistakes.cachedesign.cachepenetration;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * 可扩容的布隆过滤器（Scalable Bloom Filter）
+ * <p>
+ * 由多层普通布隆过滤器组成，当前层写满后追加一层容量翻倍、误判率减半的新层，
+ * 第一层按 fpp / 2 建，各层误判率之和收敛在 fpp 以内，不需要按最终数据量一次性建好，也不需要重建；
+ * 可以整体写入内存映射文件，启动时直接从文件加载而不需要查库
+ */
+public class ScalableBloomFilter {
+
+    private static final int MAGIC = 0x53424631;
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING_RATIO = 0.5;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES + Double.BYTES;
+    private static final int LAYER_HEADER_SIZE = Long.BYTES * 2 + Double.BYTES + Integer.BYTES * 2;
+    private static final int MAP_CHUNK_WORDS = 1 << 24;
+
+    private final long initialCapacity;
+    private final double fpp;
+    //写时复制，读不加锁
+    private volatile Layer[] layers;
+
+    public ScalableBloomFilter(long initialCapacity, double fpp) {
+        if (initialCapacity <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("initialCapacity must be positive and fpp must be in (0, 1)");
+        }
+        this.initialCapacity = initialCapacity;
+        this.fpp = fpp;
+        this.layers = new Layer[]{new Layer(initialCapacity, fpp * (1 - TIGHTENING_RATIO))};
+    }
+
+    private ScalableBloomFilter(long initialCapacity, double fpp, Layer[] layers) {
+        this.initialCapacity = initialCapacity;
+        this.fpp = fpp;
+        this.layers = layers;
+    }
+
+    public boolean mightContain(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        Layer[] current = layers;
+        //新数据都落在最后一层，从后往前查命中更快
+        for (int i = current.length - 1; i >= 0; i--) {
+            if (current[i].mightContain(h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean put(long id) {
+        if (mightContain(id)) {
+            return false;
+        }
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        Layer last = layers[layers.length - 1];
+        if (last.count >= last.capacity) {
+            Layer[] grown = new Layer[layers.length + 1];
+            System.arraycopy(layers, 0, grown, 0, layers.length);
+            last = new Layer(last.capacity * GROWTH, last.fpp * TIGHTENING_RATIO);
+            grown[layers.length] = last;
+            layers = grown;
+        }
+        last.put(h1, h2);
+        return true;
+    }
+
+    public int layerCount() {
+        return layers.length;
+    }
+
+    public long approximateElementCount() {
+        long count = 0;
+        for (Layer layer : layers) {
+            count += layer.count;
+        }
+        return count;
+    }
+
+    public long sizeInBytes() {
+        long size = 0;
+        for (Layer layer : layers) {
+            size += (long) layer.bits.length() * Long.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * 把所有层写入内存映射文件，先写临时文件再原子替换，避免进程中途退出留下半个文件
+     *
+     * @param path
+     * @throws IOException
+     */
+    public synchronized void writeTo(Path path) throws IOException {
+        Layer[] current = layers;
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            buffer.putInt(MAGIC).putInt(current.length).putLong(initialCapacity).putDouble(fpp);
+            buffer.force();
+            long position = HEADER_SIZE;
+            for (Layer layer : current) {
+                int words = layer.bits.length();
+                buffer = map(channel, FileChannel.MapMode.READ_WRITE, position, LAYER_HEADER_SIZE);
+                buffer.putLong(layer.capacity).putLong(layer.count).putDouble(layer.fpp)
+                        .putInt(layer.numHashFunctions).putInt(words);
+                buffer.force();
+                position += LAYER_HEADER_SIZE;
+                //单次映射不能超过 2GB，位数组按块映射
+                for (int from = 0; from < words; from += MAP_CHUNK_WORDS) {
+                    int to = Math.min(words, from + MAP_CHUNK_WORDS);
+                    buffer = map(channel, FileChannel.MapMode.READ_WRITE, position, (long) (to - from) * Long.BYTES);
+                    for (int i = from; i < to; i++) {
+                        buffer.putLong(layer.bits.get(i));
+                    }
+                    buffer.force();
+                    position += (long) (to - from) * Long.BYTES;
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ScalableBloomFilter readFrom(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("not a bloom filter file: " + path);
+            }
+            int layerCount = buffer.getInt();
+            long initialCapacity = buffer.getLong();
+            double fpp = buffer.getDouble();
+            long position = HEADER_SIZE;
+            Layer[] layers = new Layer[layerCount];
+            for (int i = 0; i < layerCount; i++) {
+                buffer = map(channel, FileChannel.MapMode.READ_ONLY, position, LAYER_HEADER_SIZE);
+                long capacity = buffer.getLong();
+                long count = buffer.getLong();
+                double layerFpp = buffer.getDouble();
+                int numHashFunctions = buffer.getInt();
+                int words = buffer.getInt();
+                position += LAYER_HEADER_SIZE;
+                long[] bits = new long[words];
+                for (int from = 0; from < words; from += MAP_CHUNK_WORDS) {
+                    int to = Math.min(words, from + MAP_CHUNK_WORDS);
+                    buffer = map(channel, FileChannel.MapMode.READ_ONLY, position, (long) (to - from) * Long.BYTES);
+                    buffer.asLongBuffer().get(bits, from, to - from);
+                    position += (long) (to - from) * Long.BYTES;
+                }
+                layers[i] = new Layer(capacity, count, layerFpp, numHashFunctions, new AtomicLongArray(bits));
+            }
+            return new ScalableBloomFilter(initialCapacity, fpp, layers);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * MurmurHash3 的 fmix64，避免像 Guava 那样每次哈希都分配 HashCode 对象
+     *
+     * @param h
+     * @return
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static class Layer {
+        private final long capacity;
+        private final double fpp;
+        private final int numHashFunctions;
+        private final long bitSize;
+        private final AtomicLongArray bits;
+        //只在 put 的 synchronized 里修改
+        private volatile long count;
+
+        Layer(long capacity, double fpp) {
+            long bitSize = (long) (-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bitSize + 63) >>> 6));
+            this.capacity = capacity;
+            this.fpp = fpp;
+            this.bits = new AtomicLongArray(words);
+            this.bitSize = (long) words << 6;
+            this.numHashFunctions = Math.max(1, (int) Math.round((double) this.bitSize / capacity * Math.log(2)));
+        }
+
+        Layer(long capacity, long count, double fpp, int numHashFunctions, AtomicLongArray bits) {
+            this.capacity = capacity;
+            this.count = count;
+            this.fpp = fpp;
+            this.numHashFunctions = numHashFunctions;
+            this.bits = bits;
+            this.bitSize = (long) bits.length() << 6;
+        }
+
+        boolean mightContain(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < numHashFunctions; i++) {
+                long index = (combined & Long.MAX_VALUE) % bitSize;
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+                combined += h2;
+            }
+            return true;
+        }
+
+        void put(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < numHashFunctions; i++) {
+                long index = (combined & Long.MAX_VALUE) % bitSize;
+                int word = (int) (index >>> 6);
+                bits.set(word, bits.get(word) | (1L << index));
+                combined += h2;
+            }
+            count++;
+        }
+    }
+}
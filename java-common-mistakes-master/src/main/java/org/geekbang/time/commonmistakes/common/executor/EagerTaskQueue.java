@@ -0,0 +1,285 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 线程池任务队列，同时按任务数和估算内存限制容量，两者都可以在运行时调整
+ * <p>
+ * eager 模式下，在线程数没到最大值且没有空闲线程时 offer 返回 false，让线程池先扩容再排队
+ * （ThreadPoolExecutor 默认是队列满了才扩容）；线程数到最大值以后被拒绝的任务再通过 force 放进队列
+ */
+public class EagerTaskQueue extends LinkedBlockingQueue<Runnable> {
+
+    private final boolean eager;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile int capacity;
+    private volatile long maxQueuedBytes;
+    private volatile ObservableThreadPoolExecutor executor;
+    //put 和带超时的 offer 在队列满时等待，出队时只有确实有线程在等才加锁唤醒
+    private final ReentrantLock spaceLock = new ReentrantLock();
+    private final Condition notFull = spaceLock.newCondition();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    /**
+     * @param capacity       最多排队的任务数
+     * @param maxQueuedBytes 排队任务估算内存上限，小于等于 0 表示不限制
+     * @param eager          是否优先扩容线程
+     */
+    public EagerTaskQueue(int capacity, long maxQueuedBytes, boolean eager) {
+        this.capacity = capacity;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.eager = eager;
+    }
+
+    void setExecutor(ObservableThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    public boolean isEager() {
+        return eager;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        signalNotFull();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        signalNotFull();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        ObservableThreadPoolExecutor current = executor;
+        if (eager && current != null) {
+            int poolSize = current.getPoolSize();
+            //已提交未完成的任务数超过线程数说明没有空闲线程，线程数没到最大值就返回 false 让线程池扩容
+            if (current.getSubmittedCount() > poolSize && poolSize < current.getMaximumPoolSize()) {
+                return false;
+            }
+        }
+        return enqueue(task);
+    }
+
+    /**
+     * 线程数已经到最大值时，由拒绝策略调用，绕过扩容判断直接排队
+     */
+    boolean force(Runnable task) {
+        return enqueue(task);
+    }
+
+    private boolean enqueue(Runnable task) {
+        //任务数和内存的检查不是原子的，并发时可能略微超出，作为保护阈值足够了
+        if (size() >= capacity) {
+            return false;
+        }
+        long bytes = bytesOf(task);
+        long total = queuedBytes.addAndGet(bytes);
+        long limit = maxQueuedBytes;
+        if ((limit > 0 && total > limit) || !super.offer(task)) {
+            queuedBytes.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 线程池只调用 offer(Runnable)，带超时的 offer 和 put 留给外部直接入队使用，不做扩容判断，队列满时等待
+     */
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if (enqueue(task)) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        spaceLock.lockInterruptibly();
+        //先登记再检查，出队的线程看到有人在等就会来唤醒，不会漏掉
+        waitingProducers.incrementAndGet();
+        try {
+            while (!enqueue(task)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            waitingProducers.decrementAndGet();
+            spaceLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        offer(task, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 线程池的工作线程只通过 take 和 poll(timeout, unit) 取任务
+     */
+    @Override
+    public Runnable take() throws InterruptedException {
+        return dequeued(super.take());
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return dequeued(super.poll(timeout, unit));
+    }
+
+    /**
+     * 下面这些出队方式取走的任务不会被执行，除了释放内存额度，还要通知线程池这个任务结束了
+     */
+    @Override
+    public Runnable poll() {
+        return discarded(super.poll());
+    }
+
+    /**
+     * 队列里放的是线程池包装过的任务，ThreadPoolExecutor.remove 传进来的是用户提交的原始任务，两种都要能匹配上
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        return removeIf(task -> task == o || task.equals(o)
+                || (task instanceof ObservableThreadPoolExecutor.TimedTask && ((ObservableThreadPoolExecutor.TimedTask) task).unwrap() == o), true);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Runnable> filter) {
+        return removeIf(filter, false);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        return removeIf(c::contains, false);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        return removeIf(task -> !c.contains(task), false);
+    }
+
+    private boolean removeIf(Predicate<? super Runnable> filter, boolean firstOnly) {
+        boolean removed = false;
+        Iterator<Runnable> iterator = iterator();
+        while (iterator.hasNext()) {
+            if (filter.test(iterator.next())) {
+                iterator.remove();
+                removed = true;
+                if (firstOnly) {
+                    break;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * ThreadPoolExecutor.purge 通过迭代器删除已经取消的任务，迭代器的 remove 也要释放额度
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        Iterator<Runnable> iterator = super.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                discarded(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        int count = 0;
+        Runnable task;
+        while (count < maxElements && (task = poll()) != null) {
+            c.add(task);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+
+    private Runnable dequeued(Runnable task) {
+        if (task != null) {
+            queuedBytes.addAndGet(-bytesOf(task));
+            signalNotFull();
+        }
+        return task;
+    }
+
+    private Runnable discarded(Runnable task) {
+        dequeued(task);
+        ObservableThreadPoolExecutor current = executor;
+        if (current != null && task instanceof ObservableThreadPoolExecutor.TimedTask) {
+            current.finished((ObservableThreadPoolExecutor.TimedTask) task);
+        }
+        return task;
+    }
+
+    private void signalNotFull() {
+        //大多数时候没有线程在 put，不去碰锁
+        if (waitingProducers.get() > 0) {
+            spaceLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                spaceLock.unlock();
+            }
+        }
+    }
+
+    private static long bytesOf(Runnable task) {
+        return task instanceof EstimatedSize ? ((EstimatedSize) task).estimatedBytes() : 0;
+    }
+}
@@ -0,0 +1,330 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * EagerTaskQueue 和 ObservableThreadPoolExecutor 测试
+ */
+public class EagerTaskQueueTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<ObservableThreadPoolExecutor> pools = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        pools.forEach(ObservableThreadPoolExecutor::shutdownNow);
+    }
+
+    private ObservableThreadPoolExecutor pool(int core, int max, int queueCapacity, long maxQueuedBytes, boolean eager) {
+        ObservableThreadPoolExecutor pool = ThreadPools.builder("test-" + UUID.randomUUID())
+                .corePoolSize(core).maxPoolSize(max)
+                .queueCapacity(queueCapacity)
+                .maxQueuedBytes(maxQueuedBytes)
+                .eager(eager)
+                .build();
+        pools.add(pool);
+        return pool;
+    }
+
+    private Runnable blocking() {
+        return () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private Runnable sized(long bytes) {
+        return new SizedTask(blocking(), bytes);
+    }
+
+    @Test
+    public void eagerExpandsBeforeQueuing() {
+        ObservableThreadPoolExecutor pool = pool(1, 3, 10, 0, true);
+        for (int i = 0; i < 3; i++) {
+            pool.execute(blocking());
+        }
+        assertEquals(3, pool.getPoolSize());
+        assertEquals(0, pool.getQueue().size());
+
+        pool.execute(blocking());
+        assertEquals(3, pool.getPoolSize());
+        assertEquals(1, pool.getQueue().size());
+        assertEquals(4, pool.getSubmittedCount());
+    }
+
+    @Test
+    public void defaultQueuesBeforeExpanding() {
+        ObservableThreadPoolExecutor pool = pool(1, 3, 10, 0, false);
+        for (int i = 0; i < 3; i++) {
+            pool.execute(blocking());
+        }
+        assertEquals(1, pool.getPoolSize());
+        assertEquals(2, pool.getQueue().size());
+    }
+
+    @Test
+    public void forceEnqueueAtMax() {
+        ObservableThreadPoolExecutor pool = pool(1, 2, 2, 0, true);
+        EagerTaskQueue queue = (EagerTaskQueue) pool.getQueue();
+        pool.execute(blocking());
+        //没有空闲线程、线程数没到最大值，不排队直接扩容
+        pool.execute(blocking());
+        assertEquals(2, pool.getPoolSize());
+
+        //线程数到最大值以后任务排队，队列满了才真正拒绝
+        pool.execute(blocking());
+        pool.execute(blocking());
+        assertEquals(2, queue.size());
+        try {
+            pool.execute(blocking());
+            fail("queue is full");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(4, pool.getSubmittedCount());
+        assertEquals(0, pool.getQueue().remainingCapacity());
+    }
+
+    @Test
+    public void forceIgnoresEagerCheck() {
+        ObservableThreadPoolExecutor pool = pool(1, 2, 2, 0, true);
+        EagerTaskQueue queue = (EagerTaskQueue) pool.getQueue();
+        for (int i = 0; i < 3; i++) {
+            pool.execute(blocking());
+        }
+        assertEquals(1, queue.size());
+        //没有空闲线程、线程数又可以扩容时 offer 返回 false，拒绝策略里的 force 绕过这个判断
+        pool.setMaximumPoolSize(3);
+        Runnable task = blocking();
+        assertFalse(queue.offer(task));
+        assertTrue(queue.force(task));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void boundedByEstimatedBytes() {
+        ObservableThreadPoolExecutor pool = pool(1, 1, 10, 100, false);
+        pool.execute(sized(40));
+        pool.execute(sized(40));
+        pool.execute(sized(40));
+        assertEquals(80, pool.getQueuedBytes());
+        try {
+            pool.execute(sized(40));
+            fail("queued bytes exceed limit");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(80, pool.getQueuedBytes());
+        assertEquals(3, pool.getSubmittedCount());
+
+        pool.setMaxQueuedBytes(200);
+        pool.execute(sized(40));
+        assertEquals(120, pool.getQueuedBytes());
+    }
+
+    @Test
+    public void queuedBytesReleasedOnClearAndPurge() throws Exception {
+        ObservableThreadPoolExecutor pool = pool(1, 1, 10, 1000, false);
+        pool.execute(blocking());
+        Future<?> cancelled = pool.submit(new SizedTask(() -> {
+        }, 30));
+        pool.execute(sized(50));
+        assertEquals(80, pool.getQueuedBytes());
+
+        cancelled.cancel(false);
+        pool.purge();
+        assertEquals(50, pool.getQueuedBytes());
+        assertEquals(1, pool.getQueue().size());
+        assertEquals(2, pool.getSubmittedCount());
+
+        pool.getQueue().clear();
+        assertEquals(0, pool.getQueuedBytes());
+        assertEquals(1, pool.getSubmittedCount());
+    }
+
+    @Test
+    public void removeMatchesSubmittedTask() {
+        ObservableThreadPoolExecutor pool = pool(1, 1, 10, 0, false);
+        pool.execute(blocking());
+        Runnable queued = sized(10);
+        pool.execute(queued);
+        assertEquals(2, pool.getSubmittedCount());
+
+        assertTrue(pool.remove(queued));
+        assertFalse(pool.remove(queued));
+        assertEquals(0, pool.getQueue().size());
+        assertEquals(0, pool.getQueuedBytes());
+        assertEquals(1, pool.getSubmittedCount());
+    }
+
+    @Test
+    public void shutdownNowReturnsSubmittedTasks() {
+        ObservableThreadPoolExecutor pool = pool(1, 1, 10, 0, false);
+        pool.execute(blocking());
+        Runnable first = blocking();
+        Runnable second = blocking();
+        pool.execute(first);
+        pool.execute(second);
+
+        List<Runnable> pending = pool.shutdownNow();
+        assertEquals(2, pending.size());
+        assertSame(first, pending.get(0));
+        assertSame(second, pending.get(1));
+        //还在执行的那个任务被中断后结束
+        assertTrue(pool.getSubmittedCount() <= 1);
+    }
+
+    @Test
+    public void unregisteredAfterTermination() throws Exception {
+        //全局注册表下面没有具体的注册表时 Gauge 取不到值
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            unregisteredAfterTermination(pool(1, 2, 1, 0, false));
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    private void unregisteredAfterTermination(ObservableThreadPoolExecutor pool) throws Exception {
+        String name = pool.getName();
+        try {
+            ThreadPools.builder(name).build();
+            fail("duplicate name");
+        } catch (IllegalStateException expected) {
+        }
+        //重名失败不影响已有线程池的登记和指标
+        assertSame(pool, ThreadPools.get(name));
+        assertEquals(2, Metrics.globalRegistry.find("executor.pool.max").tag("name", name).gauge().value(), 0);
+
+        pool.execute(() -> {
+        });
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+        assertNull(ThreadPools.get(name));
+        assertFalse(ThreadPools.all().contains(pool));
+        assertTrue(Metrics.globalRegistry.find("executor.pool.max").tag("name", name).meters().isEmpty());
+        assertNull(Metrics.globalRegistry.find("executor.wait").tag("name", name).timer());
+
+        //同名线程池可以重新创建，指标指向新的线程池
+        ObservableThreadPoolExecutor again = ThreadPools.builder(name).corePoolSize(1).maxPoolSize(3).build();
+        pools.add(again);
+        assertSame(again, ThreadPools.get(name));
+        assertEquals(3, Metrics.globalRegistry.find("executor.pool.max").tag("name", name).gauge().value(), 0);
+    }
+
+    @Test
+    public void resize() {
+        ObservableThreadPoolExecutor pool = pool(1, 2, 1, 0, false);
+        pool.resize(4, 8, 5);
+        assertEquals(4, pool.getCorePoolSize());
+        assertEquals(8, pool.getMaximumPoolSize());
+        assertEquals(5, ((EagerTaskQueue) pool.getQueue()).getCapacity());
+
+        pool.resize(1, 2, 3);
+        assertEquals(1, pool.getCorePoolSize());
+        assertEquals(2, pool.getMaximumPoolSize());
+        assertEquals(3, pool.getQueue().remainingCapacity());
+
+        try {
+            pool.resize(3, 2, 1);
+            fail("core > max");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void shrinkingCapacityKeepsQueuedTasks() {
+        ObservableThreadPoolExecutor pool = pool(1, 1, 5, 0, false);
+        pool.execute(blocking());
+        for (int i = 0; i < 4; i++) {
+            pool.execute(blocking());
+        }
+        pool.resize(1, 1, 2);
+        assertEquals(4, pool.getQueue().size());
+        assertEquals(0, pool.getQueue().remainingCapacity());
+        try {
+            pool.execute(blocking());
+            fail("queue is over capacity");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void putBlocksUntilSpace() throws Exception {
+        EagerTaskQueue queue = new EagerTaskQueue(1, 0, false);
+        queue.put(blocking());
+        CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(blocking());
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        assertNotNull(queue.take());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void offerWaitsForTimeout() throws Exception {
+        EagerTaskQueue queue = new EagerTaskQueue(1, 0, false);
+        assertTrue(queue.offer(blocking(), 0, TimeUnit.MILLISECONDS));
+        long begin = System.nanoTime();
+        assertFalse(queue.offer(blocking(), 100, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        //扩大容量会唤醒等待的线程
+        Thread resizer = new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.setCapacity(2);
+        });
+        resizer.start();
+        assertTrue(queue.offer(blocking(), 1, TimeUnit.SECONDS));
+        assertEquals(2, queue.size());
+    }
+
+    private static class SizedTask implements Runnable, EstimatedSize {
+        private final Runnable delegate;
+        private final long bytes;
+
+        SizedTask(Runnable delegate, long bytes) {
+            this.delegate = delegate;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return bytes;
+        }
+    }
+}
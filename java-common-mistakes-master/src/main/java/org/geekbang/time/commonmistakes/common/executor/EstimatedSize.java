@@ -0,0 +1,8 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+/**
+ * 任务实现这个接口后，线程池队列会按估算的字节数限制排队任务的总内存
+ */
+public interface EstimatedSize {
+    long estimatedBytes();
+}
@@ -0,0 +1,52 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * 一类工作负载（车道）的资源声明：线程数、排队上限和默认截止时间
+ * <p>
+ * 不同类型的任务各自声明画像，由 {@link WorkloadExecutors} 分配独立的线程池，互相之间不抢线程
+ */
+@Getter
+public class LaneProfile {
+
+    public enum WorkloadType {
+        //IO 密集的批处理，吞吐优先，可以排长队
+        IO_BATCH,
+        //CPU 密集的计算，线程数和 CPU 核数相当
+        CPU_CALC,
+        //对延迟敏感的请求处理，排队短，超过截止时间的任务直接丢弃
+        LATENCY_CRITICAL
+    }
+
+    private final String name;
+    private final WorkloadType type;
+    private final int threads;
+    private final int queueCapacity;
+    private final Duration defaultDeadline;
+
+    private LaneProfile(String name, WorkloadType type, int threads, int queueCapacity, Duration defaultDeadline) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("threads and queueCapacity must be positive");
+        }
+        this.name = name;
+        this.type = type;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.defaultDeadline = defaultDeadline;
+    }
+
+    public static LaneProfile ioBatch(String name, int threads, int queueCapacity) {
+        return new LaneProfile(name, WorkloadType.IO_BATCH, threads, queueCapacity, null);
+    }
+
+    public static LaneProfile cpuCalc(String name, int queueCapacity) {
+        return new LaneProfile(name, WorkloadType.CPU_CALC, Runtime.getRuntime().availableProcessors(), queueCapacity, null);
+    }
+
+    public static LaneProfile latencyCritical(String name, int threads, int queueCapacity, Duration defaultDeadline) {
+        return new LaneProfile(name, WorkloadType.LATENCY_CRITICAL, threads, queueCapacity, defaultDeadline);
+    }
+}
@@ -0,0 +1,299 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 可观测、可动态调整的线程池，通过 {@link ThreadPools} 创建
+ * <p>
+ * 线程数、活跃线程数、队列长度和排队内存以 executor.* 指标发布到 Micrometer，
+ * 任务的排队耗时（executor.wait）和执行耗时（executor.execution）以直方图记录，用 name 标签区分线程池。
+ * 线程池终止后这些指标从注册表里移除，同时从 {@link ThreadPools} 注销
+ */
+public class ObservableThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+    private final EagerTaskQueue queue;
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final Timer waitTimer;
+    private final Timer executionTimer;
+    private final Counter rejectedCounter;
+    private final ThreadLocal<Long> startTime = new ThreadLocal<>();
+    private final List<Meter> meters = new CopyOnWriteArrayList<>();
+
+    ObservableThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                 EagerTaskQueue queue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, queue, threadFactory);
+        this.name = name;
+        this.queue = queue;
+        queue.setExecutor(this);
+        setRejectedExecutionHandler(new ObservableRejectedHandler(handler));
+
+        waitTimer = addMeter(Timer.builder("executor.wait").tag("name", name)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry));
+        executionTimer = addMeter(Timer.builder("executor.execution").tag("name", name)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry));
+        rejectedCounter = addMeter(Metrics.counter("executor.rejected", "name", name));
+        addMeter(Gauge.builder("executor.pool.size", this, ThreadPoolExecutor::getPoolSize).tag("name", name).register(Metrics.globalRegistry));
+        addMeter(Gauge.builder("executor.pool.max", this, ThreadPoolExecutor::getMaximumPoolSize).tag("name", name).register(Metrics.globalRegistry));
+        addMeter(Gauge.builder("executor.active", this, ThreadPoolExecutor::getActiveCount).tag("name", name).register(Metrics.globalRegistry));
+        addMeter(Gauge.builder("executor.queued", queue, BlockingQueue::size).tag("name", name).register(Metrics.globalRegistry));
+        addMeter(Gauge.builder("executor.queue.remaining", queue, BlockingQueue::remainingCapacity).tag("name", name).register(Metrics.globalRegistry));
+        addMeter(Gauge.builder("executor.queued.bytes", queue, EagerTaskQueue::getQueuedBytes).tag("name", name).baseUnit("bytes").register(Metrics.globalRegistry));
+        addMeter(Gauge.builder("executor.completed", this, ThreadPoolExecutor::getCompletedTaskCount).tag("name", name).register(Metrics.globalRegistry));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 登记一个属于这个线程池的指标，线程池终止时一起移除
+     */
+    <M extends Meter> M addMeter(M meter) {
+        meters.add(meter);
+        return meter;
+    }
+
+    /**
+     * 已提交但还没执行完的任务数（排队的加正在执行的）
+     */
+    public int getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getQueuedBytes() {
+        return queue.getQueuedBytes();
+    }
+
+    /**
+     * 运行时调整线程数和队列容量，队列缩小时已经在排队的任务不会被丢弃
+     */
+    public synchronized void resize(int corePoolSize, int maximumPoolSize, int queueCapacity) {
+        if (corePoolSize < 0 || maximumPoolSize <= 0 || maximumPoolSize < corePoolSize || queueCapacity < 0) {
+            throw new IllegalArgumentException("invalid pool size: core=" + corePoolSize + ", max=" + maximumPoolSize + ", queue=" + queueCapacity);
+        }
+        //调大时先调 max 再调 core，调小时反过来，任何时刻都不能出现 core > max
+        if (maximumPoolSize >= getMaximumPoolSize()) {
+            setMaximumPoolSize(maximumPoolSize);
+            setCorePoolSize(corePoolSize);
+        } else {
+            setCorePoolSize(corePoolSize);
+            setMaximumPoolSize(maximumPoolSize);
+        }
+        queue.setCapacity(queueCapacity);
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        queue.setMaxQueuedBytes(maxQueuedBytes);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        submittedCount.incrementAndGet();
+        super.execute(new TimedTask(command));
+    }
+
+    /**
+     * 阻塞提交：队列满时最多等待 timeout，还是放不进去就交给拒绝策略，把背压留给提交线程。
+     * 任务直接放进队列，只会预先启动核心线程，不会因为排队创建更多线程，适合核心线程数等于最大线程数的线程池
+     */
+    public void execute(Runnable command, long timeout, TimeUnit unit) throws InterruptedException {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        TimedTask task = new TimedTask(command);
+        submittedCount.incrementAndGet();
+        if (isShutdown()) {
+            getRejectedExecutionHandler().rejectedExecution(task, this);
+            return;
+        }
+        prestartAllCoreThreads();
+        boolean queued;
+        try {
+            queued = queue.offer(task, timeout, unit);
+        } catch (InterruptedException e) {
+            finished(task);
+            throw e;
+        }
+        //和 ThreadPoolExecutor.execute 一样，入队后再检查一次，关闭过程中进来的任务拿出来拒绝
+        if (!queued || (isShutdown() && remove(task))) {
+            getRejectedExecutionHandler().rejectedExecution(task, this);
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return runnable instanceof EstimatedSize ?
+                new SizedFutureTask<>(runnable, value, ((EstimatedSize) runnable).estimatedBytes()) : super.newTaskFor(runnable, value);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return callable instanceof EstimatedSize ?
+                new SizedFutureTask<>(callable, ((EstimatedSize) callable).estimatedBytes()) : super.newTaskFor(callable);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        long now = System.nanoTime();
+        if (r instanceof TimedTask) {
+            waitTimer.record(now - ((TimedTask) r).submitTime, TimeUnit.NANOSECONDS);
+        }
+        startTime.set(now);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        Long start = startTime.get();
+        if (start != null) {
+            executionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            startTime.remove();
+        }
+        if (r instanceof TimedTask) {
+            finished((TimedTask) r);
+        }
+    }
+
+    /**
+     * 任务执行完、被拒绝或者在排队时被移除（remove、purge、shutdownNow）都会调用，每个任务只计一次
+     */
+    void finished(TimedTask task) {
+        if (task.finish()) {
+            submittedCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * 队列里是 TimedTask，父类按 Future 判断取消的任务匹配不上，先按包装里的原始任务清理一遍
+     */
+    @Override
+    public void purge() {
+        getQueue().removeIf(task -> task instanceof TimedTask && ((TimedTask) task).unwrap() instanceof Future
+                && ((Future<?>) ((TimedTask) task).unwrap()).isCancelled());
+        super.purge();
+    }
+
+    /**
+     * 先移除指标再注销，同名的新线程池注册指标时不会拿到注册表里引用旧线程池的 Gauge
+     */
+    @Override
+    protected void terminated() {
+        super.terminated();
+        meters.forEach(Metrics.globalRegistry::remove);
+        meters.clear();
+        ThreadPools.unregister(this);
+    }
+
+    /**
+     * 返回用户提交的原始任务，而不是内部的包装
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        tasks.replaceAll(task -> task instanceof TimedTask ? ((TimedTask) task).unwrap() : task);
+        return tasks;
+    }
+
+    /**
+     * 记录提交时间并透传内存估算的任务包装
+     */
+    static class TimedTask implements Runnable, EstimatedSize {
+        private static final AtomicIntegerFieldUpdater<TimedTask> FINISHED =
+                AtomicIntegerFieldUpdater.newUpdater(TimedTask.class, "finished");
+
+        private final Runnable delegate;
+        private final long submitTime = System.nanoTime();
+        private final long bytes;
+        private volatile int finished;
+
+        TimedTask(Runnable delegate) {
+            this.delegate = delegate;
+            this.bytes = delegate instanceof EstimatedSize ? ((EstimatedSize) delegate).estimatedBytes() : 0;
+        }
+
+        Runnable unwrap() {
+            return delegate;
+        }
+
+        boolean finish() {
+            return FINISHED.compareAndSet(this, 0, 1);
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return bytes;
+        }
+    }
+
+    static class SizedFutureTask<V> extends FutureTask<V> implements EstimatedSize {
+        private final long bytes;
+
+        SizedFutureTask(Callable<V> callable, long bytes) {
+            super(callable);
+            this.bytes = bytes;
+        }
+
+        SizedFutureTask(Runnable runnable, V result, long bytes) {
+            super(runnable, result);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * 线程数到最大值后 eager 队列的任务先尝试强制入队，真正拒绝时交给用户配置的拒绝策略，
+     * 拒绝策略拿到的是用户提交的原始任务
+     */
+    private class ObservableRejectedHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler delegate;
+
+        ObservableRejectedHandler(RejectedExecutionHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (queue.isEager() && !executor.isShutdown() && queue.force(r)) {
+                return;
+            }
+            rejectedCounter.increment();
+            if (r instanceof TimedTask) {
+                finished((TimedTask) r);
+                r = ((TimedTask) r).unwrap();
+            }
+            delegate.rejectedExecution(r, executor);
+        }
+    }
+}
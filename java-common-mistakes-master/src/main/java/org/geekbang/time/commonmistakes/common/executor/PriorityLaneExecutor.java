@@ -0,0 +1,244 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一条工作负载车道：固定线程数，按优先级排队，有准入控制和截止时间
+ * <p>
+ * 线程和排队上限都由 {@link ThreadPools} 创建的线程池负责，线程池的 executor.* 指标就是这条车道的指标。
+ * 任务本身按优先级放在车道自己的优先队列里，每提交一个任务往线程池里放一个分派器，
+ * 分派器执行时取出当时优先级最高的任务来执行，所以排队上限、排队耗时、拒绝数都以线程池为准。
+ * <p>
+ * 线程池队列满了以后新任务不再准入：{@link #submit} 直接拒绝，
+ * {@link #submit(Callable, Priority, Duration, long, TimeUnit)} 让提交线程等待名额，把背压留给生产者自己，
+ * 而不是像 CallerRunsPolicy 那样占用调用方（比如 Tomcat）线程去执行任务。
+ * 任务开始执行时如果已经过了截止时间就直接丢弃，Future 以 {@link TaskShedException} 结束
+ */
+public class PriorityLaneExecutor extends AbstractExecutorService {
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    /**
+     * 任务排队超过截止时间被丢弃
+     */
+    public static class TaskShedException extends RejectedExecutionException {
+        public TaskShedException(String message) {
+            super(message);
+        }
+    }
+
+    private final LaneProfile profile;
+    private final ObservableThreadPoolExecutor pool;
+    private final PriorityBlockingQueue<LaneTask<?>> pending = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Counter shedCounter;
+    //线程池队列里放的都是这同一个分派器，取消任务时按它从队列里删掉一个名额
+    private final Runnable dispatcher = () -> {
+        LaneTask<?> task = pending.poll();
+        if (task != null) {
+            task.run();
+        }
+    };
+
+    PriorityLaneExecutor(LaneProfile profile) {
+        this.profile = profile;
+        this.pool = ThreadPools.builder(profile.getName() + "-lane")
+                .corePoolSize(profile.getThreads())
+                .maxPoolSize(profile.getThreads())
+                .queueCapacity(profile.getQueueCapacity())
+                .build();
+        this.shedCounter = pool.addMeter(Metrics.counter("executor.shed", "name", pool.getName()));
+    }
+
+    public LaneProfile getProfile() {
+        return profile;
+    }
+
+    public ObservableThreadPoolExecutor getPool() {
+        return pool;
+    }
+
+    /**
+     * 还没开始执行的任务数
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return submit(task, Priority.NORMAL, profile.getDefaultDeadline());
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return submit(Executors.callable(task), Priority.NORMAL, profile.getDefaultDeadline());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submit(Executors.callable(command), Priority.NORMAL, profile.getDefaultDeadline());
+    }
+
+    /**
+     * 非阻塞提交，排队已满时抛出 RejectedExecutionException
+     *
+     * @param deadline 从提交开始算的截止时间，为 null 表示不限制
+     */
+    public <T> Future<T> submit(Callable<T> task, Priority priority, Duration deadline) {
+        LaneTask<T> laneTask = newLaneTask(task, priority, deadline);
+        try {
+            pool.execute(dispatcher);
+        } catch (RejectedExecutionException ex) {
+            return rejected(laneTask, ex);
+        }
+        return laneTask;
+    }
+
+    /**
+     * 阻塞提交，最多等待 admissionTimeout 拿到排队名额，适合批处理生产者
+     */
+    public <T> Future<T> submit(Callable<T> task, Priority priority, Duration deadline,
+                                long admissionTimeout, TimeUnit unit) throws InterruptedException {
+        LaneTask<T> laneTask = newLaneTask(task, priority, deadline);
+        try {
+            pool.execute(dispatcher, admissionTimeout, unit);
+        } catch (RejectedExecutionException ex) {
+            return rejected(laneTask, ex);
+        } catch (InterruptedException ex) {
+            if (pending.remove(laneTask)) {
+                throw ex;
+            }
+            Thread.currentThread().interrupt();
+        }
+        return laneTask;
+    }
+
+    private <T> LaneTask<T> newLaneTask(Callable<T> task, Priority priority, Duration deadline) {
+        if (task == null || priority == null) {
+            throw new NullPointerException();
+        }
+        LaneTask<T> laneTask = new LaneTask<>(task, priority, sequence.getAndIncrement(),
+                deadline == null ? 0 : deadline.toNanos());
+        pending.add(laneTask);
+        return laneTask;
+    }
+
+    /**
+     * 没拿到名额的任务从优先队列里拿出来；如果已经被多余的分派器取走执行了，就当作提交成功
+     */
+    private <T> Future<T> rejected(LaneTask<T> laneTask, RejectedExecutionException ex) {
+        if (pending.remove(laneTask)) {
+            throw ex;
+        }
+        return laneTask;
+    }
+
+    /**
+     * 清理已经取消的任务，同时归还它们占用的线程池排队名额
+     */
+    public void purge() {
+        for (LaneTask<?> task : pending) {
+            if (task.isCancelled() && pending.remove(task)) {
+                pool.remove(dispatcher);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * 返回还没开始执行的任务，按优先级排序
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        pool.shutdownNow();
+        List<Runnable> tasks = new ArrayList<>();
+        LaneTask<?> task;
+        while ((task = pending.poll()) != null) {
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return pool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 优先级高的先执行，同一优先级按提交顺序
+     */
+    private class LaneTask<T> extends FutureTask<T> implements Comparable<LaneTask<?>> {
+        private final Priority priority;
+        private final long seq;
+        private final long submitTime = System.nanoTime();
+        private final long timeoutNanos;
+
+        LaneTask(Callable<T> callable, Priority priority, long seq, long timeoutNanos) {
+            super(callable);
+            this.priority = priority;
+            this.seq = seq;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        @Override
+        public void run() {
+            long waited = System.nanoTime() - submitTime;
+            if (timeoutNanos > 0 && waited > timeoutNanos) {
+                shedCounter.increment();
+                setException(new TaskShedException("task waited " + TimeUnit.NANOSECONDS.toMillis(waited)
+                        + "ms in lane " + profile.getName() + ", deadline exceeded"));
+                return;
+            }
+            super.run();
+        }
+
+        /**
+         * 排队时被取消的任务马上让出名额，不用等分派器取到它
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && pending.remove(this)) {
+                pool.remove(dispatcher);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(LaneTask<?> o) {
+            int result = priority.compareTo(o.priority);
+            return result != 0 ? result : Long.compare(seq, o.seq);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import io.micrometer.core.instrument.Metrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * PriorityLaneExecutor 测试
+ */
+public class PriorityLaneExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<PriorityLaneExecutor> lanes = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        lanes.forEach(PriorityLaneExecutor::shutdownNow);
+    }
+
+    private PriorityLaneExecutor lane(int threads, int queueCapacity, Duration deadline) {
+        PriorityLaneExecutor lane = new PriorityLaneExecutor(
+                LaneProfile.latencyCritical("test-" + UUID.randomUUID(), threads, queueCapacity, deadline));
+        lanes.add(lane);
+        return lane;
+    }
+
+    private Object block() throws InterruptedException {
+        release.await();
+        return null;
+    }
+
+    /**
+     * 占住车道唯一的线程，等任务真正开始执行再返回
+     */
+    private void occupy(PriorityLaneExecutor lane) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        lane.submit(() -> {
+            started.countDown();
+            return block();
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void highPriorityFirst() throws Exception {
+        PriorityLaneExecutor lane = lane(1, 10, null);
+        occupy(lane);
+        List<String> order = new CopyOnWriteArrayList<>();
+        Future<?> low = lane.submit(() -> order.add("low"), PriorityLaneExecutor.Priority.LOW, null);
+        lane.submit(() -> order.add("normal"), PriorityLaneExecutor.Priority.NORMAL, null);
+        lane.submit(() -> order.add("high"), PriorityLaneExecutor.Priority.HIGH, null);
+        release.countDown();
+        low.get(1, TimeUnit.SECONDS);
+        assertEquals(3, order.size());
+        assertEquals("high", order.get(0));
+        assertEquals("normal", order.get(1));
+        assertEquals("low", order.get(2));
+    }
+
+    @Test
+    public void rejectedWhenFull() throws Exception {
+        PriorityLaneExecutor lane = lane(1, 2, null);
+        occupy(lane);
+        lane.submit(this::block);
+        lane.submit(this::block);
+        try {
+            lane.submit(this::block);
+            fail("lane is full");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(2, lane.getPendingCount());
+        assertEquals(2, lane.getPool().getQueue().size());
+    }
+
+    @Test
+    public void cancelledTaskReleasesCapacity() throws Exception {
+        PriorityLaneExecutor lane = lane(1, 2, null);
+        occupy(lane);
+        //反复提交再取消，名额都要还回来
+        for (int i = 0; i < 10; i++) {
+            assertTrue(lane.submit(this::block).cancel(false));
+        }
+        assertEquals(0, lane.getPool().getQueue().size());
+        Future<?> first = lane.submit(this::block);
+        lane.submit(this::block);
+        assertEquals(2, lane.getPool().getQueue().size());
+
+        first.cancel(false);
+        lane.purge();
+        assertEquals(1, lane.getPendingCount());
+        assertEquals(1, lane.getPool().getQueue().size());
+        lane.submit(this::block);
+    }
+
+    @Test
+    public void shutdownNowReturnsPendingTasks() throws Exception {
+        PriorityLaneExecutor lane = lane(1, 10, null);
+        occupy(lane);
+        lane.submit(this::block, PriorityLaneExecutor.Priority.LOW, null);
+        lane.submit(this::block, PriorityLaneExecutor.Priority.HIGH, null);
+        assertEquals(2, lane.shutdownNow().size());
+        assertEquals(0, lane.getPendingCount());
+        assertEquals(0, lane.getPool().getQueue().size());
+        assertTrue(lane.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deadlineExceededIsShed() throws Exception {
+        PriorityLaneExecutor lane = lane(1, 10, Duration.ofMillis(10));
+        occupy(lane);
+        Future<Integer> future = lane.submit(() -> 1);
+        TimeUnit.MILLISECONDS.sleep(50);
+        release.countDown();
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("deadline exceeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PriorityLaneExecutor.TaskShedException);
+        }
+    }
+
+    @Test
+    public void shutdownReleasesPoolAndMeters() throws Exception {
+        PriorityLaneExecutor lane = lane(1, 1, null);
+        String name = lane.getPool().getName();
+        assertSame(lane.getPool(), ThreadPools.get(name));
+        assertNotNull(Metrics.globalRegistry.find("executor.shed").tag("name", name).counter());
+        lane.shutdown();
+        assertTrue(lane.awaitTermination(1, TimeUnit.SECONDS));
+        assertNull(ThreadPools.get(name));
+        assertTrue(Metrics.globalRegistry.find("executor.shed").tag("name", name).meters().isEmpty());
+        assertTrue(Metrics.globalRegistry.find("executor.queued").tag("name", name).meters().isEmpty());
+
+        //同一个 profile 可以重新建车道
+        PriorityLaneExecutor again = new PriorityLaneExecutor(lane.getProfile());
+        lanes.add(again);
+        assertEquals(1, (int) again.submit(() -> 1).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void blockingSubmitWaitsForCapacity() throws Exception {
+        PriorityLaneExecutor lane = lane(1, 1, null);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        lane.submit(() -> {
+            started.countDown();
+            return finish.await(1, TimeUnit.SECONDS);
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        lane.submit(() -> 1);
+        try {
+            lane.submit(() -> 2, PriorityLaneExecutor.Priority.LOW, null, 50, TimeUnit.MILLISECONDS);
+            fail("no capacity within timeout");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(1, lane.getPendingCount());
+
+        new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finish.countDown();
+        }).start();
+        Future<Integer> future = lane.submit(() -> 3, PriorityLaneExecutor.Priority.LOW, null, 1, TimeUnit.SECONDS);
+        assertEquals(3, (int) future.get(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,119 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import jodd.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池工厂，所有通过它创建的线程池都有明确的线程数、队列容量、线程名和拒绝策略，并自动接入监控
+ * <pre>
+ * ThreadPools.builder("demo").corePoolSize(2).maxPoolSize(5).queueCapacity(10).eager(true).build();
+ * </pre>
+ * 创建的线程池按名称登记，可以通过 {@link #get(String)} 拿到后在运行时调整；线程池关闭并终止后自动注销，名称可以再次使用
+ */
+public class ThreadPools {
+
+    private static final Map<String, ObservableThreadPoolExecutor> POOLS = new ConcurrentHashMap<>();
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public static ObservableThreadPoolExecutor get(String name) {
+        return POOLS.get(name);
+    }
+
+    public static Collection<ObservableThreadPoolExecutor> all() {
+        return Collections.unmodifiableCollection(POOLS.values());
+    }
+
+    static void unregister(ObservableThreadPoolExecutor executor) {
+        POOLS.remove(executor.getName(), executor);
+    }
+
+    public static class Builder {
+        private final String name;
+        private int corePoolSize = 1;
+        private int maxPoolSize = 1;
+        private long keepAliveTime = 60;
+        private TimeUnit unit = TimeUnit.SECONDS;
+        private int queueCapacity = 1000;
+        private long maxQueuedBytes;
+        private boolean eager;
+        private boolean allowCoreThreadTimeOut;
+        private RejectedExecutionHandler rejectedHandler = new ThreadPoolExecutor.AbortPolicy();
+
+        private Builder(String name) {
+            this.name = Objects.requireNonNull(name);
+        }
+
+        public Builder corePoolSize(int corePoolSize) {
+            this.corePoolSize = corePoolSize;
+            return this;
+        }
+
+        public Builder maxPoolSize(int maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        public Builder keepAlive(long keepAliveTime, TimeUnit unit) {
+            this.keepAliveTime = keepAliveTime;
+            this.unit = unit;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * 排队任务的估算内存上限，只统计实现了 {@link EstimatedSize} 的任务
+         */
+        public Builder maxQueuedBytes(long maxQueuedBytes) {
+            this.maxQueuedBytes = maxQueuedBytes;
+            return this;
+        }
+
+        /**
+         * 线程数没到最大值时优先创建线程而不是排队，适合 IO 密集型任务
+         */
+        public Builder eager(boolean eager) {
+            this.eager = eager;
+            return this;
+        }
+
+        public Builder allowCoreThreadTimeOut(boolean allowCoreThreadTimeOut) {
+            this.allowCoreThreadTimeOut = allowCoreThreadTimeOut;
+            return this;
+        }
+
+        public Builder rejectedHandler(RejectedExecutionHandler rejectedHandler) {
+            this.rejectedHandler = Objects.requireNonNull(rejectedHandler);
+            return this;
+        }
+
+        public ObservableThreadPoolExecutor build() {
+            //先检查再创建：构造时会注册指标，重名时注册表返回的是已有线程池的指标，不能创建出来再关掉
+            synchronized (POOLS) {
+                if (POOLS.containsKey(name)) {
+                    throw new IllegalStateException("thread pool " + name + " already exists");
+                }
+                ObservableThreadPoolExecutor executor = new ObservableThreadPoolExecutor(name, corePoolSize, maxPoolSize,
+                        keepAliveTime, unit, new EagerTaskQueue(queueCapacity, maxQueuedBytes, eager),
+                        new ThreadFactoryBuilder().setNameFormat(name + "-%d").get(), rejectedHandler);
+                executor.allowCoreThreadTimeOut(allowCoreThreadTimeOut);
+                POOLS.put(name, executor);
+                return executor;
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.geekbang.time.commonmistakes.common.executor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按工作负载隔离的线程池登记处，每类任务通过 {@link LaneProfile} 声明画像后拿到一条独立车道，
+ * 批处理把自己的车道占满也不会影响其它车道的延迟
+ */
+public class WorkloadExecutors {
+
+    private static final Map<String, PriorityLaneExecutor> LANES = new ConcurrentHashMap<>();
+
+    public static PriorityLaneExecutor register(LaneProfile profile) {
+        PriorityLaneExecutor lane = new PriorityLaneExecutor(profile);
+        if (LANES.putIfAbsent(profile.getName(), lane) != null) {
+            lane.shutdown();
+            throw new IllegalStateException("lane " + profile.getName() + " already registered");
+        }
+        return lane;
+    }
+
+    public static PriorityLaneExecutor lane(String name) {
+        PriorityLaneExecutor lane = LANES.get(name);
+        if (lane == null) {
+            throw new IllegalArgumentException("lane " + name + " not registered");
+        }
+        return lane;
+    }
+
+    public static Collection<PriorityLaneExecutor> lanes() {
+        return Collections.unmodifiableCollection(LANES.values());
+    }
+}
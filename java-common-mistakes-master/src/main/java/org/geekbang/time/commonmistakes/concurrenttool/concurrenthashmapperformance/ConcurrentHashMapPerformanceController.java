@@ -7,6 +7,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
@@ -43,6 +44,14 @@ public class ConcurrentHashMapPerformanceController {
                         .mapToLong(item -> item.getValue())
                         .reduce(0, Long::sum) == LOOP_COUNT
                 , "gooduse count error");
+        stopWatch.start("stripeduse");
+        Map<String, Long> stripeduse = stripeduse();
+        stopWatch.stop();
+        Assert.isTrue(stripeduse.size() == ITEM_COUNT, "stripeduse size error");
+        Assert.isTrue(stripeduse.entrySet().stream()
+                        .mapToLong(item -> item.getValue())
+                        .reduce(0, Long::sum) == LOOP_COUNT
+                , "stripeduse count error");
         log.info(stopWatch.prettyPrint());
         return "OK";
     }
@@ -82,4 +91,18 @@ public class ConcurrentHashMapPerformanceController {
                         e -> e.getValue().longValue())
                 );
     }
+
+    private Map<String, Long> stripeduse() throws InterruptedException {
+        //直接用数字做 key，每次计数不用拼字符串，也不用为每个 key 创建 LongAdder
+        StripedCounterMap freqs = new StripedCounterMap(ITEM_COUNT);
+        ForkJoinPool forkJoinPool = new ForkJoinPool(THREAD_COUNT);
+        forkJoinPool.execute(() -> IntStream.rangeClosed(1, LOOP_COUNT).parallel().forEach(i ->
+                freqs.increment(ThreadLocalRandom.current().nextInt(ITEM_COUNT))
+        ));
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+        Map<String, Long> result = new HashMap<>();
+        freqs.forEach((key, count) -> result.put("item" + key, count));
+        return result;
+    }
 }
@@ -0,0 +1,374 @@
+package org.geekbang.time.commonmistakes.concurrenttool.concurrenthashmapperformance;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按 long 类型的 key 计数的并发 Map，用来代替 ConcurrentHashMap&lt;String, LongAdder&gt;：
+ * key 和计数都放在 long 数组里（开放寻址 + 线性探测），不用为每个 key 分配 String、Node 和 LongAdder，
+ * 千万级 key 时堆占用只有原来的一小部分
+ * <p>
+ * 计数用 CAS 累加，同一个 key 上一次累加里 CAS 连续失败多次说明它是热点，才会给它分配按线程分散的 Stripes（类似 LongAdder 的 Cell），
+ * 冷 key 不需要额外的内存。热点 key 的计数格子里存的是 Stripes 在段内热点数组里的下标，累加时直接定位，不用查找。整个 Map 按 hash 分成多个段，只有插入新 key 和扩容时才锁段，
+ * 读（get、forEach、topK）不加锁，和 ConcurrentHashMap 一样是弱一致的
+ */
+public class StripedCounterMap {
+
+    //key 的空位标记，这个值本身不能作为 key
+    private static final long EMPTY = Long.MIN_VALUE;
+    //计数格子的特殊值：已经搬到新表；[HOT, HOT + MAX_HOT_KEYS) 表示热点 key，减去 HOT 是 Stripes 的下标
+    private static final long MOVED = Long.MIN_VALUE;
+    private static final long HOT = Long.MIN_VALUE + 1;
+    //每段最多的热点 key 数，超过以后新的竞争 key 只用 CAS 重试，Stripes 的内存不会无限增长
+    private static final int MAX_HOT_KEYS = 256;
+
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    //一次累加里 CAS 连续失败这么多次才把 key 转成热点，偶尔的一两次冲突不值得分配 Stripes
+    private static final int HOT_CAS_FAILURES = 8;
+    private static final int STRIPES = tableSizeFor(Runtime.getRuntime().availableProcessors());
+    //每个 Stripe 占一个缓存行
+    private static final int STRIPE_PADDING = 8;
+
+    @Value
+    public static class Entry {
+        long key;
+        long count;
+    }
+
+    public interface EntryConsumer {
+        void accept(long key, long count);
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public StripedCounterMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedKeys 预计的 key 数量，提前分配好避免扩容
+     */
+    public StripedCounterMap(int expectedKeys) {
+        int capacity = Math.max(INITIAL_SEGMENT_CAPACITY, tableSizeFor(expectedKeys / SEGMENTS * 4 / 3 + 1));
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    public void increment(long key) {
+        add(key, 1);
+    }
+
+    public void add(long key, long delta) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("key must not be Long.MIN_VALUE");
+        }
+        long hash = mix(key);
+        segments[(int) (hash >>> (64 - SEGMENT_SHIFT))].add(key, (int) hash, delta);
+    }
+
+    public long get(long key) {
+        if (key == EMPTY) {
+            return 0;
+        }
+        long hash = mix(key);
+        return segments[(int) (hash >>> (64 - SEGMENT_SHIFT))].get(key, (int) hash);
+    }
+
+    /**
+     * key 的个数
+     */
+    public int size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * 遍历所有 key 和计数，不阻塞写入，遍历过程中的累加可能看得到也可能看不到
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (Segment segment : segments) {
+            segment.forEach(consumer);
+        }
+    }
+
+    /**
+     * 计数最多的 k 个 key，按计数从大到小排列；用大小为 k 的最小堆，不需要把所有 key 拷贝出来
+     */
+    public List<Entry> topK(int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        long[] keys = new long[k];
+        long[] counts = new long[k];
+        int[] size = new int[1];
+        forEach((key, count) -> {
+            if (size[0] < k) {
+                int index = size[0]++;
+                keys[index] = key;
+                counts[index] = count;
+                siftUp(keys, counts, index);
+            } else if (count > counts[0]) {
+                keys[0] = key;
+                counts[0] = count;
+                siftDown(keys, counts, size[0]);
+            }
+        });
+        List<Entry> result = new ArrayList<>(size[0]);
+        for (int i = 0; i < size[0]; i++) {
+            result.add(new Entry(keys[i], counts[i]));
+        }
+        result.sort(Comparator.comparingLong(Entry::getCount).reversed());
+        return result;
+    }
+
+    private static void siftUp(long[] keys, long[] counts, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (counts[parent] <= counts[index]) {
+                break;
+            }
+            swap(keys, counts, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(long[] keys, long[] counts, int size) {
+        int index = 0;
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[index] <= counts[child]) {
+                break;
+            }
+            swap(keys, counts, index, child);
+            index = child;
+        }
+    }
+
+    private static void swap(long[] keys, long[] counts, int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
+    }
+
+    //murmur3 的 fmix64，连续的 key 也能均匀分散到各个段和槽位
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static boolean isHot(long count) {
+        return count >= HOT && count < HOT + MAX_HOT_KEYS;
+    }
+
+    private static int tableSizeFor(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicLongArray counts;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            counts = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                keys.lazySet(i, EMPTY);
+            }
+        }
+
+        //key 写进去以后不会再变，查找不需要加锁；没找到返回 -1
+        int find(long key, int hash) {
+            int index = hash & mask;
+            while (true) {
+                long existing = keys.get(index);
+                if (existing == key) {
+                    return index;
+                }
+                if (existing == EMPTY) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        //只在持有段锁时调用
+        int claim(long key, int hash) {
+            int index = hash & mask;
+            while (keys.get(index) != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            keys.set(index, key);
+            return index;
+        }
+    }
+
+    /**
+     * 热点 key 的计数，按线程分散到多个缓存行上累加，读的时候求和
+     */
+    private static final class Stripes {
+        final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIPE_PADDING);
+
+        void add(long delta) {
+            int stripe = (int) mix(Thread.currentThread().getId()) & (STRIPES - 1);
+            cells.getAndAdd(stripe * STRIPE_PADDING, delta);
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * STRIPE_PADDING);
+            }
+            return sum;
+        }
+    }
+
+    private static final class Segment {
+        private volatile Table table;
+        private volatile int size;
+        //热点 key 的 Stripes，只追加不删除，下标写在计数格子里；数组满了翻倍，只在段锁内修改
+        private volatile Stripes[] hot = new Stripes[4];
+        private int hotCount;
+
+        Segment(int capacity) {
+            table = new Table(capacity);
+        }
+
+        void add(long key, int hash, long delta) {
+            int failures = 0;
+            while (true) {
+                Table current = table;
+                int index = current.find(key, hash);
+                if (index < 0) {
+                    insert(key, hash);
+                    continue;
+                }
+                long count = current.counts.get(index);
+                if (count == MOVED) {
+                    //正在扩容，等扩容完成后在新表上重试
+                    synchronized (this) {
+                    }
+                    continue;
+                }
+                if (isHot(count)) {
+                    stripes(count).add(delta);
+                    return;
+                }
+                if (current.counts.compareAndSet(index, count, count + delta)) {
+                    return;
+                }
+                if (++failures == HOT_CAS_FAILURES) {
+                    makeHot(key, hash);
+                }
+            }
+        }
+
+        long get(long key, int hash) {
+            while (true) {
+                Table current = table;
+                int index = current.find(key, hash);
+                if (index < 0) {
+                    return 0;
+                }
+                long count = current.counts.get(index);
+                if (isHot(count)) {
+                    return stripes(count).sum();
+                }
+                if (count != MOVED) {
+                    return count;
+                }
+            }
+        }
+
+        void forEach(EntryConsumer consumer) {
+            Table current = table;
+            for (int i = 0; i <= current.mask; i++) {
+                long key = current.keys.get(i);
+                if (key == EMPTY) {
+                    continue;
+                }
+                long count = current.counts.get(i);
+                if (count == MOVED || isHot(count)) {
+                    //遍历途中这一段扩容了，或者是热点 key，单独去取最新的值；扩容后才插入的新 key 可能遍历不到
+                    count = get(key, (int) mix(key));
+                }
+                consumer.accept(key, count);
+            }
+        }
+
+        //Stripes 先放进数组再把下标写进计数格子，读到下标的线程一定能看到这个元素
+        private Stripes stripes(long count) {
+            return hot[(int) (count - HOT)];
+        }
+
+        private synchronized void insert(long key, int hash) {
+            Table current = table;
+            if (current.find(key, hash) >= 0) {
+                return;
+            }
+            //负载因子 0.75，线性探测命中时平均查找长度在 2.5 以内
+            if ((size + 1) * 4 > (current.mask + 1) * 3) {
+                current = resize(current);
+            }
+            current.claim(key, hash);
+            size++;
+        }
+
+        private Table resize(Table old) {
+            Table resized = new Table((old.mask + 1) * 2);
+            for (int i = 0; i <= old.mask; i++) {
+                long key = old.keys.get(i);
+                if (key == EMPTY) {
+                    continue;
+                }
+                //换成 MOVED 之后旧表上的 CAS 都会失败，计数不会丢
+                long count = old.counts.getAndSet(i, MOVED);
+                resized.counts.set(resized.claim(key, (int) mix(key)), count);
+            }
+            table = resized;
+            return resized;
+        }
+
+        private synchronized void makeHot(long key, int hash) {
+            Table current = table;
+            int index = current.find(key, hash);
+            //持有段锁时不会有扩容，当前表里不会出现 MOVED
+            if (isHot(current.counts.get(index)) || hotCount == MAX_HOT_KEYS) {
+                return;
+            }
+            Stripes stripes = new Stripes();
+            if (hotCount == hot.length) {
+                hot = Arrays.copyOf(hot, hotCount * 2);
+            }
+            int slot = hotCount++;
+            hot[slot] = stripes;
+            //把格子里已有的计数搬进 Stripes，之后的累加都走 Stripes
+            stripes.add(current.counts.getAndSet(index, HOT + slot));
+        }
+    }
+}
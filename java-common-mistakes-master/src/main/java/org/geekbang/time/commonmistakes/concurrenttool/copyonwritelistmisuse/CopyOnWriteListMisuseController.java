@@ -21,6 +21,7 @@ public class CopyOnWriteListMisuseController {
     public Map testWrite() {
         List<Integer> copyOnWriteArrayList = new CopyOnWriteArrayList<>();
         List<Integer> synchronizedList = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> snapshotList = new SnapshotList<>();
         StopWatch stopWatch = new StopWatch();
         int loopCount = 100000;
         stopWatch.start("Write:copyOnWriteArrayList");
@@ -29,10 +30,14 @@ public class CopyOnWriteListMisuseController {
         stopWatch.start("Write:synchronizedList");
         IntStream.rangeClosed(1, loopCount).parallel().forEach(__ -> synchronizedList.add(ThreadLocalRandom.current().nextInt(loopCount)));
         stopWatch.stop();
+        stopWatch.start("Write:snapshotList");
+        IntStream.rangeClosed(1, loopCount).parallel().forEach(__ -> snapshotList.add(ThreadLocalRandom.current().nextInt(loopCount)));
+        stopWatch.stop();
         log.info(stopWatch.prettyPrint());
         Map result = new HashMap();
         result.put("copyOnWriteArrayList", copyOnWriteArrayList.size());
         result.put("synchronizedList", synchronizedList.size());
+        result.put("snapshotList", snapshotList.size());
         return result;
     }
 
@@ -44,8 +49,10 @@ public class CopyOnWriteListMisuseController {
     public Map testRead() {
         List<Integer> copyOnWriteArrayList = new CopyOnWriteArrayList<>();
         List<Integer> synchronizedList = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> snapshotList = new SnapshotList<>();
         addAll(copyOnWriteArrayList);
         addAll(synchronizedList);
+        addAll(snapshotList);
         StopWatch stopWatch = new StopWatch();
         int loopCount = 1000000;
         int count = copyOnWriteArrayList.size();
@@ -55,10 +62,14 @@ public class CopyOnWriteListMisuseController {
         stopWatch.start("Read:synchronizedList");
         IntStream.range(0, loopCount).parallel().forEach(__ -> synchronizedList.get(ThreadLocalRandom.current().nextInt(count)));
         stopWatch.stop();
+        stopWatch.start("Read:snapshotList");
+        IntStream.range(0, loopCount).parallel().forEach(__ -> snapshotList.get(ThreadLocalRandom.current().nextInt(count)));
+        stopWatch.stop();
         log.info(stopWatch.prettyPrint());
         Map result = new HashMap();
         result.put("copyOnWriteArrayList", copyOnWriteArrayList.size());
         result.put("synchronizedList", synchronizedList.size());
+        result.put("snapshotList", snapshotList.size());
         return result;
     }
 }
@@ -0,0 +1,277 @@
+package org.geekbang.time.commonmistakes.concurrenttool.copyonwritelistmisuse;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * 读多写少、写入又是一阵一阵的场景下代替 CopyOnWriteArrayList 的列表：
+ * 元素存在一组固定大小的块里，写入后通过 volatile 的快照对象发布，读只访问快照，不加锁也不会重试
+ * <p>
+ * 和 CopyOnWriteArrayList 的区别在于追加：已经发布的快照只看自己 size 以内的元素，
+ * 所以追加可以直接写进共享的块，不用复制整个数组，均摊 O(1)；addAll 整批写完只发布一次快照。
+ * set 只复制一个块，remove 和中间插入仍然要复制全部元素，适合配置、注册表这种几乎只追加的列表。
+ * 迭代器遍历的是创建时的快照，和 CopyOnWriteArrayList 一样不会抛 ConcurrentModificationException
+ */
+public class SnapshotList<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    //第一个块从小容量开始翻倍，元素不多的列表不用一上来就占一整块
+    private static final int FIRST_CHUNK_CAPACITY = 16;
+
+    private static final Snapshot EMPTY = new Snapshot(new Object[0][], 0);
+
+    //写入之间用 this 加锁，读只读这个字段
+    private volatile Snapshot snapshot = EMPTY;
+
+    public SnapshotList() {
+    }
+
+    public SnapshotList(Collection<? extends E> elements) {
+        addAll(elements);
+    }
+
+    /**
+     * 不可变的快照：chunks 里 size 以内的元素发布以后不会再被改写，块可以被多个快照共享
+     */
+    private static final class Snapshot {
+        final Object[][] chunks;
+        final int size;
+
+        Snapshot(Object[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        Object get(int index) {
+            return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        Snapshot current = snapshot;
+        if (index < 0 || index >= current.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + current.size);
+        }
+        return (E) current.get(index);
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size;
+    }
+
+    @Override
+    public synchronized boolean add(E element) {
+        Snapshot current = snapshot;
+        Object[][] chunks = ensureCapacity(current, 1);
+        int index = current.size;
+        chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK] = element;
+        snapshot = new Snapshot(chunks, index + 1);
+        return true;
+    }
+
+    /**
+     * 整批追加，所有元素写完后才发布一次快照，读的一方要么看到整批，要么一个都看不到
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> elements) {
+        Object[] batch = elements.toArray();
+        if (batch.length == 0) {
+            return false;
+        }
+        synchronized (this) {
+            Snapshot current = snapshot;
+            Object[][] chunks = ensureCapacity(current, batch.length);
+            int index = current.size;
+            int copied = 0;
+            while (copied < batch.length) {
+                int offset = index & CHUNK_MASK;
+                int length = Math.min(batch.length - copied, CHUNK_SIZE - offset);
+                System.arraycopy(batch, copied, chunks[index >>> CHUNK_SHIFT], offset, length);
+                copied += length;
+                index += length;
+            }
+            snapshot = new Snapshot(chunks, index);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void add(int index, E element) {
+        Snapshot current = snapshot;
+        if (index == current.size) {
+            add(element);
+            return;
+        }
+        rangeCheckForAdd(index, current.size);
+        Object[] elements = toArray(current, 1);
+        System.arraycopy(elements, index, elements, index + 1, current.size - index);
+        elements[index] = element;
+        snapshot = build(elements);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized E set(int index, E element) {
+        Snapshot current = snapshot;
+        rangeCheck(index, current.size);
+        //只复制被改的块和块目录，其它块和旧快照共享
+        Object[][] chunks = current.chunks.clone();
+        int chunk = index >>> CHUNK_SHIFT;
+        chunks[chunk] = chunks[chunk].clone();
+        Object previous = chunks[chunk][index & CHUNK_MASK];
+        chunks[chunk][index & CHUNK_MASK] = element;
+        snapshot = new Snapshot(chunks, current.size);
+        return (E) previous;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized E remove(int index) {
+        Snapshot current = snapshot;
+        rangeCheck(index, current.size);
+        Object previous = current.get(index);
+        Object[] elements = toArray(current, 0);
+        System.arraycopy(elements, index + 1, elements, index, current.size - index - 1);
+        snapshot = build(Arrays.copyOf(elements, current.size - 1));
+        return (E) previous;
+    }
+
+    @Override
+    public synchronized boolean remove(Object element) {
+        int index = indexOf(element);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        snapshot = EMPTY;
+    }
+
+    /**
+     * 当前内容的不可变视图，之后的修改都不会影响它
+     */
+    public List<E> snapshot() {
+        Snapshot current = snapshot;
+        return new AbstractList<E>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public E get(int index) {
+                rangeCheck(index, current.size);
+                return (E) current.get(index);
+            }
+
+            @Override
+            public int size() {
+                return current.size;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Snapshot current = snapshot;
+        return new Iterator<E>() {
+            private int cursor;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < current.size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (cursor >= current.size) {
+                    throw new NoSuchElementException();
+                }
+                return (E) current.get(cursor++);
+            }
+        };
+    }
+
+    @Override
+    public Object[] toArray() {
+        Snapshot current = snapshot;
+        return toArray(current, 0);
+    }
+
+    /**
+     * 保证当前快照后面还能再放 count 个元素，返回给新快照用的块目录。
+     * 只会往旧快照看不到的位置写，唯一要复制的是还没长满的第一个块
+     */
+    private Object[][] ensureCapacity(Snapshot current, int count) {
+        Object[][] chunks = current.chunks;
+        int required = current.size + count;
+        if (required < 0) {
+            throw new OutOfMemoryError("list too large");
+        }
+        int chunkCount = ((required - 1) >>> CHUNK_SHIFT) + 1;
+        if (chunkCount > chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(chunkCount, chunks.length * 2));
+        }
+        if (chunks[0] == null || chunks[0].length < CHUNK_SIZE) {
+            int capacity = chunks[0] == null ? FIRST_CHUNK_CAPACITY : chunks[0].length;
+            while (capacity < Math.min(required, CHUNK_SIZE)) {
+                capacity <<= 1;
+            }
+            if (chunks[0] == null || capacity > chunks[0].length) {
+                //旧快照还引用着原来的目录，换第一个块之前要先复制目录
+                if (chunks == current.chunks) {
+                    chunks = chunks.clone();
+                }
+                chunks[0] = chunks[0] == null ? new Object[capacity] : Arrays.copyOf(chunks[0], capacity);
+            }
+        }
+        //只需要检查新元素落到的那几个块
+        for (int i = Math.max(1, current.size >>> CHUNK_SHIFT); i < chunkCount; i++) {
+            if (chunks[i] == null) {
+                chunks[i] = new Object[CHUNK_SIZE];
+            }
+        }
+        return chunks;
+    }
+
+    private static Object[] toArray(Snapshot current, int extra) {
+        Object[] elements = new Object[current.size + extra];
+        for (int copied = 0; copied < current.size; copied += CHUNK_SIZE) {
+            System.arraycopy(current.chunks[copied >>> CHUNK_SHIFT], 0, elements, copied, Math.min(CHUNK_SIZE, current.size - copied));
+        }
+        return elements;
+    }
+
+    //remove 和中间插入用，重新分配全部块，不和旧快照共享
+    private static Snapshot build(Object[] elements) {
+        int chunkCount = elements.length == 0 ? 0 : ((elements.length - 1) >>> CHUNK_SHIFT) + 1;
+        Object[][] chunks = new Object[chunkCount][];
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = Arrays.copyOfRange(elements, i << CHUNK_SHIFT, (i << CHUNK_SHIFT) + CHUNK_SIZE);
+        }
+        return new Snapshot(chunks, elements.length);
+    }
+
+    private static void rangeCheck(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static void rangeCheckForAdd(int index, int size) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
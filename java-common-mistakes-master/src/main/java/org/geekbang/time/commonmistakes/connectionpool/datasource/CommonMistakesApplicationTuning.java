@@ -0,0 +1,16 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource;
+
+import org.geekbang.time.commonmistakes.common.Utils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class CommonMistakesApplicationTuning {
+
+    public static void main(String[] args) {
+
+        Utils.loadPropertySource(CommonMistakesApplicationTuning.class, "tuning.properties");
+        SpringApplication.run(CommonMistakesApplicationTuning.class, args);
+    }
+}
+
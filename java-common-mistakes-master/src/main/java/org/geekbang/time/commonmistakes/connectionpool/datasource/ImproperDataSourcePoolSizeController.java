@@ -1,6 +1,7 @@
 package org.geekbang.time.commonmistakes.connectionpool.datasource;
 
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.connectionpool.datasource.advisor.PoolSizeAdvisor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,9 +13,16 @@ import org.springframework.web.bind.annotation.RestController;
 public class ImproperDataSourcePoolSizeController {
     @Autowired
     private UserService userService;
+    @Autowired
+    private PoolSizeAdvisor poolSizeAdvisor;
 
     @GetMapping("test")
     public Object test() {
         return userService.register();
     }
+
+    @GetMapping("advice")
+    public Object advice() {
+        return poolSizeAdvisor.getLastAdvice();
+    }
 }
@@ -0,0 +1,121 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource.advisor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按事务方法统计连接的使用情况：等待获取连接的时间、持有连接的时间、其中真正在执行 SQL 的时间。
+ * 当前线程在哪个事务方法里由 TransactionalMethodAspect 设置，不在事务方法里拿的连接记到 NO_METHOD 下。
+ * 累计值给 PoolSizeAdvisor 算每个周期的增量，同时通过 Micrometer 暴露：
+ * datasource.connection.acquire、datasource.connection.hold、datasource.connection.idle、datasource.connection.timeout
+ */
+@Component
+public class ConnectionUsageRecorder {
+
+    public static final String NO_METHOD = "none";
+
+    private final ThreadLocal<String> currentMethod = new ThreadLocal<>();
+    private final Map<String, MethodUsage> methods = new ConcurrentHashMap<>();
+
+    public String currentMethod() {
+        return currentMethod.get();
+    }
+
+    void enter(String method) {
+        currentMethod.set(method);
+    }
+
+    void exit() {
+        currentMethod.remove();
+    }
+
+    void connectionAcquired(String method, long waitNanos) {
+        MethodUsage usage = usage(method);
+        usage.acquireNanos.add(waitNanos);
+        usage.acquireTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void connectionFailed(String method, long waitNanos) {
+        MethodUsage usage = usage(method);
+        usage.timeouts.increment();
+        usage.timeoutCounter.increment();
+        usage.acquireTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void connectionReleased(String method, long holdNanos, long dbNanos) {
+        MethodUsage usage = usage(method);
+        usage.leases.increment();
+        usage.holdNanos.add(holdNanos);
+        usage.dbNanos.add(dbNanos);
+        usage.maxHoldNanos.accumulate(holdNanos);
+        usage.holdTimer.record(holdNanos, TimeUnit.NANOSECONDS);
+        usage.idleTimer.record(Math.max(0, holdNanos - dbNanos), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 每个方法到现在为止的累计值，单线程调用，同时重置每个方法的最长持有时间
+     */
+    public Map<String, Totals> totals() {
+        Map<String, Totals> totals = new HashMap<>();
+        methods.forEach((method, usage) -> totals.put(method, new Totals(usage.leases.sum(), usage.timeouts.sum(),
+                usage.acquireNanos.sum(), usage.holdNanos.sum(), usage.dbNanos.sum(), usage.maxHoldNanos.getThenReset())));
+        return totals;
+    }
+
+    private MethodUsage usage(String method) {
+        String key = method == null ? NO_METHOD : method;
+        //Java 8 的 computeIfAbsent 即使 key 已经存在也会锁住桶，先 get 一次
+        MethodUsage usage = methods.get(key);
+        if (usage == null) {
+            usage = methods.computeIfAbsent(key, MethodUsage::new);
+        }
+        return usage;
+    }
+
+    public static final class Totals {
+        final long leases;
+        final long timeouts;
+        final long acquireNanos;
+        final long holdNanos;
+        final long dbNanos;
+        final long maxHoldNanos;
+
+        Totals(long leases, long timeouts, long acquireNanos, long holdNanos, long dbNanos, long maxHoldNanos) {
+            this.leases = leases;
+            this.timeouts = timeouts;
+            this.acquireNanos = acquireNanos;
+            this.holdNanos = holdNanos;
+            this.dbNanos = dbNanos;
+            this.maxHoldNanos = maxHoldNanos;
+        }
+    }
+
+    private static final class MethodUsage {
+        final LongAdder leases = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder acquireNanos = new LongAdder();
+        final LongAdder holdNanos = new LongAdder();
+        final LongAdder dbNanos = new LongAdder();
+        final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max, 0);
+        final Timer acquireTimer;
+        final Timer holdTimer;
+        final Timer idleTimer;
+        final Counter timeoutCounter;
+
+        MethodUsage(String method) {
+            acquireTimer = Metrics.timer("datasource.connection.acquire", "method", method);
+            holdTimer = Metrics.timer("datasource.connection.hold", "method", method);
+            idleTimer = Metrics.timer("datasource.connection.idle", "method", method);
+            timeoutCounter = Metrics.counter("datasource.connection.timeout", "method", method);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource.advisor;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 包装连接池，记录每次拿连接等了多久、连接被持有了多久，以及持有期间花在 execute*、commit、rollback 上的时间。
+ * 持有时间减去 SQL 时间就是连接被占着却没有干活的时间（遍历 ResultSet 的时间不算在 SQL 时间里）
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+
+    private final ConnectionUsageRecorder recorder;
+
+    public InstrumentedDataSource(DataSource target, ConnectionUsageRecorder recorder) {
+        super(target);
+        this.recorder = recorder;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        String method = recorder.currentMethod();
+        long start = System.nanoTime();
+        try {
+            return wrap(super.getConnection(), method, start);
+        } catch (SQLException e) {
+            recorder.connectionFailed(method, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        String method = recorder.currentMethod();
+        long start = System.nanoTime();
+        try {
+            return wrap(super.getConnection(username, password), method, start);
+        } catch (SQLException e) {
+            recorder.connectionFailed(method, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private Connection wrap(Connection connection, String method, long requestedAt) {
+        long acquiredAt = System.nanoTime();
+        recorder.connectionAcquired(method, acquiredAt - requestedAt);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class},
+                new ConnectionHandler(connection, method, acquiredAt));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+        private final String method;
+        private final long acquiredAt;
+        //一个连接同一时间只会被一个线程使用
+        private long dbNanos;
+        private boolean closed;
+
+        ConnectionHandler(Connection target, String method, long acquiredAt) {
+            this.target = target;
+            this.method = method;
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        try {
+                            target.close();
+                        } finally {
+                            recorder.connectionReleased(method, System.nanoTime() - acquiredAt, dbNanos);
+                        }
+                    }
+                    return null;
+                case "commit":
+                case "rollback":
+                    return timed(target, m, args);
+                case "createStatement":
+                case "prepareStatement":
+                case "prepareCall":
+                    Object statement = InstrumentedDataSource.invoke(target, m, args);
+                    return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class[]{m.getReturnType()},
+                            new StatementHandler(statement, (Connection) proxy));
+                default:
+                    return InstrumentedDataSource.invoke(target, m, args);
+            }
+        }
+
+        Object timed(Object target, Method m, Object[] args) throws Throwable {
+            long start = System.nanoTime();
+            try {
+                return InstrumentedDataSource.invoke(target, m, args);
+            } finally {
+                dbNanos += System.nanoTime() - start;
+            }
+        }
+
+        private final class StatementHandler implements InvocationHandler {
+            private final Object target;
+            private final Connection connection;
+
+            StatementHandler(Object target, Connection connection) {
+                this.target = target;
+                this.connection = connection;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                String name = m.getName();
+                if (name.startsWith("execute")) {
+                    return timed(target, m, args);
+                }
+                if (name.equals("getConnection")) {
+                    return connection;
+                }
+                if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return InstrumentedDataSource.invoke(target, m, args);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource.advisor;
+
+import org.springframework.aop.scope.ScopedProxyUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * 把容器里的 DataSource 换成 InstrumentedDataSource，业务代码、JPA 和事务管理器拿到的都是包装过的。
+ * 引入了 spring-cloud-context 以后数据源是 @RefreshScope 的，CGLIB 代理会把目标对象强转成 HikariDataSource，
+ * 所以只包装代理，不包装 scopedTarget
+ */
+@Component
+public class InstrumentedDataSourcePostProcessor implements BeanPostProcessor {
+
+    @Autowired
+    private ConnectionUsageRecorder recorder;
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof InstrumentedDataSource) && !ScopedProxyUtils.isScopedTarget(beanName)) {
+            return new InstrumentedDataSource((DataSource) bean, recorder);
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,43 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource.advisor;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PoolSizeAdvisor 一个统计周期的结论，时间都是毫秒
+ */
+@Data
+public class PoolSizeAdvice {
+    private long windowMillis;
+    //每秒拿到并归还连接的次数 λ
+    private double requestsPerSecond;
+    //每次持有连接的平均时间 W
+    private double meanHoldMillis;
+    private double meanAcquireMillis;
+    //Little 定律 L = λW，平均同时被占用的连接数
+    private double busyConnections;
+    private int activeConnections;
+    private int threadsAwaitingConnection;
+    //活跃连接数占连接池上限的比例
+    private double saturation;
+    private int currentMaximumPoolSize;
+    private int recommendedMaximumPoolSize;
+    private boolean applied;
+    private List<MethodUsage> methods = new ArrayList<>();
+
+    @Data
+    public static class MethodUsage {
+        private String method;
+        private long leases;
+        private long timeouts;
+        private double meanAcquireMillis;
+        private double meanHoldMillis;
+        private double meanDbMillis;
+        private double maxHoldMillis;
+        //持有连接的时间里不是在执行 SQL 的比例
+        private double idleRatio;
+        private boolean holdingAcrossNonDbWork;
+    }
+}
@@ -0,0 +1,196 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource.advisor;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Metrics;
+import jodd.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期根据 ConnectionUsageRecorder 的统计给出连接池大小的建议：
+ * 按 Little 定律，平均同时被占用的连接数 L = λ（每秒拿到连接的次数）× W（每次持有的平均时间），
+ * 建议的 maximumPoolSize = L × (1 + headroom)，限制在 min-pool-size 和 max-pool-size 之间。
+ * λ 和 W 都只统计这个周期里用完归还的连接，超时没拿到连接的请求没有持有时间，不算进 λ，按方法单独记在 timeouts 里；
+ * 连接池不够用时 L 接近当前上限，建议值每个周期按 headroom 往上加，直到不再排队。
+ * 持有连接的时间大部分不在执行 SQL 的事务方法会被标记出来，这种方法应该先改代码，而不是加大连接池。
+ * 开启 auto-tune 后通过 HikariConfigMXBean 在运行时调整 maximumPoolSize，调大一步到位，调小每次最多减少四分之一
+ */
+@Slf4j
+@Component
+public class PoolSizeAdvisor {
+
+    private static final double NANOS_PER_MILLI = 1_000_000D;
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private ConnectionUsageRecorder recorder;
+
+    @Value("${datasource.advisor.interval-seconds:10}")
+    private int intervalSeconds;
+    @Value("${datasource.advisor.auto-tune:false}")
+    private boolean autoTune;
+    @Value("${datasource.advisor.headroom:0.25}")
+    private double headroom;
+    @Value("${datasource.advisor.min-pool-size:2}")
+    private int minPoolSize;
+    @Value("${datasource.advisor.max-pool-size:100}")
+    private int maxPoolSize;
+    //持有连接却没在执行 SQL 的时间超过这个值、并且超过一半，才算跨非数据库操作持有连接
+    @Value("${datasource.advisor.idle-hold-threshold-ms:50}")
+    private long idleHoldThresholdMs;
+
+    private HikariDataSource hikari;
+    private ScheduledExecutorService scheduler;
+    //下面几个字段只有调度线程读写
+    private long lastEvaluatedAt;
+    private Map<String, ConnectionUsageRecorder.Totals> lastTotals = new HashMap<>();
+
+    private volatile PoolSizeAdvice lastAdvice;
+
+    @PostConstruct
+    public void init() throws SQLException {
+        if (dataSource.isWrapperFor(HikariDataSource.class)) {
+            hikari = dataSource.unwrap(HikariDataSource.class);
+        } else {
+            log.warn("数据源不是 HikariDataSource，只给出建议，不读取连接池状态也不自动调整");
+        }
+        lastEvaluatedAt = System.nanoTime();
+        Metrics.gauge("datasource.pool.recommended.size", this, advisor -> advisor.lastAdvice == null ? Double.NaN : advisor.lastAdvice.getRecommendedMaximumPoolSize());
+        Metrics.gauge("datasource.pool.saturation", this, advisor -> advisor.lastAdvice == null ? Double.NaN : advisor.lastAdvice.getSaturation());
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("pool-size-advisor-%d").setDaemon(true).get());
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                evaluate();
+            } catch (Exception e) {
+                log.error("evaluate pool size failed", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public PoolSizeAdvice getLastAdvice() {
+        return lastAdvice;
+    }
+
+    synchronized PoolSizeAdvice evaluate() {
+        long now = System.nanoTime();
+        Map<String, ConnectionUsageRecorder.Totals> totals = recorder.totals();
+
+        PoolSizeAdvice advice = new PoolSizeAdvice();
+        advice.setWindowMillis(Math.round((now - lastEvaluatedAt) / NANOS_PER_MILLI));
+        double seconds = (now - lastEvaluatedAt) / 1e9;
+        long leases = 0, acquireNanos = 0, holdNanos = 0;
+        for (Map.Entry<String, ConnectionUsageRecorder.Totals> entry : totals.entrySet()) {
+            ConnectionUsageRecorder.Totals current = entry.getValue();
+            ConnectionUsageRecorder.Totals last = lastTotals.get(entry.getKey());
+            long methodLeases = current.leases - (last == null ? 0 : last.leases);
+            long methodTimeouts = current.timeouts - (last == null ? 0 : last.timeouts);
+            if (methodLeases == 0 && methodTimeouts == 0) {
+                continue;
+            }
+            long methodAcquire = current.acquireNanos - (last == null ? 0 : last.acquireNanos);
+            long methodHold = current.holdNanos - (last == null ? 0 : last.holdNanos);
+            long methodDb = current.dbNanos - (last == null ? 0 : last.dbNanos);
+            leases += methodLeases;
+            acquireNanos += methodAcquire;
+            holdNanos += methodHold;
+            advice.getMethods().add(methodUsage(entry.getKey(), methodLeases, methodTimeouts, methodAcquire, methodHold, methodDb, current.maxHoldNanos));
+        }
+        advice.getMethods().sort(Comparator.comparingDouble(PoolSizeAdvice.MethodUsage::getMeanHoldMillis).reversed());
+
+        //λ 和 W 要对同一批连接算，都只用这个周期里归还的连接
+        double lambda = leases / seconds;
+        double meanHoldSeconds = leases == 0 ? 0 : holdNanos / 1e9 / leases;
+        advice.setRequestsPerSecond(lambda);
+        advice.setMeanHoldMillis(meanHoldSeconds * 1000);
+        advice.setMeanAcquireMillis(leases == 0 ? 0 : acquireNanos / NANOS_PER_MILLI / leases);
+        advice.setBusyConnections(lambda * meanHoldSeconds);
+
+        if (hikari != null && hikari.getHikariPoolMXBean() != null) {
+            HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+            advice.setActiveConnections(pool.getActiveConnections());
+            advice.setThreadsAwaitingConnection(pool.getThreadsAwaitingConnection());
+            advice.setCurrentMaximumPoolSize(hikari.getMaximumPoolSize());
+            advice.setSaturation((double) pool.getActiveConnections() / hikari.getMaximumPoolSize());
+        }
+
+        int recommended = (int) Math.ceil(advice.getBusyConnections() * (1 + headroom));
+        advice.setRecommendedMaximumPoolSize(Math.max(minPoolSize, Math.min(maxPoolSize, recommended)));
+
+        lastEvaluatedAt = now;
+        lastTotals = totals;
+
+        if (leases > 0) {
+            if (autoTune && hikari != null) {
+                apply(advice);
+            }
+            log.info("连接池统计：λ={}/s W={}ms 平均等待={}ms L={} 活跃={} 排队={} 当前上限={} 建议上限={}{}",
+                    String.format("%.1f", lambda), String.format("%.1f", advice.getMeanHoldMillis()), String.format("%.1f", advice.getMeanAcquireMillis()),
+                    String.format("%.1f", advice.getBusyConnections()), advice.getActiveConnections(), advice.getThreadsAwaitingConnection(),
+                    advice.getCurrentMaximumPoolSize(), advice.getRecommendedMaximumPoolSize(), advice.isApplied() ? "（已调整）" : "");
+            advice.getMethods().stream().filter(PoolSizeAdvice.MethodUsage::isHoldingAcrossNonDbWork).forEach(method ->
+                    log.warn("{} 平均持有连接 {}ms，其中只有 {}ms 在执行 SQL，连接被占着做了其它事情，应该缩小事务范围而不是加大连接池",
+                            method.getMethod(), String.format("%.1f", method.getMeanHoldMillis()), String.format("%.1f", method.getMeanDbMillis())));
+        }
+        lastAdvice = advice;
+        return advice;
+    }
+
+    private PoolSizeAdvice.MethodUsage methodUsage(String method, long leases, long timeouts, long acquireNanos, long holdNanos, long dbNanos, long maxHoldNanos) {
+        PoolSizeAdvice.MethodUsage usage = new PoolSizeAdvice.MethodUsage();
+        usage.setMethod(method);
+        usage.setLeases(leases);
+        usage.setTimeouts(timeouts);
+        usage.setMaxHoldMillis(maxHoldNanos / NANOS_PER_MILLI);
+        if (leases > 0) {
+            long idleNanos = Math.max(0, holdNanos - dbNanos);
+            usage.setMeanAcquireMillis(acquireNanos / NANOS_PER_MILLI / leases);
+            usage.setMeanHoldMillis(holdNanos / NANOS_PER_MILLI / leases);
+            usage.setMeanDbMillis(dbNanos / NANOS_PER_MILLI / leases);
+            usage.setIdleRatio(holdNanos == 0 ? 0 : (double) idleNanos / holdNanos);
+            //不在事务方法里拿的连接（比如 Hibernate 启动时建表）没法给出缩小事务范围的建议，不标记
+            usage.setHoldingAcrossNonDbWork(!ConnectionUsageRecorder.NO_METHOD.equals(method)
+                    && usage.getIdleRatio() > 0.5 && idleNanos / NANOS_PER_MILLI / leases >= idleHoldThresholdMs);
+        }
+        return usage;
+    }
+
+    //maximumPoolSize 是少数可以在运行时修改的配置，要通过 HikariConfigMXBean 改
+    private void apply(PoolSizeAdvice advice) {
+        int current = hikari.getMaximumPoolSize();
+        int recommended = advice.getRecommendedMaximumPoolSize();
+        int target = recommended >= current ? recommended : Math.max(recommended, current - (current + 3) / 4);
+        if (target == current) {
+            return;
+        }
+        HikariConfigMXBean config = hikari.getHikariConfigMXBean();
+        config.setMaximumPoolSize(target);
+        //minimumIdle 默认等于 maximumPoolSize，不跟着调小的话空闲连接数会超过上限
+        if (config.getMinimumIdle() > target) {
+            config.setMinimumIdle(target);
+        }
+        advice.setApplied(true);
+        advice.setCurrentMaximumPoolSize(target);
+    }
+}
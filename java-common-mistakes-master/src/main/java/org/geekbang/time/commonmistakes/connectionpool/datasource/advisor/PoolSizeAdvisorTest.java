@@ -0,0 +1,134 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource.advisor;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import org.geekbang.time.commonmistakes.connectionpool.datasource.CommonMistakesApplicationTuning;
+import org.geekbang.time.commonmistakes.connectionpool.datasource.UserService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.PropertiesPropertySource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用 tuning.properties 启动 CommonMistakesApplicationTuning（H2），并发调用 UserService.register 后检查 PoolSizeAdvisor 的结论。
+ * register 在事务里拿着连接睡 500ms，连接池上限是 5
+ */
+public class PoolSizeAdvisorTest {
+
+    private static final double HEADROOM = 0.25;
+
+    private static ConfigurableApplicationContext context;
+    private static UserService userService;
+    private static PoolSizeAdvisor advisor;
+    private static HikariConfigMXBean config;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        Properties properties = new Properties();
+        properties.load(CommonMistakesApplicationTuning.class.getResourceAsStream("tuning.properties"));
+        //不让定时任务插进来，统计周期由测试自己调用 evaluate 划分
+        properties.setProperty("datasource.advisor.interval-seconds", "3600");
+        properties.setProperty("datasource.advisor.headroom", String.valueOf(HEADROOM));
+        properties.setProperty("server.port", "0");
+        //只依赖 H2，不连 Redis
+        properties.setProperty("spring.autoconfigure.exclude", "org.redisson.spring.starter.RedissonAutoConfiguration");
+        properties.setProperty("management.health.redis.enabled", "false");
+        //和 Utils.loadPropertySource 一样要盖过 application.properties，但不改系统属性
+        context = new SpringApplicationBuilder(CommonMistakesApplicationTuning.class)
+                .initializers(applicationContext -> applicationContext.getEnvironment().getPropertySources()
+                        .addFirst(new PropertiesPropertySource("tuning", properties)))
+                .run();
+        userService = context.getBean(UserService.class);
+        advisor = context.getBean(PoolSizeAdvisor.class);
+        config = context.getBean(DataSource.class).unwrap(HikariDataSource.class).getHikariConfigMXBean();
+        //启动时 Hibernate 建表也拿了连接，这个周期的负载很低，会把上限调小一步，结束这个周期后恢复成配置的 5
+        advisor.evaluate();
+        config.setMaximumPoolSize(5);
+        config.setMinimumIdle(5);
+    }
+
+    @AfterClass
+    public static void stop() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    /**
+     * threads 个线程各调用 callsPerThread 次 register，返回这段负载的统计结果
+     */
+    private PoolSizeAdvice drive(int threads, int callsPerThread) throws Exception {
+        //先结束上一个周期，只统计这次的负载
+        advisor.evaluate();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < callsPerThread; j++) {
+                        userService.register();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return advisor.evaluate();
+    }
+
+    private static PoolSizeAdvice.MethodUsage register(PoolSizeAdvice advice) {
+        return advice.getMethods().stream().filter(method -> method.getMethod().equals("UserService.register"))
+                .findFirst().orElseThrow(() -> new AssertionError("no usage for UserService.register: " + advice));
+    }
+
+    @Test
+    public void adviseAndTune() throws Exception {
+        //10 个线程抢 5 个连接，连接池一直是满的，按 Little 定律 L 接近 5
+        int before = config.getMaximumPoolSize();
+        assertEquals(5, before);
+        PoolSizeAdvice advice = drive(10, 3);
+
+        PoolSizeAdvice.MethodUsage usage = register(advice);
+        assertEquals(30, usage.getLeases());
+        assertEquals(0, usage.getTimeouts());
+        assertTrue(usage.toString(), usage.isHoldingAcrossNonDbWork());
+        assertTrue(usage.toString(), usage.getMeanHoldMillis() >= 500);
+
+        double windowSeconds = advice.getWindowMillis() / 1000D;
+        assertEquals(30 / windowSeconds, advice.getRequestsPerSecond(), 30 / windowSeconds * 0.1);
+        double busy = advice.getRequestsPerSecond() * advice.getMeanHoldMillis() / 1000;
+        assertEquals(busy, advice.getBusyConnections(), 0.01);
+        assertEquals(before, busy, 1);
+        assertEquals((int) Math.ceil(busy * (1 + HEADROOM)), advice.getRecommendedMaximumPoolSize());
+        //调大一步到位
+        assertTrue(advice.isApplied());
+        int grown = config.getMaximumPoolSize();
+        assertEquals(advice.getRecommendedMaximumPoolSize(), grown);
+        assertTrue(grown > before);
+
+        //一个线程顺序调用，L 接近 1，建议值是下限 2，但每次最多只缩小四分之一
+        advice = drive(1, 4);
+        assertEquals(4, register(advice).getLeases());
+        assertEquals(2, advice.getRecommendedMaximumPoolSize());
+        int shrunk = config.getMaximumPoolSize();
+        assertTrue(advice.isApplied());
+        assertTrue(shrunk < grown);
+        assertTrue(grown + " -> " + shrunk, grown - shrunk <= (grown + 3) / 4);
+        assertTrue(config.getMinimumIdle() <= shrunk);
+    }
+}
@@ -0,0 +1,51 @@
+package org.geekbang.time.commonmistakes.connectionpool.datasource.advisor;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录当前线程在哪个 @Transactional 方法里，优先级最高，保证在事务切面拿连接之前设置好。
+ * 事务方法里再调用的事务方法（比如 Repository）算在最外层的方法上
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TransactionalMethodAspect {
+
+    private final Map<Method, String> names = new ConcurrentHashMap<>();
+
+    @Autowired
+    private ConnectionUsageRecorder recorder;
+
+    @Around("@annotation(org.springframework.transaction.annotation.Transactional) || @within(org.springframework.transaction.annotation.Transactional)")
+    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+        if (recorder.currentMethod() != null) {
+            return pjp.proceed();
+        }
+        recorder.enter(name(((MethodSignature) pjp.getSignature()).getMethod()));
+        try {
+            return pjp.proceed();
+        } finally {
+            recorder.exit();
+        }
+    }
+
+    private String name(Method method) {
+        //Java 8 的 computeIfAbsent 即使 key 已经存在也会锁住桶，先 get 一次
+        String name = names.get(method);
+        if (name == null) {
+            name = names.computeIfAbsent(method, m -> m.getDeclaringClass().getSimpleName() + "." + m.getName());
+        }
+        return name;
+    }
+}
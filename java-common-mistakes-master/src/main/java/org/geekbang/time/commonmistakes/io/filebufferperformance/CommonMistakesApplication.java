@@ -117,9 +117,14 @@ public class CommonMistakesApplication {
     private static void fileChannelOperation() throws IOException {
         Files.deleteIfExists(Paths.get("dest.txt"));
 
-        FileChannel in = FileChannel.open(Paths.get("src.txt"), StandardOpenOption.READ);
-        FileChannel out = FileChannel.open(Paths.get("dest.txt"), CREATE, WRITE);
-        in.transferTo(0, in.size(), out);
+        //通道需要关闭；transferTo 可能少传，需要循环
+        try (FileChannel in = FileChannel.open(Paths.get("src.txt"), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get("dest.txt"), CREATE, WRITE)) {
+            long position = 0;
+            while (position < in.size()) {
+                position += in.transferTo(position, in.size() - position, out);
+            }
+        }
     }
 }
 
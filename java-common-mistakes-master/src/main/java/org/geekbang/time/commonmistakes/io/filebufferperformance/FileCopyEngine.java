@@ -0,0 +1,172 @@
+package org.geekbang.time.commonmistakes.io.filebufferperformance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * 文件复制/转换引擎
+ * <p>
+ * 提供几种复制策略，默认按文件大小选择：小文件用带缓冲的流，中等文件复用线程内的 DirectByteBuffer，
+ * 大文件用分块的 transferTo（单次 transferTo 在部分平台上最多只能传 2GB，且可能少传，需要循环）；
+ * 需要对内容做转换时 transferTo 用不了，不超过一个映射段（256MB）的大文件整个映射进来，更大的退回 DirectByteBuffer
+ */
+public class FileCopyEngine {
+
+    private static final long SMALL_FILE = 64 * 1024;
+    private static final long LARGE_FILE = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+    private static final long MAPPED_SEGMENT = 256 * 1024 * 1024;
+    private static final long TRANSFER_CHUNK = 1024 * 1024 * 1024;
+    //DirectByteBuffer 分配和回收都很贵，每个线程复用一个
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER_CACHE = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE));
+
+    /**
+     * 对读到的数据原地转换，buffer 的 position 到 limit 是本次读到的数据
+     */
+    @FunctionalInterface
+    public interface ByteTransformer {
+        void transform(ByteBuffer buffer);
+    }
+
+    public enum Strategy {
+        BUFFERED_STREAM {
+            @Override
+            void copy(FileChannel in, FileChannel out, ByteTransformer transformer) throws IOException {
+                //不关闭包装出来的流，通道由调用方负责关闭
+                InputStream inputStream = new BufferedInputStream(Channels.newInputStream(in), BUFFER_SIZE);
+                OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(out), BUFFER_SIZE);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = inputStream.read(buffer)) != -1) {
+                    if (transformer != null) {
+                        transformer.transform(ByteBuffer.wrap(buffer, 0, len));
+                    }
+                    outputStream.write(buffer, 0, len);
+                }
+                outputStream.flush();
+            }
+        },
+        DIRECT_BUFFER {
+            @Override
+            void copy(FileChannel in, FileChannel out, ByteTransformer transformer) throws IOException {
+                ByteBuffer buffer = DIRECT_BUFFER_CACHE.get();
+                buffer.clear();
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    if (transformer != null) {
+                        transformer.transform(buffer);
+                    }
+                    //每块都写完再读下一块，避免转换过的数据被重复转换
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+        },
+        MAPPED {
+            @Override
+            void copy(FileChannel in, FileChannel out, ByteTransformer transformer) throws IOException {
+                long size = in.size();
+                for (long position = 0; position < size; position += MAPPED_SEGMENT) {
+                    MappedByteBuffer segment = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_SEGMENT, size - position));
+                    if (transformer != null) {
+                        //只读映射不能原地改，转换时先拷到堆外缓冲里
+                        ByteBuffer buffer = DIRECT_BUFFER_CACHE.get();
+                        while (segment.hasRemaining()) {
+                            buffer.clear();
+                            int len = Math.min(buffer.capacity(), segment.remaining());
+                            ByteBuffer slice = segment.slice();
+                            slice.limit(len);
+                            buffer.put(slice);
+                            segment.position(segment.position() + len);
+                            buffer.flip();
+                            transformer.transform(buffer);
+                            while (buffer.hasRemaining()) {
+                                out.write(buffer);
+                            }
+                        }
+                    } else {
+                        while (segment.hasRemaining()) {
+                            out.write(segment);
+                        }
+                    }
+                }
+            }
+        },
+        TRANSFER_TO {
+            @Override
+            void copy(FileChannel in, FileChannel out, ByteTransformer transformer) throws IOException {
+                //transferTo 的数据不经过用户态，没法转换，copy 入口已经拒绝了带 transformer 的调用
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = in.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), out);
+                    if (transferred <= 0) {
+                        //transferTo 不再前进，剩下的部分改用普通的读写，源文件被截断了就报错，不能返回一个不完整的文件
+                        in.position(position);
+                        DIRECT_BUFFER.copy(in, out, null);
+                        if (out.size() < size) {
+                            throw new IOException("source truncated during copy, expected " + size + " bytes but copied " + out.size());
+                        }
+                        return;
+                    }
+                    position += transferred;
+                }
+            }
+        };
+
+        abstract void copy(FileChannel in, FileChannel out, ByteTransformer transformer) throws IOException;
+    }
+
+    public static Strategy chooseStrategy(long size, boolean transform) {
+        if (size < SMALL_FILE) {
+            return Strategy.BUFFERED_STREAM;
+        }
+        if (size < LARGE_FILE) {
+            return Strategy.DIRECT_BUFFER;
+        }
+        if (!transform) {
+            return Strategy.TRANSFER_TO;
+        }
+        //一个段就能映射下的文件省掉逐块 read 的系统调用；再大要分段映射，建立和回收映射的开销比直接读还大
+        if (size <= MAPPED_SEGMENT) {
+            return Strategy.MAPPED;
+        }
+        return Strategy.DIRECT_BUFFER;
+    }
+
+    public static long copy(Path source, Path target) throws IOException {
+        return copy(source, target, null);
+    }
+
+    public static long copy(Path source, Path target, ByteTransformer transformer) throws IOException {
+        return copy(source, target, chooseStrategy(Files.size(source), transformer != null), transformer);
+    }
+
+    /**
+     * 指定策略复制，TRANSFER_TO 不能和 transformer 一起用，在打开（截断）目标文件之前就抛 IllegalArgumentException
+     */
+    public static long copy(Path source, Path target, Strategy strategy, ByteTransformer transformer) throws IOException {
+        if (strategy == Strategy.TRANSFER_TO && transformer != null) {
+            throw new IllegalArgumentException("TRANSFER_TO can not transform content, use DIRECT_BUFFER or MAPPED instead");
+        }
+        try (FileChannel in = FileChannel.open(source, READ);
+             FileChannel out = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            strategy.copy(in, out, transformer);
+            return out.size();
+        }
+    }
+}
@@ -48,6 +48,29 @@ public class CommonMistakesApplication {
         log.info(stopWatch.prettyPrint());
     }
 
+    private static void mappedLinesTest() throws IOException {
+        MappedLineScanner scanner = new MappedLineScanner();
+        byte[] pattern = "-4".getBytes(UTF_8);
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start("Files.lines count");
+        try (Stream<String> lines = Files.lines(Paths.get("large.txt"))) {
+            log.info("lines {}", lines.count());
+        }
+        stopWatch.stop();
+        stopWatch.start("MappedLineScanner count");
+        log.info("lines {}", scanner.count(Paths.get("large.txt")));
+        stopWatch.stop();
+        stopWatch.start("Files.lines filter");
+        try (Stream<String> lines = Files.lines(Paths.get("large.txt"))) {
+            log.info("lines {}", lines.filter(line -> line.contains("-4")).count());
+        }
+        stopWatch.stop();
+        stopWatch.start("MappedLineScanner filter");
+        log.info("lines {}", scanner.count(Paths.get("large.txt"), line -> line.contains(pattern)));
+        stopWatch.stop();
+        log.info(stopWatch.prettyPrint());
+    }
+
     private static void init() throws IOException {
 
         String payload = IntStream.rangeClosed(1, 1000)
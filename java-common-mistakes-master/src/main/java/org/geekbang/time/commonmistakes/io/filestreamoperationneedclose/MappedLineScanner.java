@@ -0,0 +1,256 @@
+package org.geekbang.time.commonmistakes.io.filestreamoperationneedclose;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * 基于内存映射的并行按行扫描
+ * <p>
+ * 文件按换行符对齐切成多个块，每块单独映射后在 ForkJoinPool 上并行扫描；
+ * 每一行以 {@link LineView} 的形式交给调用方，它直接指向扫描窗口里的字节，不为每行创建 String。
+ * 文件句柄在扫描方法内部打开和关闭，调用方不需要关心
+ */
+public class MappedLineScanner {
+
+    private static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int BOUNDARY_PROBE_SIZE = 8192;
+    private static final ThreadLocal<byte[]> WINDOW = ThreadLocal.withInitial(() -> new byte[256 * 1024]);
+
+    /**
+     * 行处理器会被多个线程同时调用，LineView 只在本次回调内有效，需要保留请调用 toString
+     */
+    @FunctionalInterface
+    public interface LineConsumer {
+        void accept(LineView line);
+    }
+
+    @FunctionalInterface
+    public interface LinePredicate {
+        boolean test(LineView line);
+    }
+
+    private final ForkJoinPool pool;
+
+    public MappedLineScanner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public MappedLineScanner(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public long count(Path path) throws IOException {
+        return count(path, line -> true);
+    }
+
+    public long count(Path path, LinePredicate predicate) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            List<long[]> chunks = split(channel);
+            //空文件没有块可扫
+            if (chunks.isEmpty()) {
+                return 0;
+            }
+            return pool.invoke(new ScanTask(channel, chunks, 0, chunks.size(), predicate));
+        }
+    }
+
+    public void forEach(Path path, LineConsumer consumer) throws IOException {
+        count(path, line -> {
+            consumer.accept(line);
+            return true;
+        });
+    }
+
+    /**
+     * 按 CPU 核数切块，每块最大 64MB，块的结尾对齐到换行符之后
+     */
+    private List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(BOUNDARY_PROBE_SIZE,
+                Math.min(MAX_CHUNK_SIZE, size / (pool.getParallelism() * 4L) + 1));
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE_SIZE);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            end = end == size ? size : nextLineStart(channel, probe, end, size);
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, ByteBuffer probe, long position, long size) throws IOException {
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static class ScanTask extends RecursiveTask<Long> {
+        private final FileChannel channel;
+        private final List<long[]> chunks;
+        private final int from;
+        private final int to;
+        private final LinePredicate predicate;
+
+        ScanTask(FileChannel channel, List<long[]> chunks, int from, int to, LinePredicate predicate) {
+            this.channel = channel;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.predicate = predicate;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ScanTask left = new ScanTask(channel, chunks, from, middle, predicate);
+                left.fork();
+                long right = new ScanTask(channel, chunks, middle, to, predicate).compute();
+                return left.join() + right;
+            }
+            long[] chunk = chunks.get(from);
+            try {
+                return scan(channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]));
+            } catch (IOException e) {
+                throw new IllegalStateException("map file chunk failed", e);
+            }
+        }
+
+        /**
+         * 从映射内存批量拷到线程内复用的窗口里再找换行符，比逐字节读 MappedByteBuffer 快得多；
+         * 跨窗口的半行挪到窗口开头，和下一批数据拼起来
+         */
+        private long scan(MappedByteBuffer buffer) {
+            byte[] window = WINDOW.get();
+            LineView view = new LineView();
+            long matched = 0;
+            int carry = 0;
+            while (buffer.hasRemaining()) {
+                if (carry == window.length) {
+                    //一行比窗口还长，窗口翻倍
+                    window = Arrays.copyOf(window, window.length * 2);
+                    WINDOW.set(window);
+                }
+                int len = Math.min(window.length - carry, buffer.remaining());
+                buffer.get(window, carry, len);
+                int limit = carry + len;
+                int lineStart = 0;
+                for (int i = carry; i < limit; i++) {
+                    if (window[i] == '\n') {
+                        if (predicate.test(view.reset(window, lineStart, i))) {
+                            matched++;
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                carry = limit - lineStart;
+                System.arraycopy(window, lineStart, window, 0, carry);
+            }
+            if (carry > 0 && predicate.test(view.reset(window, 0, carry))) {
+                matched++;
+            }
+            return matched;
+        }
+    }
+
+    /**
+     * 一行数据的字节视图（不含换行符），指向扫描窗口，按字节访问；
+     * 作为 CharSequence 时每个字节当作一个 ISO-8859-1 字符，适合 ASCII 内容，需要正确解码 UTF-8 时调用 toString
+     */
+    public static class LineView implements CharSequence {
+        private byte[] bytes;
+        private int start;
+        private int end;
+
+        LineView reset(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+            return this;
+        }
+
+        public byte byteAt(int index) {
+            return bytes[start + index];
+        }
+
+        public boolean startsWith(byte[] prefix) {
+            if (prefix.length > length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (bytes[start + i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean contains(byte[] pattern) {
+            if (pattern.length == 0) {
+                return true;
+            }
+            byte first = pattern[0];
+            outer:
+            for (int i = start; i <= end - pattern.length; i++) {
+                if (bytes[i] != first) {
+                    continue;
+                }
+                for (int j = 1; j < pattern.length; j++) {
+                    if (bytes[i + j] != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            LineView view = new LineView();
+            view.bytes = bytes;
+            view.start = start + from;
+            view.end = start + to;
+            return view;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, length(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.geekbang.time.commonmistakes.io.filestreamoperationneedclose;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MappedLineScanner 测试
+ */
+public class MappedLineScannerTest {
+
+    private final MappedLineScanner scanner = new MappedLineScanner();
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("scanner", ".txt");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        assertEquals(0, scanner.count(file));
+        List<String> lines = new CopyOnWriteArrayList<>();
+        scanner.forEach(file, line -> lines.add(line.toString()));
+        assertTrue(lines.isEmpty());
+    }
+
+    @Test
+    public void lastLineWithoutNewline() throws IOException {
+        Files.write(file, "a\r\nbb\nccc".getBytes(StandardCharsets.UTF_8));
+        assertEquals(3, scanner.count(file));
+        assertEquals(1, scanner.count(file, line -> line.length() == 3 && line.toString().equals("ccc")));
+        assertEquals(1, scanner.count(file, line -> line.toString().equals("a")));
+    }
+
+    @Test
+    public void linesAcrossChunks() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            content.append(i % 10 == 0 ? "ERROR " : "INFO ").append(i).append('\n');
+        }
+        content.append("ERROR tail");
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] error = "ERROR".getBytes(StandardCharsets.UTF_8);
+        assertEquals(100001, scanner.count(file));
+        assertEquals(10001, scanner.count(file, line -> line.startsWith(error)));
+    }
+}
@@ -1,6 +1,8 @@
 package org.geekbang.time.commonmistakes.java8;
 
 
+import org.geekbang.time.commonmistakes.java8.analytics.OrderAnalytics;
+import org.geekbang.time.commonmistakes.java8.collector.FrequencyCollectors;
 import org.geekbang.time.commonmistakes.java8.collector.MostPopularCollector;
 import org.junit.Before;
 import org.junit.Test;
@@ -18,6 +20,7 @@ import static java.util.Comparator.comparingDouble;
 import static java.util.stream.Collectors.*;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class StreamDetailTest {
     private static Random random = new Random();
@@ -261,6 +264,93 @@ public class StreamDetailTest {
         assertThat(Stream.of('a', 'b', 'c', 'c', 'c', 'd').collect(new MostPopularCollector<>()).get(), is('c'));
         assertThat(Stream.concat(Stream.concat(IntStream.rangeClosed(1, 1000).boxed(), IntStream.rangeClosed(1, 1000).boxed()), Stream.of(2))
                 .parallel().collect(new MostPopularCollector<>()).get(), is(2));
+        assertThat(Stream.concat(Stream.concat(IntStream.rangeClosed(1, 1000).boxed(), IntStream.rangeClosed(1, 1000).boxed()), Stream.of(2))
+                .parallel().collect(FrequencyCollectors.mostPopular()).get(), is(2));
+        assertThat(Stream.concat(Stream.concat(IntStream.rangeClosed(1, 1000).boxed(), IntStream.rangeClosed(1, 1000).boxed()), Stream.of(2))
+                .parallel().collect(FrequencyCollectors.mostPopularConcurrent()).get(), is(2));
+        assertThat(Stream.of(1, 1, 2, 2, 2, 3).collect(FrequencyCollectors.mostPopularConcurrent()).get(), is(2));
+        assertThat(Stream.<Integer>empty().parallel().collect(FrequencyCollectors.mostPopularConcurrent()).isPresent(), is(false));
+        //作为 groupingBy 的下游时各段的结果容器要合并
+        Map<Boolean, Optional<Integer>> popularByParity = Stream.concat(IntStream.rangeClosed(1, 1000).boxed(),
+                Stream.concat(Stream.generate(() -> 2).limit(10), Stream.generate(() -> 3).limit(20)))
+                .parallel().collect(groupingBy(i -> i % 2 == 0, FrequencyCollectors.mostPopularConcurrent()));
+        assertThat(popularByParity.get(true).get(), is(2));
+        assertThat(popularByParity.get(false).get(), is(3));
+        //近似 Top-K：10 个计数器统计 1000 种 key，出现次数占大头的 key 一定能找出来
+        assertThat(Stream.concat(IntStream.rangeClosed(1, 1000).boxed(), Stream.generate(() -> 2).limit(500))
+                .parallel().collect(FrequencyCollectors.topK(1, 10)).get(0).getItem(), is(2));
+
+    }
+
+    @Test
+    public void columnar() //列式存储的分析引擎，结果和上面的 Stream 写法一致
+    {
+        OrderAnalytics analytics = new OrderAnalytics();
+        analytics.appendAll(orders);
+
+        assertThat(analytics.query().placedAfter(LocalDateTime.now().minusMonths(6)).totalPriceGreaterThan(40).count(),
+                is(orders.stream()
+                        .filter(order -> order.getPlacedAt().isAfter(LocalDateTime.now().minusMonths(6)))
+                        .filter(order -> order.getTotalPrice() > 40).count()));
+
+        assertThat(analytics.query().countByCustomer(), is(orders.stream().collect(groupingBy(Order::getCustomerName, counting()))));
+
+        Map<String, Long> quantityByProduct = orders.stream()
+                .flatMap(order -> order.getOrderItemList().stream())
+                .collect(groupingBy(OrderItem::getProductName, summingLong(OrderItem::getProductQuantity)));
+        assertThat(analytics.query().quantityByProduct(), is(quantityByProduct));
+        assertThat(quantityByProduct.get(analytics.query().mostPopularProduct().get()),
+                is(Collections.max(quantityByProduct.values())));
+
+        Map<String, List<Long>> idsByMonth = orders.stream().collect(groupingBy(order -> order.getPlacedAt().format(DateTimeFormatter.ofPattern("yyyyMM")),
+                mapping(Order::getId, toList())));
+        Map<String, long[]> columnarIdsByMonth = analytics.query().orderIdsByMonth();
+        assertThat(columnarIdsByMonth.keySet(), is(idsByMonth.keySet()));
+        columnarIdsByMonth.forEach((month, ids) -> assertThat(Arrays.stream(ids).boxed().collect(toList()), is(idsByMonth.get(month))));
+
+        assertThat(analytics.query().distinctProducts(), is(orders.stream()
+                .flatMap(order -> order.getOrderItemList().stream())
+                .map(OrderItem::getProductName)
+                .distinct().sorted().collect(toList())));
+
+        System.out.println(analytics.query().topCustomersBySpend(3));
+    }
 
+    @Test
+    public void columnarFailedAppend() //追加失败的订单不能留下写了一半的数据，初始容量为 0 也能扩容
+    {
+        OrderAnalytics analytics = new OrderAnalytics(0, 0);
+        analytics.appendAll(orders);
+
+        Order bad = orders.get(0);
+        bad.setPlacedAt(LocalDateTime.MAX);
+        try {
+            analytics.append(bad);
+            fail("placedAt out of range");
+        } catch (ArithmeticException expected) {
+        }
+        assertThat(analytics.orderCount(), is(orders.size()));
+        assertThat(analytics.query().count(), is((long) orders.size()));
+        Map<String, Long> quantityByProduct = orders.stream()
+                .flatMap(order -> order.getOrderItemList().stream())
+                .collect(groupingBy(OrderItem::getProductName, summingLong(OrderItem::getProductQuantity)));
+        assertThat(analytics.query().quantityByProduct(), is(quantityByProduct));
+    }
+
+    @Test
+    public void columnarSubSecond() //同一秒内的订单也要按时间精确过滤
+    {
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 10, 0);
+        orders.get(0).setPlacedAt(base.plusNanos(500_000_000));
+        orders.get(1).setPlacedAt(base.plusNanos(200_000_000));
+        OrderAnalytics analytics = new OrderAnalytics();
+        analytics.appendAll(orders);
+
+        LocalDateTime time = base.plusNanos(200_000_000);
+        assertThat(analytics.query().placedAfter(time).count(),
+                is(orders.stream().filter(order -> order.getPlacedAt().isAfter(time)).count()));
+        assertThat(analytics.query().placedBefore(time.plusNanos(1)).count(),
+                is(orders.stream().filter(order -> order.getPlacedAt().isBefore(time.plusNanos(1))).count()));
+        assertThat(analytics.query().placedAfter(base).placedBefore(base.plusSeconds(1)).count(), is(2L));
     }
 }
@@ -0,0 +1,566 @@
+package org.geekbang.time.commonmistakes.java8.analytics;
+
+import org.geekbang.time.commonmistakes.java8.Order;
+import org.geekbang.time.commonmistakes.java8.OrderItem;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * 列式存储的订单分析引擎
+ * <p>
+ * 订单和订单商品拆成基本类型数组按列保存，客户名和商品名做字典编码，查询时直接在数组上循环，
+ * 不创建装箱对象；数据量大时按行区间切分，在 ForkJoinPool 上并行计算再合并。
+ * 订单商品按订单顺序连续存放，itemEnds[i] 是第 i 个订单商品区间的结束位置。
+ * 追加数据串行执行，查询创建时记下当时的行数，之后追加的数据对这次查询不可见
+ */
+public class OrderAnalytics {
+
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final ForkJoinPool pool;
+    private final Dictionary customers = new Dictionary();
+    private final Dictionary products = new Dictionary();
+
+    //订单列
+    private long[] orderIds;
+    private int[] customerCodes;
+    private long[] placedAt;
+    private int[] months;
+    private double[] totalPrices;
+    private int[] itemEnds;
+    //订单商品列
+    private int[] productCodes;
+    private double[] productPrices;
+    private int[] quantities;
+
+    private int itemCount;
+    private int minMonth = Integer.MAX_VALUE;
+    private int maxMonth = Integer.MIN_VALUE;
+    //orderCount() 不加锁读取
+    private volatile int orderCount;
+
+    public OrderAnalytics() {
+        this(1024, 4096);
+    }
+
+    public OrderAnalytics(int expectedOrders, int expectedItems) {
+        this(expectedOrders, expectedItems, ForkJoinPool.commonPool());
+    }
+
+    public OrderAnalytics(int expectedOrders, int expectedItems, ForkJoinPool pool) {
+        this.pool = pool;
+        orderIds = new long[expectedOrders];
+        customerCodes = new int[expectedOrders];
+        placedAt = new long[expectedOrders];
+        months = new int[expectedOrders];
+        totalPrices = new double[expectedOrders];
+        itemEnds = new int[expectedOrders];
+        productCodes = new int[expectedItems];
+        productPrices = new double[expectedItems];
+        quantities = new int[expectedItems];
+    }
+
+    public synchronized void appendAll(Collection<Order> orders) {
+        orders.forEach(this::appendRow);
+    }
+
+    public synchronized void append(Order order) {
+        appendRow(order);
+    }
+
+    private void appendRow(Order order) {
+        //先算出会抛异常的值；列里的数据写在 orderCount、itemCount 之后，最后才提交这两个计数，
+        //中途抛异常时写了一半的行和商品对查询都不可见，下一行直接覆盖
+        long id = order.getId();
+        LocalDateTime time = order.getPlacedAt();
+        long placed = epochNanos(time);
+        int month = time.getYear() * 12 + time.getMonthValue() - 1;
+        List<OrderItem> items = order.getOrderItemList();
+
+        int row = orderCount;
+        if (row == orderIds.length) {
+            //expectedOrders 可能是 0，0 * 2 还是 0
+            growOrders(Math.max(16, row * 2));
+        }
+        if (itemCount + items.size() > productCodes.length) {
+            growItems(Math.max(productCodes.length * 2, itemCount + items.size()));
+        }
+        int itemEnd = itemCount;
+        double total = 0;
+        for (OrderItem item : items) {
+            double price = item.getProductPrice();
+            int quantity = item.getProductQuantity();
+            productCodes[itemEnd] = products.encode(item.getProductName());
+            productPrices[itemEnd] = price;
+            quantities[itemEnd] = quantity;
+            total += price * quantity;
+            itemEnd++;
+        }
+        orderIds[row] = id;
+        customerCodes[row] = customers.encode(order.getCustomerName());
+        placedAt[row] = placed;
+        months[row] = month;
+        totalPrices[row] = order.getTotalPrice() != null ? order.getTotalPrice() : total;
+        itemEnds[row] = itemEnd;
+        minMonth = Math.min(minMonth, month);
+        maxMonth = Math.max(maxMonth, month);
+        itemCount = itemEnd;
+        orderCount = row + 1;
+    }
+
+    private void growOrders(int capacity) {
+        orderIds = Arrays.copyOf(orderIds, capacity);
+        customerCodes = Arrays.copyOf(customerCodes, capacity);
+        placedAt = Arrays.copyOf(placedAt, capacity);
+        months = Arrays.copyOf(months, capacity);
+        totalPrices = Arrays.copyOf(totalPrices, capacity);
+        itemEnds = Arrays.copyOf(itemEnds, capacity);
+    }
+
+    private void growItems(int capacity) {
+        productCodes = Arrays.copyOf(productCodes, capacity);
+        productPrices = Arrays.copyOf(productPrices, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+    }
+
+    /**
+     * 下单时间按纳秒存，不能截断到秒，否则同一秒内的订单在按时间过滤时分不出先后
+     */
+    private static long epochNanos(LocalDateTime time) {
+        return Math.addExact(Math.multiplyExact(time.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L), time.getNano());
+    }
+
+    public int orderCount() {
+        return orderCount;
+    }
+
+    /**
+     * 列数组占用的内存，不含字典
+     */
+    public synchronized long estimatedBytes() {
+        return orderIds.length * (8L + 4 + 8 + 4 + 8 + 4) + productCodes.length * (4L + 8 + 4);
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    /**
+     * 一次查询：先用 placedAfter/totalPriceGreaterThan 等方法设置过滤条件，再调用聚合方法
+     */
+    public class Query {
+        private final int rows;
+        private final String[] customerNames;
+        private final String[] productNames;
+        private final int customerCount;
+        private final int productCount;
+        private final int monthBase;
+        private final int monthCount;
+        private final long[] orderIds;
+        private final int[] customerCodes;
+        private final long[] placedAt;
+        private final int[] months;
+        private final double[] totalPrices;
+        private final int[] itemEnds;
+        private final int[] productCodes;
+        private final int[] quantities;
+
+        private long placedFrom = Long.MIN_VALUE;
+        private long placedTo = Long.MAX_VALUE;
+        private double minTotal = Double.NEGATIVE_INFINITY;
+        private int customer = -1;
+
+        private Query() {
+            //只在创建查询时短暂加锁拿到当前的数组和行数，查询过程中不阻塞追加
+            synchronized (OrderAnalytics.this) {
+                rows = orderCount;
+                customerNames = customers.values;
+                productNames = products.values;
+                customerCount = customers.size();
+                productCount = products.size();
+                monthBase = minMonth;
+                monthCount = rows == 0 ? 0 : maxMonth - minMonth + 1;
+                orderIds = OrderAnalytics.this.orderIds;
+                customerCodes = OrderAnalytics.this.customerCodes;
+                placedAt = OrderAnalytics.this.placedAt;
+                months = OrderAnalytics.this.months;
+                totalPrices = OrderAnalytics.this.totalPrices;
+                itemEnds = OrderAnalytics.this.itemEnds;
+                productCodes = OrderAnalytics.this.productCodes;
+                quantities = OrderAnalytics.this.quantities;
+            }
+        }
+
+        public Query placedAfter(LocalDateTime time) {
+            //列里存的是纳秒，和 LocalDateTime 精度一致，加减 1 纳秒就是严格的大于和小于
+            try {
+                placedFrom = Math.addExact(epochNanos(time), 1);
+            } catch (ArithmeticException e) {
+                placedFrom = time.getYear() > 1970 ? Long.MAX_VALUE : Long.MIN_VALUE;
+            }
+            return this;
+        }
+
+        public Query placedBefore(LocalDateTime time) {
+            try {
+                placedTo = Math.subtractExact(epochNanos(time), 1);
+            } catch (ArithmeticException e) {
+                placedTo = time.getYear() > 1970 ? Long.MAX_VALUE : Long.MIN_VALUE;
+            }
+            return this;
+        }
+
+        public Query totalPriceGreaterThan(double price) {
+            minTotal = Math.nextUp(price);
+            return this;
+        }
+
+        public Query customer(String name) {
+            synchronized (OrderAnalytics.this) {
+                customer = customers.find(name);
+            }
+            //不存在的客户用一个不会出现的编码，保证什么都查不到
+            if (customer < 0) {
+                customer = Integer.MAX_VALUE;
+            }
+            return this;
+        }
+
+        private boolean unfiltered() {
+            return placedFrom == Long.MIN_VALUE && placedTo == Long.MAX_VALUE
+                    && minTotal == Double.NEGATIVE_INFINITY && customer < 0;
+        }
+
+        private boolean matches(int row) {
+            long time = placedAt[row];
+            return time >= placedFrom && time <= placedTo && totalPrices[row] >= minTotal
+                    && (customer < 0 || customerCodes[row] == customer);
+        }
+
+        public long count() {
+            return reduce((from, to) -> {
+                long count = 0;
+                for (int row = from; row < to; row++) {
+                    if (matches(row)) {
+                        count++;
+                    }
+                }
+                return count;
+            }, Long::sum);
+        }
+
+        public double sumTotalPrice() {
+            return reduce((from, to) -> {
+                double sum = 0;
+                for (int row = from; row < to; row++) {
+                    if (matches(row)) {
+                        sum += totalPrices[row];
+                    }
+                }
+                return sum;
+            }, Double::sum);
+        }
+
+        public long[] orderIds() {
+            long[] result = new long[(int) count()];
+            int index = 0;
+            for (int row = 0; row < rows; row++) {
+                if (matches(row)) {
+                    result[index++] = orderIds[row];
+                }
+            }
+            return result;
+        }
+
+        public Map<String, Long> countByCustomer() {
+            long[] counts = reduce((from, to) -> {
+                long[] partial = new long[customerCount];
+                for (int row = from; row < to; row++) {
+                    if (matches(row)) {
+                        partial[customerCodes[row]]++;
+                    }
+                }
+                return partial;
+            }, OrderAnalytics::addTo);
+            return decodeSorted(customerNames, counts);
+        }
+
+        public Map<String, Double> sumTotalPriceByCustomer() {
+            double[] sums = reduce((from, to) -> {
+                double[] partial = new double[customerCount];
+                for (int row = from; row < to; row++) {
+                    if (matches(row)) {
+                        partial[customerCodes[row]] += totalPrices[row];
+                    }
+                }
+                return partial;
+            }, OrderAnalytics::addTo);
+            return decodeSorted(customerNames, sums);
+        }
+
+        public Map<String, Long> quantityByCustomer() {
+            long[] sums = reduce((from, to) -> {
+                long[] partial = new long[customerCount];
+                int item = from == 0 ? 0 : itemEnds[from - 1];
+                for (int row = from; row < to; row++) {
+                    int end = itemEnds[row];
+                    if (matches(row)) {
+                        long quantity = 0;
+                        for (; item < end; item++) {
+                            quantity += quantities[item];
+                        }
+                        partial[customerCodes[row]] += quantity;
+                    }
+                    item = end;
+                }
+                return partial;
+            }, OrderAnalytics::addTo);
+            return decodeSorted(customerNames, sums);
+        }
+
+        public Map<String, Long> quantityByProduct() {
+            return decodeSorted(productNames, productQuantities());
+        }
+
+        private long[] productQuantities() {
+            return reduce((from, to) -> {
+                long[] partial = new long[productCount];
+                int item = from == 0 ? 0 : itemEnds[from - 1];
+                if (unfiltered()) {
+                    //没有过滤条件时直接扫商品列，省掉逐行判断
+                    for (int end = to == 0 ? 0 : itemEnds[to - 1]; item < end; item++) {
+                        partial[productCodes[item]] += quantities[item];
+                    }
+                    return partial;
+                }
+                for (int row = from; row < to; row++) {
+                    int end = itemEnds[row];
+                    if (matches(row)) {
+                        for (; item < end; item++) {
+                            partial[productCodes[item]] += quantities[item];
+                        }
+                    }
+                    item = end;
+                }
+                return partial;
+            }, OrderAnalytics::addTo);
+        }
+
+        /**
+         * 按购买数量统计最受欢迎的商品
+         */
+        public Optional<String> mostPopularProduct() {
+            long[] quantities = productQuantities();
+            int best = -1;
+            for (int code = 0; code < quantities.length; code++) {
+                if (quantities[code] > 0 && (best < 0 || quantities[code] > quantities[best])) {
+                    best = code;
+                }
+            }
+            return best < 0 ? Optional.empty() : Optional.of(productNames[best]);
+        }
+
+        public List<Map.Entry<String, Double>> topCustomersBySpend(int n) {
+            return top(sumTotalPriceByCustomer(), n);
+        }
+
+        public List<Map.Entry<String, Long>> topProductsByQuantity(int n) {
+            return top(quantityByProduct(), n);
+        }
+
+        /**
+         * 按下单年月（yyyyMM）分组的订单 ID，先并行统计每个月的订单数，再按月一次性分配数组填充
+         */
+        public Map<String, long[]> orderIdsByMonth() {
+            long[] counts = reduce((from, to) -> {
+                long[] partial = new long[monthCount];
+                for (int row = from; row < to; row++) {
+                    if (matches(row)) {
+                        partial[months[row] - monthBase]++;
+                    }
+                }
+                return partial;
+            }, OrderAnalytics::addTo);
+            long[][] ids = new long[monthCount][];
+            for (int month = 0; month < monthCount; month++) {
+                ids[month] = new long[(int) counts[month]];
+            }
+            int[] positions = new int[monthCount];
+            for (int row = 0; row < rows; row++) {
+                if (matches(row)) {
+                    int month = months[row] - monthBase;
+                    ids[month][positions[month]++] = orderIds[row];
+                }
+            }
+            Map<String, long[]> result = new LinkedHashMap<>();
+            for (int month = 0; month < monthCount; month++) {
+                if (ids[month].length > 0) {
+                    result.put(monthName(month + monthBase), ids[month]);
+                }
+            }
+            return result;
+        }
+
+        public List<String> distinctCustomers() {
+            Map<String, Long> counts = countByCustomer();
+            List<String> result = new ArrayList<>(counts.keySet());
+            result.sort(Comparator.naturalOrder());
+            return result;
+        }
+
+        public List<String> distinctProducts() {
+            long[] quantities = productQuantities();
+            List<String> result = new ArrayList<>();
+            for (int code = 0; code < quantities.length; code++) {
+                if (quantities[code] > 0) {
+                    result.add(productNames[code]);
+                }
+            }
+            result.sort(Comparator.naturalOrder());
+            return result;
+        }
+
+        private <A> A reduce(RangeFunction<A> function, BinaryOperator<A> combiner) {
+            if (rows <= PARALLEL_THRESHOLD) {
+                return function.apply(0, rows);
+            }
+            return pool.invoke(new RangeTask<>(0, rows, function, combiner));
+        }
+    }
+
+    @FunctionalInterface
+    private interface RangeFunction<A> {
+        A apply(int from, int to);
+    }
+
+    private static class RangeTask<A> extends RecursiveTask<A> {
+        private final int from;
+        private final int to;
+        private final RangeFunction<A> function;
+        private final BinaryOperator<A> combiner;
+
+        RangeTask(int from, int to, RangeFunction<A> function, BinaryOperator<A> combiner) {
+            this.from = from;
+            this.to = to;
+            this.function = function;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return function.apply(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask<A> left = new RangeTask<>(from, middle, function, combiner);
+            left.fork();
+            A right = new RangeTask<>(middle, to, function, combiner).compute();
+            return combiner.apply(left.join(), right);
+        }
+    }
+
+    private static long[] addTo(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+
+    private static double[] addTo(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+
+    private static Map<String, Long> decodeSorted(String[] names, long[] values) {
+        Integer[] codes = sortedCodes(values.length, (a, b) -> Long.compare(values[b], values[a]));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int code : codes) {
+            if (values[code] > 0) {
+                result.put(names[code], values[code]);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Double> decodeSorted(String[] names, double[] values) {
+        Integer[] codes = sortedCodes(values.length, (a, b) -> Double.compare(values[b], values[a]));
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int code : codes) {
+            if (values[code] > 0) {
+                result.put(names[code], values[code]);
+            }
+        }
+        return result;
+    }
+
+    private static Integer[] sortedCodes(int size, Comparator<Integer> comparator) {
+        Integer[] codes = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            codes[i] = i;
+        }
+        Arrays.sort(codes, comparator);
+        return codes;
+    }
+
+    private static <V> List<Map.Entry<String, V>> top(Map<String, V> sorted, int n) {
+        List<Map.Entry<String, V>> result = new ArrayList<>(Math.min(n, sorted.size()));
+        for (Map.Entry<String, V> entry : sorted.entrySet()) {
+            if (result.size() == n) {
+                break;
+            }
+            result.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+        }
+        return result;
+    }
+
+    private static String monthName(int month) {
+        return String.format("%04d%02d", month / 12, month % 12 + 1);
+    }
+
+    /**
+     * 字符串字典，编码从 0 开始连续分配；读写都在 OrderAnalytics 的锁里进行，查询拿走的 values 数组只会被追加不会被修改
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[16];
+        private int size;
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = size;
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size++] = value;
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        int find(String value) {
+            Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.geekbang.time.commonmistakes.java8.collector;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collector;
+
+/**
+ * 频次统计相关的收集器，都适合并行流：
+ * <ul>
+ * <li>{@link #mostPopular()}：每个线程一个 {@link ObjectCounter}，合并时原地累加，不像 {@link MostPopularCollector} 那样重新 groupingBy</li>
+ * <li>{@link #mostPopularConcurrent()}：CONCURRENT 收集器，所有线程共用一个结果容器，容器里每个线程一个 ObjectCounter，
+ * 累加时不加锁、不 CAS，也不为每个 key 创建 LongAdder，结束时合并一次</li>
+ * <li>{@link #topK(int, int)}：Space-Saving 近似 Top-K，内存固定，适合 key 的种类没有上限的场景</li>
+ * </ul>
+ */
+public class FrequencyCollectors {
+
+    public static <T> Collector<T, ?, Optional<T>> mostPopular() {
+        return Collector.of(ObjectCounter<T>::new,
+                ObjectCounter::add,
+                ObjectCounter::merge,
+                counter -> counter.size() == 0 ? Optional.empty() : Optional.ofNullable(counter.maxKey()),
+                Collector.Characteristics.UNORDERED);
+    }
+
+    public static <T> Collector<T, ?, Optional<T>> mostPopularConcurrent() {
+        return Collector.of(PerThreadCounters<T>::new,
+                PerThreadCounters::add,
+                PerThreadCounters::merge,
+                counters -> {
+                    ObjectCounter<T> total = counters.total();
+                    return total.size() == 0 ? Optional.empty() : Optional.ofNullable(total.maxKey());
+                },
+                Collector.Characteristics.CONCURRENT, Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * 近似 Top-K，最多保留 capacity 个计数器，capacity 越大越准，一般取 k 的几十倍
+     */
+    public static <T> Collector<T, ?, List<SpaceSavingCounter.HeavyHitter<T>>> topK(int k, int capacity) {
+        if (k > capacity) {
+            throw new IllegalArgumentException("k must not be greater than capacity");
+        }
+        return Collector.of(() -> new SpaceSavingCounter<T>(capacity),
+                SpaceSavingCounter::add,
+                SpaceSavingCounter::merge,
+                counter -> counter.top(k),
+                Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * 按线程分开的计数表，每个线程只在第一次累加时写一次 ConcurrentHashMap，之后只读。
+     * 并行流结束时各个线程的写入对调用 finisher 的线程可见，合并不需要额外同步
+     */
+    private static final class PerThreadCounters<T> {
+        private final ConcurrentHashMap<Thread, ObjectCounter<T>> counters = new ConcurrentHashMap<>();
+
+        void add(T item) {
+            Thread thread = Thread.currentThread();
+            ObjectCounter<T> counter = counters.get(thread);
+            if (counter == null) {
+                counter = counters.computeIfAbsent(thread, t -> new ObjectCounter<>());
+            }
+            counter.add(item);
+        }
+
+        //在并行流里直接用不会调用 combiner，作为 groupingBy 这类收集器的下游时才会
+        PerThreadCounters<T> merge(PerThreadCounters<T> other) {
+            other.counters.forEach((thread, counter) -> counters.merge(thread, counter, ObjectCounter::merge));
+            return this;
+        }
+
+        ObjectCounter<T> total() {
+            ObjectCounter<T> total = null;
+            for (ObjectCounter<T> counter : counters.values()) {
+                total = total == null ? counter : total.merge(counter);
+            }
+            return total == null ? new ObjectCounter<>() : total;
+        }
+    }
+
+    private FrequencyCollectors() {
+    }
+}
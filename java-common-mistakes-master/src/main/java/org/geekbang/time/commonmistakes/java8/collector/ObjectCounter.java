@@ -0,0 +1,122 @@
+package org.geekbang.time.commonmistakes.java8.collector;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 对象计数表，开放寻址 + 线性探测，计数用 long 数组保存，计数过程不装箱也不为每个 key 创建 Entry；
+ * 非线程安全，并行流里每个线程一个实例，最后用 {@link #merge} 原地合并
+ */
+public class ObjectCounter<T> {
+
+    //HashMap 允许 null 作为 key，这里用占位对象代替 null
+    private static final Object NULL_KEY = new Object();
+
+    private Object[] keys;
+    private long[] counts;
+    private int size;
+    private int mask;
+
+    public ObjectCounter() {
+        this(64);
+    }
+
+    public ObjectCounter(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new Object[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public void add(T key) {
+        add(key, 1);
+    }
+
+    public void add(T key, long delta) {
+        Object k = key == null ? NULL_KEY : key;
+        int index = indexOf(k, keys, mask);
+        if (keys[index] == null) {
+            keys[index] = k;
+            if (++size * 2 > keys.length) {
+                counts[index] = delta;
+                resize();
+                return;
+            }
+        }
+        counts[index] += delta;
+    }
+
+    public long count(T key) {
+        Object k = key == null ? NULL_KEY : key;
+        int index = indexOf(k, keys, mask);
+        return keys[index] == null ? 0 : counts[index];
+    }
+
+    /**
+     * 把另一个计数表加到当前表上，返回当前表
+     */
+    public ObjectCounter<T> merge(ObjectCounter<T> other) {
+        Object[] otherKeys = other.keys;
+        long[] otherCounts = other.counts;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != null) {
+                add(unmask(otherKeys[i]), otherCounts[i]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 计数最大的 key，计数相同时返回任意一个；表为空时返回 null，需要区分时先判断 {@link #size()}
+     */
+    public T maxKey() {
+        int best = -1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && (best < 0 || counts[i] > counts[best])) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : unmask(keys[best]);
+    }
+
+    public void forEach(ObjLongConsumer<T> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                consumer.accept(unmask(keys[i]), counts[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new Object[oldKeys.length * 2];
+        counts = new long[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = indexOf(oldKeys[i], keys, mask);
+                keys[index] = oldKeys[i];
+                counts[index] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int indexOf(Object key, Object[] keys, int mask) {
+        int h = key.hashCode() * 0x9E3779B9;
+        int index = (h ^ (h >>> 16)) & mask;
+        Object existing;
+        while ((existing = keys[index]) != null && !existing.equals(key)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unmask(Object key) {
+        return key == NULL_KEY ? null : (T) key;
+    }
+}
@@ -0,0 +1,249 @@
+package org.geekbang.time.commonmistakes.java8.collector;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving 算法的近似 Top-K 统计，最多保存 capacity 个计数器，内存和 key 的种类无关
+ * <p>
+ * 计数器满了以后新 key 顶替计数最小的那个，计数在最小值基础上加一，并把最小值记为误差；
+ * 真实次数在 [count - error, count] 之间，出现次数超过 N / capacity 的 key 一定会被保留下来。
+ * 计数器按计数放在最小堆里，顶替和加一都是 O(log capacity)
+ */
+public class SpaceSavingCounter<T> {
+
+    @Value
+    public static class HeavyHitter<T> {
+        T item;
+        //估算次数，不小于真实次数
+        long count;
+        //最大高估量
+        long error;
+    }
+
+    private final int capacity;
+    private final Object[] items;
+    private final long[] counts;
+    private final long[] errors;
+    private final IndexMap positions;
+    private int size;
+
+    public SpaceSavingCounter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.items = new Object[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.positions = new IndexMap(capacity);
+    }
+
+    public void add(T item) {
+        add(item, 1, 0);
+    }
+
+    private void add(T item, long count, long error) {
+        int position = positions.get(item);
+        if (position >= 0) {
+            counts[position] += count;
+            errors[position] += error;
+            siftDown(position);
+        } else if (size < capacity) {
+            items[size] = item;
+            counts[size] = count;
+            errors[size] = error;
+            siftUp(size++);
+        } else {
+            //顶替堆顶计数最小的 key
+            long min = counts[0];
+            positions.remove(items[0]);
+            items[0] = item;
+            counts[0] = min + count;
+            errors[0] = min + error;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * 合并另一个统计结果，返回当前对象；
+     * 某个 key 在一边没有时，按那一边的最小计数估算（真实次数不会超过它），保证合并后的计数仍然是上界
+     */
+    public SpaceSavingCounter<T> merge(SpaceSavingCounter<T> other) {
+        long thisMin = size < capacity ? 0 : counts[0];
+        long otherMin = other.size < other.capacity ? 0 : other.counts[0];
+        Map<T, long[]> merged = new HashMap<>((size + other.size) * 2);
+        for (int i = 0; i < size; i++) {
+            merged.put(item(i), new long[]{counts[i] + otherMin, errors[i] + otherMin});
+        }
+        for (int i = 0; i < other.size; i++) {
+            T item = other.item(i);
+            long[] value = merged.get(item);
+            if (value == null) {
+                merged.put(item, new long[]{other.counts[i] + thisMin, other.errors[i] + thisMin});
+            } else {
+                value[0] += other.counts[i] - otherMin;
+                value[1] += other.errors[i] - otherMin;
+            }
+        }
+        List<Map.Entry<T, long[]>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<T, long[]> e) -> e.getValue()[0]).reversed());
+        positions.clear();
+        size = 0;
+        for (int i = 0; i < Math.min(capacity, entries.size()); i++) {
+            Map.Entry<T, long[]> entry = entries.get(i);
+            add(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+        return this;
+    }
+
+    /**
+     * 估算次数最多的 k 个 key，按次数从大到小排列
+     */
+    public List<HeavyHitter<T>> top(int k) {
+        List<HeavyHitter<T>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new HeavyHitter<>(item(i), counts[i], errors[i]));
+        }
+        result.sort(Comparator.comparingLong((HeavyHitter<T> h) -> h.getCount()).reversed());
+        return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T item(int index) {
+        return (T) items[index];
+    }
+
+    //堆调整时先把当前元素拿出来留出空位，路过的元素直接挪进空位，每层只更新一次下标
+    private void siftUp(int index) {
+        Object item = items[index];
+        long count = counts[index];
+        long error = errors[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (counts[parent] <= count) {
+                break;
+            }
+            moveTo(parent, index);
+            index = parent;
+        }
+        place(index, item, count, error);
+    }
+
+    private void siftDown(int index) {
+        Object item = items[index];
+        long count = counts[index];
+        long error = errors[index];
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (count <= counts[child]) {
+                break;
+            }
+            moveTo(child, index);
+            index = child;
+        }
+        place(index, item, count, error);
+    }
+
+    private void moveTo(int from, int to) {
+        items[to] = items[from];
+        counts[to] = counts[from];
+        errors[to] = errors[from];
+        positions.put(items[to], to);
+    }
+
+    private void place(int index, Object item, long count, long error) {
+        items[index] = item;
+        counts[index] = count;
+        errors[index] = error;
+        positions.put(item, index);
+    }
+
+    /**
+     * key 到堆下标的映射，开放寻址 + 线性探测，删除时把后面的元素往前挪（backward shift），
+     * 避免 HashMap 每次调整堆都装箱 Integer
+     */
+    private static class IndexMap {
+        private static final Object NULL_KEY = new Object();
+        private final Object[] keys;
+        private final int[] values;
+        private final int mask;
+
+        IndexMap(int capacity) {
+            int size = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+            keys = new Object[size];
+            values = new int[size];
+            mask = size - 1;
+        }
+
+        int get(Object key) {
+            int index = slot(mask(key));
+            return keys[index] == null ? -1 : values[index];
+        }
+
+        void put(Object key, int value) {
+            Object k = mask(key);
+            int index = slot(k);
+            keys[index] = k;
+            values[index] = value;
+        }
+
+        void remove(Object key) {
+            int index = slot(mask(key));
+            if (keys[index] == null) {
+                return;
+            }
+            keys[index] = null;
+            //后面同一簇里的元素如果原本应该落在空出来的位置之前，就挪过来，保证查找不会提前遇到空位
+            int next = (index + 1) & mask;
+            while (keys[next] != null) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - index) & mask)) {
+                    keys[index] = keys[next];
+                    values[index] = values[next];
+                    keys[next] = null;
+                    index = next;
+                }
+                next = (next + 1) & mask;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, null);
+        }
+
+        private int slot(Object key) {
+            int index = hash(key) & mask;
+            Object existing;
+            while ((existing = keys[index]) != null && !existing.equals(key)) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private static Object mask(Object key) {
+            return key == null ? NULL_KEY : key;
+        }
+
+        private static int hash(Object key) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package org.geekbang.time.commonmistakes.java8.completablefuture;
 
 import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.time.Duration;
 import java.util.concurrent.*;
 
 /**
@@ -45,6 +47,70 @@ public class CompletableFutureTest {
         log.info("CompletableFuture order:{} took:{} ms", result, System.currentTimeMillis() - begin);
     }
 
+    @Test
+    public void testTaskGraph() throws ExecutionException, InterruptedException {
+        long begin = System.currentTimeMillis();
+
+        GraphResult result = OrderPricingGraph.create(orderId, threadPool).execute().get();
+
+        log.info("TaskGraph order:{} took:{} ms critical path:{} ms{}", result.<Order>get("total"),
+                System.currentTimeMillis() - begin, result.getCriticalPathMillis(), result.timeline());
+    }
+
+    @Test
+    public void testTaskGraphFallbackNotInterrupted() throws ExecutionException, InterruptedException {
+        //降级逻辑和下游节点在失败的那个实现的线程上执行，不能带着中断标记
+        GraphResult result = TaskGraph.builder("fallback", threadPool)
+                .node(TaskNode.<String>of("remote", r -> {
+                    throw new IllegalStateException("remote down");
+                }).fallback(ex -> {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(10);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException("fallback interrupted", e);
+                    }
+                    return "fallback";
+                }))
+                .node(TaskNode.of("next", r -> Thread.currentThread().isInterrupted() ? "interrupted" : r.<String>get("remote"), "remote"))
+                .build().execute().get();
+        Assert.assertEquals("fallback", result.<String>get("remote"));
+        Assert.assertEquals("fallback", result.<String>get("next"));
+    }
+
+    @Test
+    public void testTaskGraphTimeoutFallbackOnExecutor() throws ExecutionException, InterruptedException {
+        //超时由定时器线程触发，降级逻辑和下游节点要回到线程池上执行，慢的降级逻辑不能拖住其它任务图的定时器
+        TaskGraph slowFallback = TaskGraph.builder("slowFallback", threadPool)
+                .node(TaskNode.<String>of("remote", r -> sleep(1000)).timeout(Duration.ofMillis(50)).fallback(ex -> {
+                    sleep(500);
+                    return Thread.currentThread().getName();
+                }))
+                .node(TaskNode.of("next", r -> Thread.currentThread().getName(), "remote"))
+                .build();
+        TaskGraph fastTimeout = TaskGraph.builder("fastTimeout", threadPool)
+                .node(TaskNode.<String>of("remote", r -> sleep(1000)).timeout(Duration.ofMillis(100)).fallback(ex -> "fallback"))
+                .build();
+        CompletableFuture<GraphResult> slow = slowFallback.execute();
+        long begin = System.currentTimeMillis();
+        GraphResult fast = fastTimeout.execute().get();
+        long took = System.currentTimeMillis() - begin;
+        Assert.assertEquals("fallback", fast.<String>get("remote"));
+        Assert.assertTrue("timeout took " + took + "ms", took < 400);
+
+        GraphResult result = slow.get();
+        Assert.assertNotEquals("taskgraph-scheduler", result.<String>get("remote"));
+        Assert.assertNotEquals("taskgraph-scheduler", result.<String>get("next"));
+    }
+
+    private static String sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "slept";
+    }
+
     @Test
     public void testNormal() {
         long begin = System.currentTimeMillis();
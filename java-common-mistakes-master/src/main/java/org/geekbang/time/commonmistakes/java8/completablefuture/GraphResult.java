@@ -0,0 +1,127 @@
+package org.geekbang.time.commonmistakes.java8.completablefuture;
+
+import lombok.Value;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 一次任务图执行的结果和链路追踪，节点执行中也可以通过它读取依赖节点的结果
+ */
+public class GraphResult {
+
+    public enum Status {
+        //主实现成功
+        OK,
+        //备选实现先成功
+        HEDGED,
+        //失败或超时后使用了降级结果
+        FALLBACK,
+        TIMEOUT,
+        FAILED,
+        //依赖节点失败，没有执行
+        SKIPPED
+    }
+
+    /**
+     * 节点的执行区间，时间是相对任务图开始执行的毫秒数
+     */
+    @Value
+    public static class Span {
+        String node;
+        long startMillis;
+        long endMillis;
+        Status status;
+        int attempt;
+
+        public long getMillis() {
+            return endMillis - startMillis;
+        }
+    }
+
+    private final Map<String, TaskNode<?>> nodes;
+    private final long beginNanos;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final Map<String, Span> spans = new ConcurrentHashMap<>();
+    private volatile long endNanos;
+
+    GraphResult(Map<String, TaskNode<?>> nodes, long beginNanos) {
+        this.nodes = nodes;
+        this.beginNanos = beginNanos;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String node) {
+        if (!values.containsKey(node)) {
+            throw new IllegalStateException("node " + node + " has no result");
+        }
+        return (T) values.get(node);
+    }
+
+    void complete(String node, Object value) {
+        //ConcurrentHashMap 不能存 null，节点结果为 null 时不保存，get 时当作没有结果
+        if (value != null) {
+            values.put(node, value);
+        }
+    }
+
+    void trace(String node, long startNanos, long endNanos, Status status, int attempt) {
+        spans.put(node, new Span(node, TimeUnit.NANOSECONDS.toMillis(startNanos - beginNanos),
+                TimeUnit.NANOSECONDS.toMillis(endNanos - beginNanos), status, attempt));
+    }
+
+    void finish(long endNanos) {
+        this.endNanos = endNanos;
+    }
+
+    public Map<String, Span> getSpans() {
+        return spans;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(endNanos - beginNanos);
+    }
+
+    /**
+     * 按各节点实际耗时算出的关键路径长度，也就是依赖链上耗时之和的最大值，是这张图端到端耗时的理论下限
+     */
+    public long getCriticalPathMillis() {
+        Map<String, Long> finish = new HashMap<>();
+        return nodes.keySet().stream().mapToLong(node -> criticalPath(node, finish)).max().orElse(0);
+    }
+
+    private long criticalPath(String node, Map<String, Long> finish) {
+        Long cached = finish.get(node);
+        if (cached != null) {
+            return cached;
+        }
+        long ready = nodes.get(node).dependencies.stream().mapToLong(dep -> criticalPath(dep, finish)).max().orElse(0);
+        Span span = spans.get(node);
+        long result = ready + (span == null ? 0 : span.getMillis());
+        finish.put(node, result);
+        return result;
+    }
+
+    /**
+     * 按开始时间排序的时间线，方便打日志
+     */
+    public String timeline() {
+        List<Span> sorted = spans.values().stream()
+                .sorted(Comparator.comparingLong(Span::getStartMillis).thenComparing(Span::getNode))
+                .collect(Collectors.toList());
+        StringBuilder sb = new StringBuilder();
+        for (Span span : sorted) {
+            sb.append(String.format("%n  %-14s %5dms -> %5dms %5dms %s", span.getNode(), span.getStartMillis(),
+                    span.getEndMillis(), span.getMillis(), span.getStatus()));
+            if (span.getAttempt() > 0) {
+                sb.append(" (attempt ").append(span.getAttempt()).append(")");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package org.geekbang.time.commonmistakes.java8.completablefuture;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 用任务图描述的订单计价流程，每个节点只声明依赖，调度交给 {@link TaskGraph}：
+ * 距离和天气不依赖订单，一开始就和查订单并行；天气 A 200ms 内没返回就对冲请求天气 B，谁快用谁
+ */
+public class OrderPricingGraph {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+    public static TaskGraph create(Long orderId, ExecutorService executor) {
+        return TaskGraph.builder("orderPricing", executor)
+                .node(TaskNode.of("order", in -> Services.getOrder(orderId)).timeout(TIMEOUT))
+                .node(TaskNode.of("user", in -> Services.getUser(in.<Order>get("order").getUserId()), "order").timeout(TIMEOUT))
+                .node(TaskNode.of("merchant", in -> Services.getMerchant(in.<Order>get("order").getMerchantId()), "order").timeout(TIMEOUT))
+                .node(TaskNode.of("coupon", in -> Services.getCouponPrice(in.<Order>get("order").getCouponId()), "order")
+                        .timeout(TIMEOUT)
+                        .fallback(ex -> BigDecimal.ZERO))
+                .node(TaskNode.of("orderPrice", in -> Services.calcOrderPrice(in.<Order>get("order").getItemPrice(), in.<User>get("user").getVip()),
+                        "order", "user").timeout(TIMEOUT))
+                // Walk distance service unavailable! 步行距离服务不可用，降级为直线距离
+                .node(TaskNode.of("distance", in -> Services.getWalkDistance("from", "to"))
+                        .timeout(TIMEOUT)
+                        .fallback(ex -> Services.getDirectDistance("from", "to")))
+                .node(TaskNode.of("weather", in -> Services.getWeatherA())
+                        .hedge(Duration.ofMillis(200), in -> Services.getWeatherB())
+                        .timeout(TIMEOUT))
+                .node(TaskNode.of("deliverPrice", in -> Services.calcDeliverPrice(in.<Merchant>get("merchant").getAverageWaitMinutes(),
+                        in.<Integer>get("distance"), in.get("weather")), "merchant", "distance", "weather").timeout(TIMEOUT))
+                .node(TaskNode.of("total", in -> {
+                    Order order = in.get("order");
+                    order.setUser(in.get("user"));
+                    order.setMerchant(in.get("merchant"));
+                    order.setCouponPrice(in.get("coupon"));
+                    order.setOrderPrice(in.get("orderPrice"));
+                    order.setDeliverPrice(in.get("deliverPrice"));
+                    order.setTotalPrice(order.getOrderPrice().add(order.getDeliverPrice()).subtract(order.getCouponPrice()));
+                    return order;
+                }, "order", "user", "merchant", "coupon", "orderPrice", "deliverPrice"))
+                .build();
+    }
+}
@@ -0,0 +1,269 @@
+package org.geekbang.time.commonmistakes.java8.completablefuture;
+
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 声明式的异步任务图
+ * <p>
+ * 每个节点声明自己依赖的节点，依赖全部完成后立即在节点自己的线程池上执行，整个过程没有阻塞等待的 join，
+ * 端到端耗时等于关键路径的耗时。节点可以配置超时（超时后中断执行线程）、降级和对冲请求，
+ * 每个节点的耗时和状态记录在 {@link GraphResult} 里，同时以 taskgraph.node 指标发布到 Micrometer。
+ * 超时和对冲由所有任务图共用的一个定时器线程触发，超时后的降级逻辑和下游节点回到节点自己的线程池上执行
+ */
+@Slf4j
+public class TaskGraph {
+
+    //超时和对冲请求的定时器，只做调度不执行业务逻辑
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "taskgraph-scheduler");
+        thread.setDaemon(true);
+        schedulerThread = thread;
+        return thread;
+    });
+    private static volatile Thread schedulerThread;
+
+    private final String name;
+    private final Map<String, TaskNode<?>> nodes;
+    private final ExecutorService defaultExecutor;
+
+    private TaskGraph(String name, Map<String, TaskNode<?>> nodes, ExecutorService defaultExecutor) {
+        this.name = name;
+        this.nodes = nodes;
+        this.defaultExecutor = defaultExecutor;
+    }
+
+    public static Builder builder(String name, ExecutorService defaultExecutor) {
+        return new Builder(name, defaultExecutor);
+    }
+
+    /**
+     * 执行任务图，任何一个没有降级的节点失败时返回的 Future 以该异常结束
+     */
+    public CompletableFuture<GraphResult> execute() {
+        GraphResult result = new GraphResult(nodes, System.nanoTime());
+        Map<String, CompletableFuture<Object>> futures = new LinkedHashMap<>();
+        //nodes 已经按拓扑顺序排好，依赖的 Future 一定先创建
+        for (TaskNode<?> node : nodes.values()) {
+            CompletableFuture<?>[] dependencies = node.dependencies.stream().map(futures::get).toArray(CompletableFuture[]::new);
+            CompletableFuture<Void> ready = dependencies.length == 0 ? CompletableFuture.completedFuture(null) : CompletableFuture.allOf(dependencies);
+            futures.put(node.name, ready.handle((v, ex) -> ex).thenCompose(ex -> {
+                if (ex != null) {
+                    long now = System.nanoTime();
+                    record(result, node, now, now, GraphResult.Status.SKIPPED, 0);
+                    CompletableFuture<Object> skipped = new CompletableFuture<>();
+                    skipped.completeExceptionally(ex);
+                    return skipped;
+                }
+                return run(node, result);
+            }));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).thenApply(v -> {
+            result.finish(System.nanoTime());
+            return result;
+        });
+    }
+
+    private <T> CompletableFuture<Object> run(TaskNode<T> node, GraphResult result) {
+        long start = System.nanoTime();
+        CompletableFuture<T> promise = new CompletableFuture<>();
+        List<Attempt> running = new CopyOnWriteArrayList<>();
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger winner = new AtomicInteger(-1);
+        ExecutorService executor = node.executor != null ? node.executor : defaultExecutor;
+
+        Runnable startNext = new Runnable() {
+            @Override
+            public void run() {
+                int attempt = started.getAndIncrement();
+                if (attempt >= node.attempts.size() || promise.isDone()) {
+                    return;
+                }
+                Function<GraphResult, T> body = node.attempts.get(attempt);
+                try {
+                    Attempt task = new Attempt(() -> {
+                        try {
+                            T value = body.apply(result);
+                            //先记下谁先完成再 complete，complete 会同步触发后面的 handle
+                            winner.compareAndSet(-1, attempt);
+                            promise.complete(value);
+                        } catch (Throwable ex) {
+                            if (failed.incrementAndGet() == node.attempts.size()) {
+                                promise.completeExceptionally(ex);
+                            } else {
+                                //当前实现失败了就不用等对冲延迟，直接发起下一个备选
+                                this.run();
+                            }
+                        }
+                    });
+                    running.add(task);
+                    executor.execute(task);
+                } catch (Exception ex) {
+                    promise.completeExceptionally(ex);
+                }
+            }
+        };
+        startNext.run();
+
+        List<ScheduledFuture<?>> timers = new ArrayList<>();
+        for (int i = 1; i < node.attempts.size(); i++) {
+            int attempt = i;
+            timers.add(SCHEDULER.schedule(() -> {
+                if (started.get() <= attempt) {
+                    startNext.run();
+                }
+            }, node.hedgeDelay.toNanos() * i, TimeUnit.NANOSECONDS));
+        }
+        if (node.timeout != null) {
+            timers.add(SCHEDULER.schedule(() -> promise.completeExceptionally(
+                    new TimeoutException("node " + node.name + " timed out after " + node.timeout.toMillis() + "ms")),
+                    node.timeout.toNanos(), TimeUnit.NANOSECONDS));
+        }
+
+        CompletableFuture<Object> outcome = new CompletableFuture<>();
+        promise.whenComplete((value, ex) -> {
+            timers.forEach(timer -> timer.cancel(false));
+            //已经有结果了，还在执行的其它实现直接中断；这里是在 complete 的那个线程上同步执行的，不能把自己也中断了，
+            //否则后面的降级逻辑和下游节点都会带着中断标记执行
+            Thread current = Thread.currentThread();
+            running.stream().filter(task -> task.runner != current).forEach(task -> task.cancel(true));
+            long end = System.nanoTime();
+            Runnable settle = () -> settle(node, result, start, end, winner.get(), value, ex, outcome);
+            if (current != schedulerThread) {
+                settle.run();
+                return;
+            }
+            //超时是定时器线程触发的，降级逻辑和由此触发的下游节点放到节点自己的线程池上，定时器线程只管计时；
+            //线程池拒绝时只能在这里执行，不能让节点一直没有结果
+            try {
+                executor.execute(settle);
+            } catch (RejectedExecutionException rejected) {
+                settle.run();
+            }
+        });
+        return outcome;
+    }
+
+    /**
+     * 记录节点的结果，失败时走降级，最后完成 outcome 触发下游节点
+     */
+    private <T> void settle(TaskNode<T> node, GraphResult result, long start, long end, int winner, T value, Throwable ex,
+                            CompletableFuture<Object> outcome) {
+        try {
+            if (ex == null) {
+                record(result, node, start, end, winner > 0 ? GraphResult.Status.HEDGED : GraphResult.Status.OK, Math.max(0, winner));
+                result.complete(node.name, value);
+                outcome.complete(value);
+                return;
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (node.fallback != null) {
+                log.warn("node {} of graph {} failed, use fallback: {}", node.name, name, cause.toString());
+                T fallback = node.fallback.apply(cause);
+                record(result, node, start, end, GraphResult.Status.FALLBACK, 0);
+                result.complete(node.name, fallback);
+                outcome.complete(fallback);
+                return;
+            }
+            record(result, node, start, end, cause instanceof TimeoutException ? GraphResult.Status.TIMEOUT : GraphResult.Status.FAILED, 0);
+            outcome.completeExceptionally(cause);
+        } catch (Throwable failure) {
+            //降级逻辑本身抛了异常
+            outcome.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * 记下执行线程，取消其它实现的时候可以跳过当前线程
+     */
+    private static class Attempt extends FutureTask<Void> {
+        private volatile Thread runner;
+
+        Attempt(Runnable runnable) {
+            super(runnable, null);
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                super.run();
+            } finally {
+                runner = null;
+            }
+        }
+    }
+
+    private void record(GraphResult result, TaskNode<?> node, long start, long end, GraphResult.Status status, int attempt) {
+        result.trace(node.name, start, end, status, attempt);
+        Metrics.timer("taskgraph.node", "graph", name, "node", node.name, "status", status.name())
+                .record(end - start, TimeUnit.NANOSECONDS);
+    }
+
+    public static class Builder {
+        private final String name;
+        private final ExecutorService defaultExecutor;
+        private final Map<String, TaskNode<?>> nodes = new LinkedHashMap<>();
+
+        private Builder(String name, ExecutorService defaultExecutor) {
+            this.name = name;
+            this.defaultExecutor = defaultExecutor;
+        }
+
+        public Builder node(TaskNode<?> node) {
+            if (nodes.putIfAbsent(node.name, node) != null) {
+                throw new IllegalArgumentException("duplicate node " + node.name);
+            }
+            return this;
+        }
+
+        /**
+         * 检查依赖是否存在、有没有环，并把节点按拓扑顺序排好
+         */
+        public TaskGraph build() {
+            Map<String, TaskNode<?>> sorted = new LinkedHashMap<>();
+            Set<String> visiting = new HashSet<>();
+            for (String node : nodes.keySet()) {
+                visit(node, visiting, sorted);
+            }
+            return new TaskGraph(name, sorted, defaultExecutor);
+        }
+
+        private void visit(String node, Set<String> visiting, Map<String, TaskNode<?>> sorted) {
+            if (sorted.containsKey(node)) {
+                return;
+            }
+            TaskNode<?> taskNode = nodes.get(node);
+            if (taskNode == null) {
+                throw new IllegalArgumentException("unknown dependency " + node);
+            }
+            if (!visiting.add(node)) {
+                throw new IllegalArgumentException("cycle detected at node " + node);
+            }
+            taskNode.dependencies.forEach(dependency -> visit(dependency, visiting, sorted));
+            visiting.remove(node);
+            sorted.put(node, taskNode);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.geekbang.time.commonmistakes.java8.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * 任务图里的一个节点：声明依赖哪些节点、超时、降级逻辑和在哪个线程池执行
+ * <p>
+ * 可以用 {@link #hedge} 追加备选实现：主实现在 hedgeDelay 之后还没返回就并行发起备选，谁先成功用谁
+ */
+public class TaskNode<T> {
+
+    final String name;
+    final List<String> dependencies;
+    final List<Function<GraphResult, T>> attempts = new ArrayList<>();
+    Duration timeout;
+    Duration hedgeDelay = Duration.ZERO;
+    Function<Throwable, T> fallback;
+    ExecutorService executor;
+
+    private TaskNode(String name, Function<GraphResult, T> body, String... dependencies) {
+        this.name = name;
+        this.dependencies = Collections.unmodifiableList(Arrays.asList(dependencies));
+        this.attempts.add(body);
+    }
+
+    /**
+     * @param body         节点逻辑，可以通过 GraphResult 拿到依赖节点的结果
+     * @param dependencies 依赖的节点名称，全部完成后才执行
+     */
+    public static <T> TaskNode<T> of(String name, Function<GraphResult, T> body, String... dependencies) {
+        return new TaskNode<>(name, body, dependencies);
+    }
+
+    public TaskNode<T> timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * 失败或超时后的降级结果，在完成节点的线程里执行，不要做耗时操作
+     */
+    public TaskNode<T> fallback(Function<Throwable, T> fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    public TaskNode<T> executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * 追加一个备选实现，前一个实现 delay 之后还没完成或者已经失败，就发起这个实现
+     */
+    public TaskNode<T> hedge(Duration delay, Function<GraphResult, T> alternative) {
+        this.hedgeDelay = delay;
+        this.attempts.add(alternative);
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
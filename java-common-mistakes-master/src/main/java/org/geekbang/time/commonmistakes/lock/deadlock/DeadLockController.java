@@ -25,9 +25,12 @@ import java.util.stream.IntStream;
 public class DeadLockController {
 
     private ConcurrentHashMap<String, Item> items = new ConcurrentHashMap<>();
+    private InventoryReservationEngine inventory;
 
     public DeadLockController() {
         IntStream.range(0, 10).forEach(i -> items.put("item" + i, new Item("item" + i)));
+        inventory = new InventoryReservationEngine(items.values().stream()
+                .collect(Collectors.toMap(Item::getName, Item::getRemaining)));
     }
 
     private boolean createOrder(List<Item> order) {
@@ -94,6 +97,21 @@ public class DeadLockController {
         return success;
     }
 
+    @GetMapping("lockfree")
+    public long lockfree() {
+        long begin = System.currentTimeMillis();
+        //库存扣减不加锁，购物车也不需要排序
+        long success = IntStream.rangeClosed(1, 100).parallel()
+                .mapToObj(i -> inventory.reserve(createCart().stream().map(Item::getName).collect(Collectors.toList())))
+                .filter(result -> result)
+                .count();
+        log.info("success:{} totalRemaining:{} took:{}ms items:{}",
+                success,
+                inventory.totalRemaining(),
+                System.currentTimeMillis() - begin, inventory.snapshot());
+        return success;
+    }
+
     @Data
     @RequiredArgsConstructor
     static class Item {
@@ -0,0 +1,146 @@
+package org.geekbang.time.commonmistakes.lock.deadlock;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 不加锁的库存预占：每个商品的库存是 AtomicIntegerArray 里的一个槽位，下单时按商品下标从小到大逐个 CAS 扣减，
+ * 任何一个商品库存不够就把已经扣掉的加回去，整单失败。没有锁也就没有死锁，更不会卡在 tryLock 上等 10 秒
+ * <p>
+ * 回滚之前别的订单可能看到暂时被扣掉的库存而失败，结果只会偏保守，不会超卖
+ */
+public class InventoryReservationEngine {
+
+    //每个商品占 16 个 int（64 字节，一个缓存行），热点商品的 CAS 不会让相邻商品的缓存行失效
+    private static final int STRIDE = 16;
+
+    private final Map<String, Integer> indexes;
+    private final String[] names;
+    private final AtomicIntegerArray slots;
+
+    public InventoryReservationEngine(Map<String, Integer> stock) {
+        Map<String, Integer> indexes = new HashMap<>();
+        names = new String[stock.size()];
+        slots = new AtomicIntegerArray(stock.size() * STRIDE);
+        int index = 0;
+        for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("stock of " + entry.getKey() + " is negative");
+            }
+            indexes.put(entry.getKey(), index);
+            names[index] = entry.getKey();
+            slots.set(index * STRIDE, entry.getValue());
+            index++;
+        }
+        this.indexes = Collections.unmodifiableMap(indexes);
+    }
+
+    public int index(String name) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("unknown item " + name);
+        }
+        return index;
+    }
+
+    /**
+     * 购物车里每个商品扣减 1 个，同一个商品出现多次就扣多次
+     */
+    public boolean reserve(List<String> cart) {
+        int[] items = new int[cart.size()];
+        int[] quantities = new int[cart.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = index(cart.get(i));
+            quantities[i] = 1;
+        }
+        return reserve(items, quantities);
+    }
+
+    /**
+     * 原子地扣减一组商品的库存，要么全部成功，要么一个都不扣
+     */
+    public boolean reserve(int[] items, int[] quantities) {
+        //先校验完参数再动库存，避免扣到一半抛异常
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] < 0 || items[i] >= names.length) {
+                throw new IllegalArgumentException("unknown item index " + items[i]);
+            }
+            if (quantities[i] <= 0) {
+                throw new IllegalArgumentException("quantity must be positive");
+            }
+        }
+        int[] order = sortedPositions(items);
+        for (int i = 0; i < order.length; i++) {
+            int position = order[i];
+            if (!tryDecrement(items[position], quantities[position])) {
+                //倒序把已经扣掉的加回去
+                for (int j = i - 1; j >= 0; j--) {
+                    slots.addAndGet(items[order[j]] * STRIDE, quantities[order[j]]);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 取消订单时把预占的库存还回去
+     */
+    public void release(int[] items, int[] quantities) {
+        for (int i = 0; i < items.length; i++) {
+            slots.addAndGet(items[i] * STRIDE, quantities[i]);
+        }
+    }
+
+    public int remaining(String name) {
+        return slots.get(index(name) * STRIDE);
+    }
+
+    public int totalRemaining() {
+        int total = 0;
+        for (int i = 0; i < names.length; i++) {
+            total += slots.get(i * STRIDE);
+        }
+        return total;
+    }
+
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> snapshot = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            snapshot.put(names[i], slots.get(i * STRIDE));
+        }
+        return snapshot;
+    }
+
+    private boolean tryDecrement(int item, int quantity) {
+        int slot = item * STRIDE;
+        while (true) {
+            int current = slots.get(slot);
+            if (current < quantity) {
+                return false;
+            }
+            if (slots.compareAndSet(slot, current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    //购物车一般只有几个商品，插入排序就够了；固定按下标顺序扣减，
+    //两单抢同一批商品的最后几件时，后到的那单会在第一个冲突商品上失败，不会先占住别的商品再回滚
+    private static int[] sortedPositions(int[] items) {
+        int[] order = new int[items.length];
+        for (int i = 0; i < order.length; i++) {
+            int position = i;
+            int j = i - 1;
+            while (j >= 0 && items[order[j]] > items[position]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = position;
+        }
+        return order;
+    }
+}
@@ -16,6 +16,7 @@ import java.util.stream.IntStream;
 public class LockGranularityController {
 
     private List<Integer> data = new ArrayList<>();
+    private SegmentedAppendBuffer<Integer> buffer = new SegmentedAppendBuffer<>();
 
     private void slow() {
         try {
@@ -50,4 +51,16 @@ public class LockGranularityController {
         return data.size();
     }
 
+    @GetMapping("segmented")
+    public int segmented() {
+        long begin = System.currentTimeMillis();
+        //每个线程写自己的分段，连 data 上的锁也不需要了
+        IntStream.rangeClosed(1, 1000).parallel().forEach(i -> {
+            slow();
+            buffer.add(i);
+        });
+        log.info("took:{}", System.currentTimeMillis() - begin);
+        return buffer.size();
+    }
+
 }
@@ -0,0 +1,272 @@
+package org.geekbang.time.commonmistakes.lock.lockgranularity;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 只追加的并发缓冲区：每个线程往自己的分段里写，写入之间没有锁也没有 CAS，
+ * 读（snapshot、size）和消费（drainTo）的时候才把各个分段拼起来
+ * <p>
+ * 分段是一串固定大小的块，写线程写完元素后再更新块里的计数发布出去，
+ * 读的一方只看计数以内的元素；已经消费过的块没有引用后会被 GC 回收。
+ * 用 sequenced() 创建的缓冲区会给每个元素分配全局序号，drainTo 严格按追加顺序输出
+ */
+public class SegmentedAppendBuffer<E> {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private final boolean sequenced;
+    private final AtomicLong sequence = new AtomicLong();
+    //线程第一次写入时注册分段，之后只读，用 CopyOnWriteArrayList 正合适
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Writer> localWriter = ThreadLocal.withInitial(this::register);
+    //读和消费之间互斥，写入不需要这把锁
+    private final Object readLock = new Object();
+    private long nextDrainSequence;
+
+    public SegmentedAppendBuffer() {
+        this(false);
+    }
+
+    private SegmentedAppendBuffer(boolean sequenced) {
+        this.sequenced = sequenced;
+    }
+
+    /**
+     * 记录全局追加顺序的缓冲区，每次写入多一次 AtomicLong 自增
+     */
+    public static <E> SegmentedAppendBuffer<E> sequenced() {
+        return new SegmentedAppendBuffer<>(true);
+    }
+
+    public void add(E element) {
+        localWriter.get().append(element);
+    }
+
+    /**
+     * 还没有被消费的元素个数
+     */
+    public int size() {
+        synchronized (readLock) {
+            long size = 0;
+            for (Segment segment : segments) {
+                size += segment.unread();
+            }
+            return (int) Math.min(Integer.MAX_VALUE, size);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 还没有被消费的元素的拷贝，sequenced 缓冲区按追加顺序排列，否则按分段依次排列
+     */
+    public List<E> snapshot() {
+        List<E> result = new ArrayList<>();
+        synchronized (readLock) {
+            if (sequenced) {
+                PriorityQueue<Cursor> heads = heads();
+                while (!heads.isEmpty()) {
+                    Cursor cursor = heads.poll();
+                    result.add(cursor.next());
+                    if (cursor.hasNext()) {
+                        heads.add(cursor);
+                    }
+                }
+            } else {
+                for (Segment segment : segments) {
+                    Cursor cursor = new Cursor(segment);
+                    while (cursor.hasNext()) {
+                        result.add(cursor.next());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public int drainTo(Consumer<? super E> consumer) {
+        return drainTo(consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 消费最多 maxElements 个元素，返回实际消费的个数。
+     * sequenced 缓冲区按追加顺序输出，遇到序号更小但还没写完的元素就停下来，留到下次再消费，保证顺序不乱
+     */
+    public int drainTo(Consumer<? super E> consumer, int maxElements) {
+        synchronized (readLock) {
+            return sequenced ? drainInOrder(consumer, maxElements) : drainBySegment(consumer, maxElements);
+        }
+    }
+
+    private int drainBySegment(Consumer<? super E> consumer, int maxElements) {
+        int drained = 0;
+        for (Segment segment : segments) {
+            Cursor cursor = new Cursor(segment);
+            try {
+                while (drained < maxElements && cursor.hasNext()) {
+                    //先移动游标再回调，回调抛异常时这个元素也算消费过了
+                    E element = cursor.next();
+                    drained++;
+                    consumer.accept(element);
+                }
+            } finally {
+                cursor.commit();
+            }
+            if (drained >= maxElements) {
+                break;
+            }
+        }
+        return drained;
+    }
+
+    private int drainInOrder(Consumer<? super E> consumer, int maxElements) {
+        PriorityQueue<Cursor> heads = heads();
+        List<Cursor> cursors = new ArrayList<>(heads);
+        int drained = 0;
+        try {
+            while (drained < maxElements && !heads.isEmpty() && heads.peek().sequence() == nextDrainSequence) {
+                Cursor cursor = heads.poll();
+                E element = cursor.next();
+                nextDrainSequence++;
+                drained++;
+                if (cursor.hasNext()) {
+                    heads.add(cursor);
+                }
+                consumer.accept(element);
+            }
+        } finally {
+            cursors.forEach(Cursor::commit);
+        }
+        return drained;
+    }
+
+    //每个还有未读元素的分段一个游标，按下一个元素的序号排
+    private PriorityQueue<Cursor> heads() {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, segments.size()), Comparator.comparingLong(Cursor::sequence));
+        for (Segment segment : segments) {
+            Cursor cursor = new Cursor(segment);
+            if (cursor.hasNext()) {
+                heads.add(cursor);
+            }
+        }
+        return heads;
+    }
+
+    private Writer register() {
+        Chunk first = new Chunk(sequenced);
+        segments.add(new Segment(first));
+        return new Writer(first, sequenced ? sequence : null);
+    }
+
+    private static final class Chunk {
+        //只需要保证元素先于计数可见，用 lazySet 发布，省掉 volatile 写的内存屏障
+        static final AtomicIntegerFieldUpdater<Chunk> COUNT = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "count");
+
+        final Object[] items = new Object[CHUNK_SIZE];
+        final long[] sequences;
+        //已经发布的元素个数，只有写线程会改
+        volatile int count;
+        volatile Chunk next;
+
+        Chunk(boolean sequenced) {
+            sequences = sequenced ? new long[CHUNK_SIZE] : null;
+        }
+    }
+
+    //读的一方看到的分段，读的位置受 readLock 保护
+    private static final class Segment {
+        private Chunk readChunk;
+        private int readOffset;
+
+        Segment(Chunk first) {
+            readChunk = first;
+        }
+
+        long unread() {
+            long unread = readChunk.count - readOffset;
+            for (Chunk chunk = readChunk.next; chunk != null; chunk = chunk.next) {
+                unread += chunk.count;
+            }
+            return unread;
+        }
+    }
+
+    /**
+     * 写线程独占的写入端，放在 ThreadLocal 里。只引用正在写的块，不引用缓冲区本身，
+     * 缓冲区不用了以后，线程里残留的 ThreadLocal 条目最多拖住一个块，不会拖住全部数据
+     */
+    private static final class Writer {
+        private final AtomicLong sequence;
+        private Chunk tail;
+
+        Writer(Chunk first, AtomicLong sequence) {
+            this.tail = first;
+            this.sequence = sequence;
+        }
+
+        void append(Object element) {
+            Chunk chunk = tail;
+            int index = chunk.count;
+            if (index == CHUNK_SIZE) {
+                //新块先分配好再取序号，避免拿了序号却没写进去，让有序消费永远卡在这个序号上
+                Chunk next = new Chunk(sequence != null);
+                chunk.next = next;
+                tail = chunk = next;
+                index = 0;
+            }
+            chunk.items[index] = element;
+            if (sequence != null) {
+                chunk.sequences[index] = sequence.getAndIncrement();
+            }
+            Chunk.COUNT.lazySet(chunk, index + 1);
+        }
+    }
+
+    //在分段上移动的读游标，commit 之后才会更新分段的读位置
+    private final class Cursor {
+        private final Segment segment;
+        private Chunk chunk;
+        private int offset;
+
+        Cursor(Segment segment) {
+            this.segment = segment;
+            this.chunk = segment.readChunk;
+            this.offset = segment.readOffset;
+        }
+
+        boolean hasNext() {
+            if (offset < chunk.count) {
+                return true;
+            }
+            if (offset == CHUNK_SIZE && chunk.next != null) {
+                chunk = chunk.next;
+                offset = 0;
+                return chunk.count > 0;
+            }
+            return false;
+        }
+
+        long sequence() {
+            return chunk.sequences[offset];
+        }
+
+        @SuppressWarnings("unchecked")
+        E next() {
+            return (E) chunk.items[offset++];
+        }
+
+        void commit() {
+            segment.readChunk = chunk;
+            segment.readOffset = offset;
+        }
+    }
+}
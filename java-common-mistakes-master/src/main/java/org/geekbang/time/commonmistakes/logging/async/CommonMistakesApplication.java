@@ -8,6 +8,8 @@ public class CommonMistakesApplication {
 
     public static void main(String[] args) {
         System.setProperty("logging.config", "classpath:org/geekbang/time/commonmistakes/logging/async/asyncwrong.xml");
+        //环形缓冲区 + 满了丢弃 INFO 的异步日志，/logging/manylog?count=100000 不会被慢 Appender 拖住
+        //System.setProperty("logging.config", "classpath:org/geekbang/time/commonmistakes/logging/async/ringbuffer.xml");
         SpringApplication.run(CommonMistakesApplication.class, args);
     }
 }
@@ -0,0 +1,348 @@
+package org.geekbang.time.commonmistakes.logging.async;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 代替 logback AsyncAppender 的异步 Appender：业务线程用 CAS 把日志事件放进定长的环形缓冲区，
+ * 后台线程一次取一批交给下游 Appender，一批写完才 flush 一次（下游 FileAppender 要配 immediateFlush=false）
+ * <p>
+ * 缓冲区满的时候按 overflowPolicy 处理 INFO 及以下的日志：BLOCK 等待，DROP_INFO 直接丢弃，
+ * SAMPLE 每 sampleRate 条保留一条（保留的那条等待）。在任何策略下 INFO 及以下的日志都只能用到 capacity - reservedCapacity 个槽位，
+ * 这个上限在抢槽位时检查，并发入队也不会占用预留的槽位；剩下的留给 WARN 和 ERROR，它们在任何策略下都会等待，不会丢。
+ * 超过 maxMessageLength 的消息会被截断。入队、丢弃的条数和积压的条数通过 Micrometer 暴露给 Actuator：
+ * logging.async.queued、logging.async.dropped、logging.async.pending
+ */
+public class RingBufferAsyncAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent> {
+
+    public enum OverflowPolicy {
+        BLOCK, DROP_INFO, SAMPLE
+    }
+
+    //等待空位时每次最多睡这么久，后台线程空闲时最多睡这么久再检查一次
+    private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+
+    private int capacity = 8192;
+    private int reservedCapacity = -1;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_INFO;
+    private int sampleRate = 10;
+    private int maxMessageLength = 4096;
+    private int batchSize = 256;
+    private boolean includeCallerData;
+    private int maxFlushTime = 1000;
+
+    //Vyukov 的有界队列：每个槽位有一个序号，生产者 CAS tail 抢槽位，只有一个消费者所以 head 不需要 CAS
+    private AtomicReferenceArray<ILoggingEvent> events;
+    private AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private int mask;
+    private int lowLevelLimit;
+
+    private Thread worker;
+    private volatile boolean workerParked;
+
+    private Counter queued;
+    private final Map<Level, Counter> dropped = new HashMap<>();
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (!appenders.iteratorForAppenders().hasNext()) {
+            addError("No attached appenders found.");
+            return;
+        }
+        if (capacity < 2) {
+            addError("Invalid capacity [" + capacity + "]");
+            return;
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        events = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        lowLevelLimit = size - (reservedCapacity < 0 ? size / 8 : Math.min(reservedCapacity, size - 1));
+        queued = Metrics.counter("logging.async.queued", "appender", getName());
+        for (Level level : new Level[]{Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR}) {
+            dropped.put(level, Metrics.counter("logging.async.dropped", "appender", getName(), "level", level.toString()));
+        }
+        Metrics.gauge("logging.async.pending", Tags.of("appender", getName()), this, RingBufferAsyncAppender::pending);
+        super.start();
+        worker = new Thread(this::drainLoop, "RingBufferAsyncAppender-" + getName());
+        worker.setDaemon(true);
+        worker.start();
+        addInfo("Ring buffer of " + size + " slots, overflowPolicy " + overflowPolicy + ", " + (size - lowLevelLimit) + " slots reserved for WARN/ERROR");
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        LockSupport.unpark(worker);
+        try {
+            worker.join(maxFlushTime);
+            if (worker.isAlive()) {
+                addWarn("Max flush time of " + maxFlushTime + " ms exceeded, " + pending() + " queued events were discarded");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            addError("Failed to join worker thread, " + pending() + " queued events may be discarded", e);
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        //先决定丢不丢，被丢掉的日志不用格式化消息，也不用取调用栈
+        boolean lowLevel = !event.getLevel().isGreaterOrEqual(Level.WARN);
+        int limit = lowLevel ? lowLevelLimit : mask + 1;
+        boolean overflowHandled = false;
+        if (lowLevel && pending() >= lowLevelLimit) {
+            if (dropOnOverflow()) {
+                dropped.get(event.getLevel()).increment();
+                return;
+            }
+            overflowHandled = true;
+        }
+        event.prepareForDeferredProcessing();
+        if (includeCallerData) {
+            event.getCallerData();
+        }
+        if (maxMessageLength > 0 && event.getFormattedMessage() != null && event.getFormattedMessage().length() > maxMessageLength) {
+            event = truncate(event);
+        }
+        while (!offer(event, limit)) {
+            //后台线程已经停了，等不到空位
+            if (!isStarted()) {
+                dropped.get(event.getLevel()).increment();
+                return;
+            }
+            //上面检查时还有空位，格式化期间被其它线程占满了，同样按策略处理，DROP_INFO 下不能在这里等
+            if (lowLevel && !overflowHandled) {
+                if (dropOnOverflow()) {
+                    dropped.get(event.getLevel()).increment();
+                    return;
+                }
+                overflowHandled = true;
+            }
+            wakeUpWorker();
+            LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+        }
+        queued.increment();
+        wakeUpWorker();
+    }
+
+    private boolean dropOnOverflow() {
+        switch (overflowPolicy) {
+            case DROP_INFO:
+                return true;
+            case SAMPLE:
+                return ThreadLocalRandom.current().nextInt(sampleRate) != 0;
+            default:
+                return false;
+        }
+    }
+
+    //limit 是入队前最多允许的积压条数
+    private boolean offer(ILoggingEvent event, int limit) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                //抢到 position 就说明入队前积压了 position - head 条，head 只会变大，按这个值判断只会偏保守
+                if (position - head >= limit) {
+                    return false;
+                }
+                if (tail.compareAndSet(position, position + 1)) {
+                    events.lazySet(index, event);
+                    //序号用 volatile 写发布，和后台线程的 workerParked 构成先写后读，不会漏唤醒
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    private ILoggingEvent poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        ILoggingEvent event = events.get(index);
+        events.lazySet(index, null);
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+        return event;
+    }
+
+    private void wakeUpWorker() {
+        if (workerParked) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            int drained = 0;
+            ILoggingEvent event;
+            while (drained < batchSize && (event = poll()) != null) {
+                appenders.appendLoopOnAppenders(event);
+                drained++;
+            }
+            if (drained > 0) {
+                flush();
+                continue;
+            }
+            if (!isStarted()) {
+                return;
+            }
+            workerParked = true;
+            //先标记再检查一次，避免标记之前刚好有事件入队却没人唤醒
+            if (pending() == 0 && isStarted()) {
+                LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+            }
+            workerParked = false;
+        }
+    }
+
+    //一批事件写完以后才 flush，下游不用每条日志都刷一次盘
+    private void flush() {
+        Iterator<Appender<ILoggingEvent>> iterator = appenders.iteratorForAppenders();
+        while (iterator.hasNext()) {
+            Appender<ILoggingEvent> appender = iterator.next();
+            if (appender instanceof OutputStreamAppender && !((OutputStreamAppender<ILoggingEvent>) appender).isImmediateFlush()) {
+                try {
+                    ((OutputStreamAppender<ILoggingEvent>) appender).getOutputStream().flush();
+                } catch (IOException e) {
+                    addError("Failed to flush appender [" + appender.getName() + "]", e);
+                }
+            }
+        }
+    }
+
+    public int pending() {
+        return (int) (tail.get() - head);
+    }
+
+    //复制一个消息被截断的新事件，不再引用原来的大字符串和参数
+    private ILoggingEvent truncate(ILoggingEvent event) {
+        String message = event.getFormattedMessage();
+        LoggingEvent truncated = new LoggingEvent();
+        truncated.setLoggerName(event.getLoggerName());
+        truncated.setLoggerContextRemoteView(event.getLoggerContextVO());
+        truncated.setLevel(event.getLevel());
+        truncated.setThreadName(event.getThreadName());
+        truncated.setTimeStamp(event.getTimeStamp());
+        truncated.setMarker(event.getMarker());
+        truncated.setMDCPropertyMap(event.getMDCPropertyMap());
+        if (event.getThrowableProxy() instanceof ThrowableProxy) {
+            truncated.setThrowableProxy((ThrowableProxy) event.getThrowableProxy());
+        }
+        if (event.hasCallerData()) {
+            truncated.setCallerData(event.getCallerData());
+        }
+        truncated.setMessage(message.substring(0, maxMessageLength) + "...(" + message.length() + " chars)");
+        return truncated;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void setReservedCapacity(int reservedCapacity) {
+        this.reservedCapacity = reservedCapacity;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    public void setMaxMessageLength(int maxMessageLength) {
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setIncludeCallerData(boolean includeCallerData) {
+        this.includeCallerData = includeCallerData;
+    }
+
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> newAppender) {
+        appenders.addAppender(newAppender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
@@ -8,6 +8,8 @@ public class CommonMistakesApplication {
 
     public static void main(String[] args) {
         System.setProperty("logging.config", "classpath:org/geekbang/time/commonmistakes/logging/duplicate/multiplelevelsfilter.xml");
+        //同样的两个日志文件，用一个 RoutingAppender 按规则分发，每条日志只格式化一次
+        //System.setProperty("logging.config", "classpath:org/geekbang/time/commonmistakes/logging/duplicate/routing.xml");
         SpringApplication.run(CommonMistakesApplication.class, args);
     }
 }
@@ -0,0 +1,87 @@
+package org.geekbang.time.commonmistakes.logging.duplicate;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logger 名称前缀的字符前缀树，前缀只在包名边界上匹配：org.geekbang 匹配 org.geekbang 和 org.geekbang.time.X，
+ * 不匹配 org.geekbangX。Logger 名称的种类有限，每个名称查一次树以后结果缓存起来
+ */
+class LoggerPrefixTrie {
+
+    //缓存的 Logger 名称上限，防止动态生成的 Logger 名称把缓存撑大
+    private static final int MAX_CACHED_NAMES = 4096;
+
+    private final Node root = new Node();
+    private final Map<String, Boolean> cache = new ConcurrentHashMap<>();
+
+    private static final class Node {
+        //子节点按字符排好序，二分查找
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        boolean terminal;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node addChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insert = -index - 1;
+            Node child = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            newKeys[insert] = c;
+            newChildren[insert] = child;
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+
+    void add(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.addChild(prefix.charAt(i));
+        }
+        node.terminal = true;
+        cache.clear();
+    }
+
+    boolean matches(String loggerName) {
+        Boolean matched = cache.get(loggerName);
+        if (matched == null) {
+            matched = match(loggerName);
+            if (cache.size() < MAX_CACHED_NAMES) {
+                cache.put(loggerName, matched);
+            }
+        }
+        return matched;
+    }
+
+    private boolean match(String loggerName) {
+        Node node = root;
+        if (node.terminal) {
+            return true;
+        }
+        for (int i = 0; i < loggerName.length(); i++) {
+            node = node.child(loggerName.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal && (i + 1 == loggerName.length() || loggerName.charAt(i + 1) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,6 +1,5 @@
 package org.geekbang.time.commonmistakes.logging.duplicate;
 
-import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.filter.Filter;
 import ch.qos.logback.core.spi.FilterReply;
@@ -8,31 +7,36 @@ import lombok.Getter;
 import lombok.Setter;
 import org.springframework.util.StringUtils;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
-
+/**
+ * 按多个级别过滤，levels 用 | 分隔，比如 INFO|WARN。
+ * 配置在 start() 里编译成位掩码，每条日志只做一次位运算，不用在 decide 里懒加载（多线程下不安全）再查 List
+ */
 public class MultipleLevelsFilter extends Filter<ILoggingEvent> {
 
     @Getter
     @Setter
     private String levels;
-    private List<Integer> levelList;
+    private int levelMask;
 
     @Override
-    public FilterReply decide(ILoggingEvent event) {
-
-        if (levelList == null && !StringUtils.isEmpty(levels)) {
-            levelList = Arrays.asList(levels.split("\\|")).stream()
-                    .map(item -> Level.valueOf(item))
-                    .map(level -> level.toInt())
-                    .collect(Collectors.toList());
+    public void start() {
+        if (StringUtils.isEmpty(levels)) {
+            addError("No levels set for the filter named [" + getName() + "]");
+            return;
         }
+        levelMask = RoutingRule.levelMask(levels);
+        super.start();
+    }
+
+    @Override
+    public FilterReply decide(ILoggingEvent event) {
+        if (!isStarted())
+            return FilterReply.NEUTRAL;
 
-        if (levelList.contains(event.getLevel().toInt()))
+        if ((levelMask & RoutingRule.levelBit(event.getLevel())) != 0)
             return FilterReply.ACCEPT;
         else
             return FilterReply.DENY;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package org.geekbang.time.commonmistakes.logging.duplicate;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * RoutingAppender 的一个输出目标：一个文件加一条 RoutingRule
+ */
+public class Route extends ContextAwareBase implements LifeCycle {
+
+    private final RoutingRule rule = new RoutingRule();
+    private String name;
+    private String file;
+    private boolean append = true;
+    private boolean immediateFlush = true;
+    private OutputStream outputStream;
+    private volatile boolean started;
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    public void setLevels(String levels) {
+        rule.setLevels(levels);
+    }
+
+    public void setLoggers(String loggers) {
+        rule.setLoggers(loggers);
+    }
+
+    public void setMarkers(String markers) {
+        rule.setMarkers(markers);
+    }
+
+    @Override
+    public void start() {
+        if (file == null) {
+            addError("No file set for the route named [" + name + "]");
+            return;
+        }
+        rule.compile();
+        File target = new File(file);
+        if (target.getParentFile() != null && !target.getParentFile().exists() && !target.getParentFile().mkdirs()) {
+            addError("Failed to create parent directories for [" + target.getAbsolutePath() + "]");
+            return;
+        }
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(target, append));
+        } catch (IOException e) {
+            addError("Failed to open [" + target.getAbsolutePath() + "]", e);
+            return;
+        }
+        started = true;
+    }
+
+    @Override
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        synchronized (this) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                addError("Failed to close [" + file + "]", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    boolean matches(ILoggingEvent event) {
+        return started && rule.matches(event);
+    }
+
+    //编码好的字节由 RoutingAppender 传进来，多个 Route 共用同一份
+    void write(byte[] bytes) {
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            try {
+                outputStream.write(bytes);
+                if (immediateFlush) {
+                    outputStream.flush();
+                }
+            } catch (IOException e) {
+                addError("Failed to write to [" + file + "]", e);
+            }
+        }
+    }
+}
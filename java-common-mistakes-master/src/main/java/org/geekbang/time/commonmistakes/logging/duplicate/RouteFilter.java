@@ -0,0 +1,40 @@
+package org.geekbang.time.commonmistakes.logging.duplicate;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.filter.AbstractMatcherFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * 按 RoutingRule 过滤的 Filter，可以同时按级别、Logger 前缀和 Marker 匹配，
+ * 匹配和不匹配时的返回值用 onMatch、onMismatch 配置，和 logback 自带的 LevelFilter 一样
+ */
+public class RouteFilter extends AbstractMatcherFilter<ILoggingEvent> {
+
+    private final RoutingRule rule = new RoutingRule();
+
+    public void setLevels(String levels) {
+        rule.setLevels(levels);
+    }
+
+    public void setLoggers(String loggers) {
+        rule.setLoggers(loggers);
+    }
+
+    public void setMarkers(String markers) {
+        rule.setMarkers(markers);
+    }
+
+    @Override
+    public void start() {
+        rule.compile();
+        super.start();
+    }
+
+    @Override
+    public FilterReply decide(ILoggingEvent event) {
+        if (!isStarted()) {
+            return FilterReply.NEUTRAL;
+        }
+        return rule.matches(event) ? onMatch : onMismatch;
+    }
+}
@@ -0,0 +1,61 @@
+package org.geekbang.time.commonmistakes.logging.duplicate;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个 Appender 按规则把日志分发到多个文件：同一条日志要写到几个文件，也只用 encoder 格式化一次，
+ * 代替为每个文件配一个 FileAppender（每个都要跑一遍 Filter 和 encoder）的做法
+ */
+public class RoutingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    private Encoder<ILoggingEvent> encoder;
+    private final List<Route> routes = new ArrayList<>();
+    private Route[] compiledRoutes = new Route[0];
+
+    public void setEncoder(Encoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    public void addRoute(Route route) {
+        routes.add(route);
+    }
+
+    @Override
+    public void start() {
+        if (encoder == null) {
+            addError("No encoder set for the appender named [" + name + "]");
+            return;
+        }
+        if (routes.isEmpty()) {
+            addError("No route set for the appender named [" + name + "]");
+            return;
+        }
+        compiledRoutes = routes.stream().filter(Route::isStarted).toArray(Route[]::new);
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        routes.forEach(Route::stop);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        byte[] bytes = null;
+        for (Route route : compiledRoutes) {
+            if (route.matches(event)) {
+                //第一次有 Route 匹配上才编码
+                if (bytes == null) {
+                    bytes = encoder.encode(event);
+                }
+                route.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.geekbang.time.commonmistakes.logging.duplicate;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.slf4j.Marker;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * 一条路由规则：级别（INFO|WARN）、Logger 前缀（org.geekbang|org.springframework）和 Marker（time|audit），
+ * 没配置的条件不参与判断，配置了的条件要同时满足。compile() 之后判断一条日志只需要位运算、查前缀树和比较几个 Marker
+ */
+public class RoutingRule {
+
+    private static final String SEPARATOR = "\\|";
+
+    private String levels;
+    private String loggers;
+    private String markers;
+
+    private int levelMask = -1;
+    private LoggerPrefixTrie loggerPrefixes;
+    private String[] markerNames;
+
+    public void setLevels(String levels) {
+        this.levels = levels;
+    }
+
+    public void setLoggers(String loggers) {
+        this.loggers = loggers;
+    }
+
+    public void setMarkers(String markers) {
+        this.markers = markers;
+    }
+
+    public void compile() {
+        levelMask = StringUtils.isEmpty(levels) ? -1 : levelMask(levels);
+        loggerPrefixes = null;
+        if (!StringUtils.isEmpty(loggers)) {
+            loggerPrefixes = new LoggerPrefixTrie();
+            Arrays.stream(loggers.split(SEPARATOR)).map(String::trim).forEach(loggerPrefixes::add);
+        }
+        markerNames = StringUtils.isEmpty(markers) ? null : Arrays.stream(markers.split(SEPARATOR)).map(String::trim).toArray(String[]::new);
+    }
+
+    public boolean matches(ILoggingEvent event) {
+        if ((levelMask & levelBit(event.getLevel())) == 0) {
+            return false;
+        }
+        if (loggerPrefixes != null && !loggerPrefixes.matches(event.getLoggerName())) {
+            return false;
+        }
+        if (markerNames != null) {
+            Marker marker = event.getMarker();
+            if (marker == null) {
+                return false;
+            }
+            for (String name : markerNames) {
+                if (marker.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * TRACE、DEBUG、INFO、WARN、ERROR 分别对应第 0 到 4 位
+     */
+    static int levelBit(Level level) {
+        return 1 << (level.levelInt / Level.DEBUG_INT);
+    }
+
+    static int levelMask(String levels) {
+        int mask = 0;
+        for (String level : levels.split(SEPARATOR)) {
+            mask |= levelBit(Level.valueOf(level.trim()));
+        }
+        return mask;
+    }
+}
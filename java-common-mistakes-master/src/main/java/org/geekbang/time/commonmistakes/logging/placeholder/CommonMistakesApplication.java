@@ -7,6 +7,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 public class CommonMistakesApplication {
 
     public static void main(String[] args) {
+        //LoggingController 的日志以一行 JSON 的格式写到 structured.log
+        //System.setProperty("logging.config", "classpath:org/geekbang/time/commonmistakes/logging/placeholder/structured.xml");
         SpringApplication.run(CommonMistakesApplication.class, args);
     }
 }
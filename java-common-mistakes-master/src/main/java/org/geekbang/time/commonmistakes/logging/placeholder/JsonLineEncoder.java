@@ -0,0 +1,272 @@
+package org.geekbang.time.commonmistakes.logging.placeholder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 把一行 JSON 直接编码到可以重复使用的 byte 数组里：字符串按 UTF-8 逐个字符写入并转义，
+ * 整数直接写数字，不产生中间的 String。一个实例只能被一个线程使用，写完一行后 reset() 再用
+ */
+public class JsonLineEncoder {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final long[] POWERS_OF_TEN = new long[19];
+    //reset 时超过这个大小的 buffer 会换回初始大小，一条超长日志不会让线程一直占着大数组
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final int initialCapacity;
+    private byte[] buffer;
+    private int position;
+    private boolean firstField = true;
+
+    public JsonLineEncoder() {
+        this(512);
+    }
+
+    public JsonLineEncoder(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        buffer = new byte[initialCapacity];
+    }
+
+    public JsonLineEncoder reset() {
+        if (buffer.length > Math.max(initialCapacity, MAX_RETAINED_CAPACITY)) {
+            buffer = new byte[initialCapacity];
+        }
+        position = 0;
+        firstField = true;
+        return this;
+    }
+
+    public JsonLineEncoder beginObject() {
+        writeByte('{');
+        firstField = true;
+        return this;
+    }
+
+    /**
+     * 结束对象并换行，一行一条日志
+     */
+    public JsonLineEncoder endLine() {
+        writeByte('}');
+        writeByte('\n');
+        return this;
+    }
+
+    /**
+     * 原样写入事先编码好的一段 JSON 字段，比如每个 Logger 固定不变的 "level" 和 "logger"，以逗号开头
+     */
+    public JsonLineEncoder raw(byte[] encodedFields) {
+        writeBytes(encodedFields);
+        firstField = false;
+        return this;
+    }
+
+    public JsonLineEncoder field(String key, CharSequence value) {
+        key(key);
+        if (value == null) {
+            writeBytes(NULL);
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonLineEncoder field(String key, long value) {
+        key(key);
+        number(value);
+        return this;
+    }
+
+    public JsonLineEncoder field(String key, double value) {
+        key(key);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            //JSON 里没有 NaN 和 Infinity，按字符串写
+            string(Double.toString(value));
+        } else if (value == (long) value) {
+            number((long) value);
+        } else {
+            //小数没有现成的免分配写法，这里会产生一个临时 String
+            ascii(Double.toString(value));
+        }
+        return this;
+    }
+
+    public JsonLineEncoder field(String key, boolean value) {
+        key(key);
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * 按值的类型选择写法，数字和布尔值不加引号，其它对象用 toString()
+     */
+    public JsonLineEncoder field(String key, Object value) {
+        if (value == null || value instanceof CharSequence) {
+            return field(key, (CharSequence) value);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return field(key, ((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return field(key, ((Number) value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            return field(key, ((Boolean) value).booleanValue());
+        }
+        return field(key, value.toString());
+    }
+
+    public int size() {
+        return position;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, position);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, position, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private void key(String key) {
+        if (!firstField) {
+            writeByte(',');
+        }
+        firstField = false;
+        string(key);
+        writeByte(':');
+    }
+
+    private void string(CharSequence value) {
+        int length = value.length();
+        //每个字符最多 6 个字节（\\u00XX），先一次性保证容量；循环里用局部变量，不反复读写字段
+        ensureCapacity(length * 6 + 2);
+        byte[] buf = buffer;
+        int pos = position;
+        buf[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                } else {
+                    pos = escape(buf, pos, c);
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                //落单的代理字符写成问号，和 String.getBytes(UTF_8) 一致
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        buf[pos++] = '"';
+        position = pos;
+    }
+
+    private static int escape(byte[] buf, int pos, char c) {
+        buf[pos++] = '\\';
+        switch (c) {
+            case '"':
+            case '\\':
+                buf[pos++] = (byte) c;
+                break;
+            case '\n':
+                buf[pos++] = 'n';
+                break;
+            case '\r':
+                buf[pos++] = 'r';
+                break;
+            case '\t':
+                buf[pos++] = 't';
+                break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = '0';
+                buf[pos++] = '0';
+                buf[pos++] = HEX[c >> 4];
+                buf[pos++] = HEX[c & 0xf];
+        }
+        return pos;
+    }
+
+    private void ascii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void number(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        //位数用比较算出来，只在写每一位的时候做除法
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        byte[] buf = buffer;
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            long quotient = value / 10;
+            buf[i] = (byte) ('0' + (value - quotient * 10));
+            value = quotient;
+        }
+        position = end;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
@@ -13,6 +13,8 @@ import java.util.concurrent.TimeUnit;
 @RestController
 public class LoggingController {
 
+    private static final StructuredLogger slog = StructuredLogger.getLogger(LoggingController.class);
+
     @GetMapping
     public void index() {
         StopWatch stopWatch = new StopWatch();
@@ -29,6 +31,10 @@ public class LoggingController {
         stopWatch.start("debug4");
         log.debug("debug4:{}", () -> slowString("debug4"));
         stopWatch.stop();
+        stopWatch.start("debug5");
+        //结构化日志，级别没开启时 Supplier 不会被调用
+        slog.debug("debug5").kv("result", () -> slowString("debug5")).log();
+        stopWatch.stop();
         log.info(stopWatch.prettyPrint());
 
     }
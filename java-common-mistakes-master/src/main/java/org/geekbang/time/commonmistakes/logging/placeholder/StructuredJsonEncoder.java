@@ -0,0 +1,51 @@
+package org.geekbang.time.commonmistakes.logging.placeholder;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+/**
+ * 每条日志输出一行 JSON 的 logback Encoder：StructuredLogger 的日志原样写出编码好的字节，
+ * 普通日志按 ts、level、logger、thread、message 字段编码，同一个文件里格式一致
+ */
+public class StructuredJsonEncoder extends EncoderBase<ILoggingEvent> {
+
+    private static final ThreadLocal<JsonLineEncoder> ENCODERS = ThreadLocal.withInitial(JsonLineEncoder::new);
+
+    /**
+     * 当前线程复用的 encoder 的容量，测试用
+     */
+    static int currentEncoderCapacity() {
+        return ENCODERS.get().capacity();
+    }
+
+    @Override
+    public byte[] headerBytes() {
+        return null;
+    }
+
+    @Override
+    public byte[] encode(ILoggingEvent event) {
+        if (event instanceof StructuredLoggingEvent) {
+            return ((StructuredLoggingEvent) event).getLine();
+        }
+        JsonLineEncoder encoder = ENCODERS.get().reset().beginObject()
+                .field("ts", event.getTimeStamp())
+                .field("level", event.getLevel().toString())
+                .field("logger", event.getLoggerName())
+                .field("thread", event.getThreadName())
+                .field("message", event.getFormattedMessage());
+        IThrowableProxy throwable = event.getThrowableProxy();
+        if (throwable != null) {
+            encoder.field("exception", throwable.getClassName()).field("exceptionMessage", throwable.getMessage());
+        }
+        byte[] line = encoder.endLine().toByteArray();
+        encoder.reset();
+        return line;
+    }
+
+    @Override
+    public byte[] footerBytes() {
+        return null;
+    }
+}
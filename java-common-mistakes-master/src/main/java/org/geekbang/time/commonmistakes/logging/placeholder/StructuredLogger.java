@@ -0,0 +1,356 @@
+package org.geekbang.time.commonmistakes.logging.placeholder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 键值对形式的结构化日志，一条日志输出成一行 JSON：
+ * <pre>
+ * slog.debug("order.created").kv("orderId", orderId).kv("amount", amount).kv("items", () -> describe(items)).log();
+ * </pre>
+ * 级别是否开启沿用 logback 对同名 Logger 的配置，没开启的时候返回同一个什么都不做的 LogEntry，
+ * 不分配对象，Supplier 也不会被调用。开启的时候字段直接编码到线程自己的 JsonLineEncoder 里，不拼中间字符串，
+ * log() 时把编码好的这一行作为 {@link StructuredLoggingEvent} 交给同名 Logger 配置的 Appender，
+ * 配 {@link StructuredJsonEncoder} 的 Appender 原样输出这些字节，其它 Appender 的 %msg 就是这行 JSON。
+ * 高频的调用点用 callSite() 预先声明采样率和每秒上限，被采样掉的调用和没开启级别一样没有开销。
+ * <p>
+ * 注意：普通参数在调用 kv 之前就已经算好了，耗时的值要用 Supplier 传；捕获了变量的 lambda 每次都会创建对象，
+ * 级别没开启时也一样，热点路径上最好传字段或者不捕获变量的 lambda。没有以 log() 结束的日志会被下一条日志覆盖掉
+ */
+public final class StructuredLogger {
+
+    private static final ThreadLocal<LogEntry> ENTRIES = ThreadLocal.withInitial(LogEntry::new);
+
+    private final Logger logger;
+    //绑定的是 logback 时直接把事件交给它的 Appender，否则退回普通的 slf4j 调用
+    private final ch.qos.logback.classic.Logger logbackLogger;
+    //每个级别的 "level" 和 "logger" 字段是固定的，提前编码好，每条日志直接拷贝
+    private final byte[][] headers = new byte[Level.values().length][];
+
+    private StructuredLogger(Logger logger) {
+        this.logger = logger;
+        this.logbackLogger = logger instanceof ch.qos.logback.classic.Logger ? (ch.qos.logback.classic.Logger) logger : null;
+        for (Level level : Level.values()) {
+            JsonLineEncoder encoder = new JsonLineEncoder(128).beginObject()
+                    .field("level", level.name())
+                    .field("logger", logger.getName());
+            String fields = encoder.toString();
+            headers[level.ordinal()] = ("," + fields.substring(1)).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public static StructuredLogger getLogger(Class<?> clazz) {
+        return new StructuredLogger(LoggerFactory.getLogger(clazz));
+    }
+
+    public static StructuredLogger getLogger(String name) {
+        return new StructuredLogger(LoggerFactory.getLogger(name));
+    }
+
+    public boolean isEnabled(Level level) {
+        switch (level) {
+            case TRACE:
+                return logger.isTraceEnabled();
+            case DEBUG:
+                return logger.isDebugEnabled();
+            case INFO:
+                return logger.isInfoEnabled();
+            case WARN:
+                return logger.isWarnEnabled();
+            default:
+                return logger.isErrorEnabled();
+        }
+    }
+
+    public LogEntry trace(String event) {
+        return at(Level.TRACE, event);
+    }
+
+    public LogEntry debug(String event) {
+        return at(Level.DEBUG, event);
+    }
+
+    public LogEntry info(String event) {
+        return at(Level.INFO, event);
+    }
+
+    public LogEntry warn(String event) {
+        return at(Level.WARN, event);
+    }
+
+    public LogEntry error(String event) {
+        return at(Level.ERROR, event);
+    }
+
+    public LogEntry at(Level level, String event) {
+        return isEnabled(level) ? begin(level, event) : LogEntry.DISABLED;
+    }
+
+    /**
+     * 声明一个调用点，保存到 static final 字段里反复使用
+     */
+    public CallSite callSite(Level level, String event) {
+        return new CallSite(this, level, event);
+    }
+
+    /**
+     * 当前线程复用的 encoder 的容量，测试用
+     */
+    static int currentEncoderCapacity() {
+        return ENTRIES.get().encoder.capacity();
+    }
+
+    private LogEntry begin(Level level, String event) {
+        LogEntry entry = ENTRIES.get();
+        //Supplier 或 toString 里又打了日志，线程自己的那个 LogEntry 正在用，只能临时建一个
+        if (entry.evaluating) {
+            entry = new LogEntry();
+        }
+        entry.start(this, level, event);
+        return entry;
+    }
+
+    private void write(Level level, JsonLineEncoder encoder, String threadName, Throwable throwable) {
+        if (logbackLogger != null) {
+            //异步 Appender 会在别的线程上输出，交出去的必须是一份拷贝
+            logbackLogger.callAppenders(new StructuredLoggingEvent(logbackLogger,
+                    ch.qos.logback.classic.Level.fromLocationAwareLoggerInteger(level.toInt()), encoder.toByteArray(), threadName, throwable));
+            return;
+        }
+        String line = encoder.toString().trim();
+        switch (level) {
+            case TRACE:
+                logger.trace(line, throwable);
+                break;
+            case DEBUG:
+                logger.debug(line, throwable);
+                break;
+            case INFO:
+                logger.info(line, throwable);
+                break;
+            case WARN:
+                logger.warn(line, throwable);
+                break;
+            default:
+                logger.error(line, throwable);
+        }
+    }
+
+    /**
+     * 正在组装的一条日志，DISABLED 的所有方法都直接返回
+     */
+    public static final class LogEntry {
+
+        static final LogEntry DISABLED = new LogEntry(null);
+
+        private final JsonLineEncoder encoder;
+        //Java 8 的 Thread.getName() 每次都会 new String，线程名在创建时取一次
+        private final String threadName;
+        private StructuredLogger logger;
+        private Level level;
+        private Throwable throwable;
+        //正在调用 Supplier 或 toString 这些业务代码，这时候再打日志不能复用这个 LogEntry
+        private boolean evaluating;
+
+        private LogEntry() {
+            this(new JsonLineEncoder());
+        }
+
+        private LogEntry(JsonLineEncoder encoder) {
+            this.encoder = encoder;
+            this.threadName = Thread.currentThread().getName();
+        }
+
+        private void start(StructuredLogger logger, Level level, String event) {
+            this.logger = logger;
+            this.level = level;
+            this.throwable = null;
+            encoder.reset().beginObject()
+                    .field("ts", System.currentTimeMillis())
+                    .raw(logger.headers[level.ordinal()])
+                    .field("thread", threadName)
+                    .field("event", event);
+        }
+
+        public LogEntry kv(String key, CharSequence value) {
+            if (this != DISABLED) {
+                encoder.field(key, value);
+            }
+            return this;
+        }
+
+        public LogEntry kv(String key, long value) {
+            if (this != DISABLED) {
+                encoder.field(key, value);
+            }
+            return this;
+        }
+
+        public LogEntry kv(String key, double value) {
+            if (this != DISABLED) {
+                encoder.field(key, value);
+            }
+            return this;
+        }
+
+        public LogEntry kv(String key, boolean value) {
+            if (this != DISABLED) {
+                encoder.field(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * toString 抛出的异常编码成字段值，不会抛给业务代码
+         */
+        public LogEntry kv(String key, Object value) {
+            if (this != DISABLED) {
+                evaluating = true;
+                try {
+                    encoder.field(key, encodable(value));
+                } finally {
+                    evaluating = false;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 只有这条日志真的要输出的时候才会调用 Supplier
+         */
+        public LogEntry kv(String key, Supplier<?> value) {
+            if (this != DISABLED) {
+                evaluating = true;
+                try {
+                    Object evaluated;
+                    try {
+                        evaluated = encodable(value.get());
+                    } catch (RuntimeException e) {
+                        evaluated = "<" + e + ">";
+                    }
+                    encoder.field(key, evaluated);
+                } finally {
+                    evaluating = false;
+                }
+            }
+            return this;
+        }
+
+        public LogEntry exception(Throwable throwable) {
+            if (this != DISABLED && throwable != null) {
+                this.throwable = throwable;
+                evaluating = true;
+                try {
+                    encoder.field("exception", throwable.getClass().getName())
+                            .field("message", throwable.getMessage());
+                } finally {
+                    evaluating = false;
+                }
+            }
+            return this;
+        }
+
+        public void log() {
+            if (this == DISABLED) {
+                return;
+            }
+            encoder.endLine();
+            Throwable thrown = throwable;
+            throwable = null;
+            try {
+                logger.write(level, encoder, threadName, thrown);
+            } finally {
+                //写出去的是拷贝，这里 reset 让超长日志撑大的 buffer 及时缩回去
+                encoder.reset();
+            }
+        }
+
+        /**
+         * 字符串、基本类型的包装类由 encoder 直接写，其它对象先在这里调用 toString，
+         * 避免 encoder 写了字段名以后才抛异常
+         */
+        private static Object encodable(Object value) {
+            if (value == null || value instanceof CharSequence || value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte || value instanceof Double || value instanceof Float
+                    || value instanceof Boolean) {
+                return value;
+            }
+            try {
+                return value.toString();
+            } catch (RuntimeException e) {
+                return "<" + e + ">";
+            }
+        }
+    }
+
+    /**
+     * 预先声明的调用点：先判断级别，再按 sampleRate 采样，最后按 maxPerSecond 限流，都通过了才开始组装日志
+     */
+    public static final class CallSite {
+
+        private static final int COUNT_BITS = 20;
+        private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+        private final StructuredLogger logger;
+        private final Level level;
+        private final String event;
+        private double sampleRate = 1;
+        private long maxPerSecond;
+        //高位是当前的秒数，低 20 位是这一秒已经输出的条数，一次 CAS 同时更新
+        private final AtomicLong window = new AtomicLong();
+
+        private CallSite(StructuredLogger logger, Level level, String event) {
+            this.logger = logger;
+            this.level = level;
+            this.event = event;
+        }
+
+        public CallSite sampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * 每秒最多输出的条数，0 表示不限
+         */
+        public CallSite maxPerSecond(int maxPerSecond) {
+            this.maxPerSecond = Math.min(maxPerSecond, COUNT_MASK);
+            return this;
+        }
+
+        public LogEntry entry() {
+            if (!logger.isEnabled(level)) {
+                return LogEntry.DISABLED;
+            }
+            if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+                return LogEntry.DISABLED;
+            }
+            if (maxPerSecond > 0 && !tryAcquire()) {
+                return LogEntry.DISABLED;
+            }
+            return logger.begin(level, event);
+        }
+
+        private boolean tryAcquire() {
+            long second = System.currentTimeMillis() / 1000;
+            while (true) {
+                long current = window.get();
+                if (current >>> COUNT_BITS != second) {
+                    if (window.compareAndSet(current, second << COUNT_BITS | 1)) {
+                        return true;
+                    }
+                } else if ((current & COUNT_MASK) >= maxPerSecond) {
+                    return false;
+                } else if (window.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.geekbang.time.commonmistakes.logging.placeholder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * StructuredLogger 测试
+ */
+public class StructuredLoggerTest {
+
+    private static final StructuredLogger slog = StructuredLogger.getLogger(StructuredLoggerTest.class);
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(StructuredLoggerTest.class);
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+    @Before
+    public void setUp() {
+        appender.setContext(logger.getLoggerContext());
+        appender.start();
+        logger.addAppender(appender);
+        logger.setLevel(Level.INFO);
+        logger.setAdditive(false);
+    }
+
+    @After
+    public void tearDown() {
+        logger.detachAppender(appender);
+        logger.setLevel(null);
+        logger.setAdditive(true);
+    }
+
+    private String line(int index) {
+        return new String(((StructuredLoggingEvent) appender.list.get(index)).getLine(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void routedThroughLogback() {
+        IllegalStateException exception = new IllegalStateException("boom");
+        slog.warn("order.created").kv("orderId", "o-1").kv("amount", 12).exception(exception).log();
+
+        assertEquals(1, appender.list.size());
+        ILoggingEvent event = appender.list.get(0);
+        assertEquals(Level.WARN, event.getLevel());
+        assertEquals(StructuredLoggerTest.class.getName(), event.getLoggerName());
+        assertEquals(Thread.currentThread().getName(), event.getThreadName());
+        assertNotNull(event.getThrowableProxy());
+        assertTrue(line(0).endsWith("\"orderId\":\"o-1\",\"amount\":12,\"exception\":\"java.lang.IllegalStateException\",\"message\":\"boom\"}\n"));
+        assertEquals(line(0).trim(), event.getFormattedMessage());
+        assertTrue(new String(new StructuredJsonEncoder().encode(event), StandardCharsets.UTF_8).equals(line(0)));
+    }
+
+    @Test
+    public void disabledLevelSkipsSupplier() {
+        slog.debug("skipped").kv("value", () -> {
+            throw new AssertionError("should not be called");
+        }).log();
+        assertTrue(appender.list.isEmpty());
+    }
+
+    @Test
+    public void abandonedEntryDoesNotLeak() {
+        //没有调用 log() 的日志，下一条日志直接覆盖
+        slog.info("abandoned").kv("secret", "x");
+        slog.info("next").kv("k", "v").log();
+
+        assertEquals(1, appender.list.size());
+        assertTrue(line(0).contains("\"event\":\"next\""));
+        assertFalse(line(0).contains("secret"));
+    }
+
+    @Test
+    public void toStringFailureEncoded() {
+        //toString 抛异常不能影响业务代码，异常编码成字段值
+        slog.info("failed").kv("value", (Object) new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("toString failed");
+            }
+        }).kv("k", "v").log();
+        slog.info("next").kv("k", "v").log();
+
+        assertEquals(2, appender.list.size());
+        assertTrue(line(0).endsWith("\"event\":\"failed\",\"value\":\"<java.lang.IllegalStateException: toString failed>\",\"k\":\"v\"}\n"));
+        assertTrue(line(1).contains("\"event\":\"next\""));
+    }
+
+    @Test
+    public void largeValueDoesNotPinBuffer() {
+        char[] chars = new char[1024 * 1024];
+        Arrays.fill(chars, 'a');
+        String large = new String(chars);
+        slog.info("large").kv("value", large).log();
+        assertTrue(line(0).contains(large));
+        assertTrue(StructuredLogger.currentEncoderCapacity() <= 64 * 1024);
+
+        StructuredJsonEncoder encoder = new StructuredJsonEncoder();
+        logger.info(large);
+        assertTrue(encoder.encode(appender.list.get(1)).length > large.length());
+        assertTrue(StructuredJsonEncoder.currentEncoderCapacity() <= 64 * 1024);
+    }
+
+    @Test
+    public void nestedLoggingInSupplier() {
+        slog.info("outer").kv("inner", () -> {
+            slog.info("inner").kv("k", 1).log();
+            return "done";
+        }).kv("after", true).log();
+
+        assertEquals(2, appender.list.size());
+        assertTrue(line(0).contains("\"event\":\"inner\""));
+        assertTrue(line(1).contains("\"event\":\"outer\""));
+        assertTrue(line(1).endsWith("\"inner\":\"done\",\"after\":true}\n"));
+    }
+
+    @Test
+    public void plainEventsEncodedAsJson() {
+        logger.info("plain {}", "message");
+        String json = new String(new StructuredJsonEncoder().encode(appender.list.get(0)), StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("{\"ts\":"));
+        assertTrue(json.endsWith("\"message\":\"plain message\"}\n"));
+    }
+}
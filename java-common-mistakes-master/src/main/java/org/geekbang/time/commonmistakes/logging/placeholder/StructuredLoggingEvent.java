@@ -0,0 +1,52 @@
+package org.geekbang.time.commonmistakes.logging.placeholder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * StructuredLogger 交给 logback 的日志事件，带着已经编码好的一行 JSON（以换行结尾）。
+ * StructuredJsonEncoder 直接输出这些字节，其它 Encoder 和 Layout 按普通事件处理，%msg 是这行 JSON
+ */
+public class StructuredLoggingEvent extends LoggingEvent {
+
+    private static final String FQCN = StructuredLogger.class.getName();
+
+    private final byte[] line;
+    private String message;
+
+    StructuredLoggingEvent(Logger logger, Level level, byte[] line, String threadName, Throwable throwable) {
+        super(FQCN, logger, level, null, throwable, null);
+        this.line = line;
+        //线程名用 LogEntry 缓存的，不再调用 Thread.getName()
+        setThreadName(threadName);
+    }
+
+    public byte[] getLine() {
+        return line;
+    }
+
+    //用到的时候才转成字符串，去掉末尾的换行
+    @Override
+    public String getMessage() {
+        if (message == null) {
+            message = new String(line, 0, line.length - 1, StandardCharsets.UTF_8);
+        }
+        return message;
+    }
+
+    @Override
+    public String getFormattedMessage() {
+        return getMessage();
+    }
+
+    /**
+     * OutputStreamAppender 每条日志都会调用，父类会提前生成消息字符串；这里的消息随时可以从不可变的 line 生成，不用提前转
+     */
+    @Override
+    public void prepareForDeferredProcessing() {
+        getMDCPropertyMap();
+    }
+}
@@ -3,10 +3,13 @@ package org.geekbang.time.commonmistakes.oom.groovyoom;
 import groovy.lang.GroovyShell;
 import groovy.lang.Script;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.LongStream;
 
@@ -21,6 +24,8 @@ public class GroovyOOMController {
     public static final String SCRIPT_METHOD = "add";
     public static final String SCRIPT_PERFECT = "def add(a,b){def c=a+b; return c;}";
     GroovyShell shell = new GroovyShell();
+    @Autowired
+    private ScriptEngineService scriptEngineService;
 
     @GetMapping("wrong")
     public Object wrong() {
@@ -47,6 +52,20 @@ public class GroovyOOMController {
         return rightGroovy(SCRIPT_PERFECT, SCRIPT_METHOD, 1, 1);
     }
 
+    //和 wrong 一样执行 10000 个不同的脚本，缓存有上限，淘汰的脚本连同所在代的 ClassLoader 一起卸载
+    @GetMapping("right2")
+    public Object right2() {
+        LongStream.rangeClosed(1, 10000).forEach(i -> {
+            scriptEngineService.evaluate(String.format(SCRIPT_TEMPLATE, i, i), new HashMap<>());
+        });
+        return scriptEngineService.invokeMethod(SCRIPT_PERFECT, SCRIPT_METHOD, 1, 1);
+    }
+
+    @GetMapping("stats")
+    public Map<String, Object> stats() {
+        return scriptEngineService.stats();
+    }
+
     private Object wrongGroovy(String script) {
         return shell.evaluate(script);
     }
@@ -0,0 +1,178 @@
+package org.geekbang.time.commonmistakes.oom.groovyoom;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovySystem;
+import groovy.lang.Script;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 脚本引擎服务
+ * <p>
+ * 按脚本内容的哈希缓存编译好的脚本类，缓存有上限并按 LRU 淘汰；同一个脚本并发请求只编译一次。
+ * 编译用的 GroovyClassLoader 按“代”轮换，每代最多编译固定数量的脚本，
+ * 一代里的脚本全部被淘汰后关闭这一代的 ClassLoader，脚本类才能真正被卸载，Metaspace 不会一直涨
+ */
+@Slf4j
+@Service
+public class ScriptEngineService {
+
+    private static final int MAX_SCRIPTS = 1000;
+    private static final int SCRIPTS_PER_GENERATION = 100;
+
+    private final Cache<String, CompiledScript> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SCRIPTS)
+            .removalListener(this::onRemoval)
+            .build();
+    private final Object generationLock = new Object();
+    private Generation currentGeneration = new Generation();
+    private final AtomicInteger liveGenerations = new AtomicInteger(1);
+    private final Timer compileTimer = Timer.builder("groovy.script.compile")
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+    private final ClassLoadingMXBean classLoadingMXBean = ManagementFactory.getClassLoadingMXBean();
+
+    public ScriptEngineService() {
+        Gauge.builder("groovy.script.cached", cache, Cache::size).register(Metrics.globalRegistry);
+        Gauge.builder("groovy.script.generations", liveGenerations, AtomicInteger::get).register(Metrics.globalRegistry);
+        Gauge.builder("groovy.script.metaspace", this, ScriptEngineService::metaspaceUsed).baseUnit("bytes").register(Metrics.globalRegistry);
+        Gauge.builder("groovy.script.loadedClasses", classLoadingMXBean, ClassLoadingMXBean::getLoadedClassCount).register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 调用脚本里定义的方法，脚本对象在调用之间共享，只适合无状态的 def 方法
+     */
+    public Object invokeMethod(String scriptText, String method, Object... args) {
+        return compile(scriptText).shared.invokeMethod(method, args);
+    }
+
+    /**
+     * 带变量执行脚本，每次创建新的脚本实例，Binding 互不影响
+     */
+    public Object evaluate(String scriptText, Map<String, Object> variables) {
+        Script script = InvokerHelper.createScript(compile(scriptText).scriptClass, new Binding(variables));
+        return script.run();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cachedScripts", cache.size());
+        stats.put("liveGenerations", liveGenerations.get());
+        stats.put("metaspaceUsed", metaspaceUsed());
+        stats.put("loadedClasses", classLoadingMXBean.getLoadedClassCount());
+        stats.put("unloadedClasses", classLoadingMXBean.getUnloadedClassCount());
+        stats.put("compileCount", compileTimer.count());
+        stats.put("compileMeanMs", compileTimer.mean(TimeUnit.MILLISECONDS));
+        return stats;
+    }
+
+    private CompiledScript compile(String scriptText) {
+        String key = Hashing.sha256().hashString(scriptText, StandardCharsets.UTF_8).toString();
+        try {
+            //Guava Cache 的 get 保证同一个 Key 并发时只有一个线程执行加载
+            return cache.get(key, () -> compileTimer.recordCallable(() -> doCompile(key, scriptText)));
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("compile script failed", e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompiledScript doCompile(String key, String scriptText) {
+        Generation generation;
+        synchronized (generationLock) {
+            if (currentGeneration.compiled >= SCRIPTS_PER_GENERATION) {
+                Generation retired = currentGeneration;
+                currentGeneration = new Generation();
+                liveGenerations.incrementAndGet();
+                retired.sealed = true;
+                closeIfUnused(retired);
+            }
+            generation = currentGeneration;
+            generation.compiled++;
+            generation.live.incrementAndGet();
+        }
+        try {
+            Class<? extends Script> scriptClass = generation.loader.parseClass(scriptText, "Script_" + key.substring(0, 16) + ".groovy");
+            return new CompiledScript(scriptClass, InvokerHelper.createScript(scriptClass, new Binding()), generation);
+        } catch (RuntimeException ex) {
+            synchronized (generationLock) {
+                generation.live.decrementAndGet();
+                closeIfUnused(generation);
+            }
+            throw ex;
+        }
+    }
+
+    private void onRemoval(RemovalNotification<String, CompiledScript> notification) {
+        CompiledScript compiledScript = notification.getValue();
+        if (compiledScript == null) {
+            return;
+        }
+        //MetaClass 注册表会强引用脚本类，不清掉类就卸载不了
+        GroovySystem.getMetaClassRegistry().removeMetaClass(compiledScript.scriptClass);
+        Generation generation = compiledScript.generation;
+        synchronized (generationLock) {
+            generation.live.decrementAndGet();
+            closeIfUnused(generation);
+        }
+    }
+
+    private void closeIfUnused(Generation generation) {
+        if (generation.sealed && generation.live.get() == 0 && !generation.closed) {
+            generation.closed = true;
+            liveGenerations.decrementAndGet();
+            generation.loader.clearCache();
+            try {
+                generation.loader.close();
+            } catch (IOException e) {
+                log.warn("close groovy class loader failed", e);
+            }
+        }
+    }
+
+    private long metaspaceUsed() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> "Metaspace".equals(pool.getName()))
+                .mapToLong(pool -> pool.getUsage().getUsed())
+                .sum();
+    }
+
+    private static class Generation {
+        private final GroovyClassLoader loader = new GroovyClassLoader(ScriptEngineService.class.getClassLoader());
+        private final AtomicInteger live = new AtomicInteger();
+        private int compiled;
+        private boolean sealed;
+        private boolean closed;
+    }
+
+    private static class CompiledScript {
+        private final Class<? extends Script> scriptClass;
+        private final Script shared;
+        private final Generation generation;
+
+        CompiledScript(Class<? extends Script> scriptClass, Script shared, Generation generation) {
+            this.scriptClass = scriptClass;
+            this.shared = shared;
+            this.generation = generation;
+        }
+    }
+}
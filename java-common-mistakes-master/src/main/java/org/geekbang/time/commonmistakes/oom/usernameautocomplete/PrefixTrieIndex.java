@@ -0,0 +1,246 @@
+package org.geekbang.time.commonmistakes.oom.usernameautocomplete;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 基于前缀树的自动完成索引
+ * <p>
+ * 节点用 firstChild/nextSibling 数组表示（同级节点按字符有序），用户只以 int id 在终止节点上挂一次，
+ * 不再为每一个前缀保存一份 List；查询时从前缀节点按字典序深度优先取前 N 个用户，结果写入调用方传入的数组
+ */
+public class PrefixTrieIndex {
+
+    private static final int NONE = -1;
+    private static final int ROOT = 0;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //节点
+    private char[] label;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] parent;
+    private int[] firstUser;
+    private int nodeCount;
+    //用户，下标就是用户 id，同名用户在终止节点上串成链表
+    private int[] nextUser;
+    private int[] userNode;
+    private int userCount;
+
+    public PrefixTrieIndex() {
+        this(1024, 1024);
+    }
+
+    public PrefixTrieIndex(int expectedNodes, int expectedMaxUserId) {
+        label = new char[Math.max(1, expectedNodes)];
+        firstChild = new int[label.length];
+        nextSibling = new int[label.length];
+        parent = new int[label.length];
+        firstUser = new int[label.length];
+        nextUser = new int[Math.max(1, expectedMaxUserId + 1)];
+        userNode = new int[nextUser.length];
+        Arrays.fill(userNode, NONE);
+        nodeCount = 1;
+        firstChild[ROOT] = NONE;
+        nextSibling[ROOT] = NONE;
+        parent[ROOT] = NONE;
+        firstUser[ROOT] = NONE;
+    }
+
+    public void insert(int userId, String name) {
+        lock.writeLock().lock();
+        try {
+            if (userId < userNode.length && userNode[userId] != NONE) {
+                unlink(userId);
+            }
+            int node = ROOT;
+            for (int i = 0; i < name.length(); i++) {
+                node = childOrCreate(node, name.charAt(i));
+            }
+            ensureUserCapacity(userId);
+            nextUser[userId] = firstUser[node];
+            firstUser[node] = userId;
+            userNode[userId] = node;
+            userCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除用户，节点不回收，空节点在查询时自然跳过
+     *
+     * @param userId
+     * @return
+     */
+    public boolean delete(int userId) {
+        lock.writeLock().lock();
+        try {
+            if (userId >= userNode.length || userNode[userId] == NONE) {
+                return false;
+            }
+            unlink(userId);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按字典序返回前缀匹配的前 out.length 个用户 id，查询过程不分配对象
+     *
+     * @param prefix
+     * @param out
+     * @return 写入 out 的数量
+     */
+    public int complete(CharSequence prefix, int[] out) {
+        lock.readLock().lock();
+        try {
+            int node = ROOT;
+            for (int i = 0; i < prefix.length() && node != NONE; i++) {
+                node = child(node, prefix.charAt(i));
+            }
+            if (node == NONE || node == ROOT) {
+                return 0;
+            }
+            return collect(node, out, 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> completeNames(CharSequence prefix, int limit) {
+        int[] out = new int[limit];
+        int count = complete(prefix, out);
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(name(out[i]));
+        }
+        return result;
+    }
+
+    /**
+     * 沿父节点还原用户名，名字本身不在索引里重复保存
+     *
+     * @param userId
+     * @return
+     */
+    public String name(int userId) {
+        lock.readLock().lock();
+        try {
+            if (userId >= userNode.length || userNode[userId] == NONE) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int node = userNode[userId]; node != ROOT; node = parent[node]) {
+                sb.append(label[node]);
+            }
+            return sb.reverse().toString();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int userCount() {
+        return userCount;
+    }
+
+    /**
+     * 估算索引占用的堆内存（只算数组本身）
+     *
+     * @return
+     */
+    public long estimatedBytes() {
+        return (long) label.length * Character.BYTES + (long) label.length * Integer.BYTES * 4
+                + (long) nextUser.length * Integer.BYTES * 2;
+    }
+
+    private int collect(int node, int[] out, int count) {
+        for (int user = firstUser[node]; user != NONE && count < out.length; user = nextUser[user]) {
+            out[count++] = user;
+        }
+        for (int child = firstChild[node]; child != NONE && count < out.length; child = nextSibling[child]) {
+            count = collect(child, out, count);
+        }
+        return count;
+    }
+
+    private int child(int node, char c) {
+        int child = firstChild[node];
+        while (child != NONE && label[child] < c) {
+            child = nextSibling[child];
+        }
+        return child != NONE && label[child] == c ? child : NONE;
+    }
+
+    private int childOrCreate(int node, char c) {
+        int prev = NONE;
+        int child = firstChild[node];
+        while (child != NONE && label[child] < c) {
+            prev = child;
+            child = nextSibling[child];
+        }
+        if (child != NONE && label[child] == c) {
+            return child;
+        }
+        int created = newNode(node, c);
+        nextSibling[created] = child;
+        if (prev == NONE) {
+            firstChild[node] = created;
+        } else {
+            nextSibling[prev] = created;
+        }
+        return created;
+    }
+
+    private int newNode(int parentNode, char c) {
+        if (nodeCount == label.length) {
+            int capacity = label.length + (label.length >> 1) + 1;
+            label = Arrays.copyOf(label, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            firstUser = Arrays.copyOf(firstUser, capacity);
+        }
+        int node = nodeCount++;
+        label[node] = c;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        parent[node] = parentNode;
+        firstUser[node] = NONE;
+        return node;
+    }
+
+    private void ensureUserCapacity(int userId) {
+        if (userId >= nextUser.length) {
+            int capacity = Math.max(userId + 1, nextUser.length + (nextUser.length >> 1));
+            nextUser = Arrays.copyOf(nextUser, capacity);
+            int oldLength = userNode.length;
+            userNode = Arrays.copyOf(userNode, capacity);
+            Arrays.fill(userNode, oldLength, capacity, NONE);
+        }
+    }
+
+    private void unlink(int userId) {
+        int node = userNode[userId];
+        int prev = NONE;
+        for (int user = firstUser[node]; user != NONE; prev = user, user = nextUser[user]) {
+            if (user == userId) {
+                if (prev == NONE) {
+                    firstUser[node] = nextUser[user];
+                } else {
+                    nextUser[prev] = nextUser[user];
+                }
+                break;
+            }
+        }
+        userNode[userId] = NONE;
+        userCount--;
+    }
+}
@@ -18,6 +18,7 @@ import java.util.stream.LongStream;
 public class UsernameAutoCompleteService {
 
     private ConcurrentHashMap<String, List<UserDTO>> autoCompleteIndex = new ConcurrentHashMap<>();
+    private PrefixTrieIndex prefixTrieIndex = new PrefixTrieIndex();
 
     @Autowired
     private UserRepository userRepository;
@@ -58,13 +59,38 @@ public class UsernameAutoCompleteService {
                 autoCompleteIndex.entrySet().stream().map(item -> item.getValue().size()).reduce(0, Integer::sum));
     }
 
+    //@PostConstruct
+    public void trie() {
+        userRepository.saveAll(LongStream.rangeClosed(1, 10000).mapToObj(i -> new UserEntity(i, randomName())).collect(Collectors.toList()));
+
+        //用户只以 id 在前缀树的终止节点上保存一次，不再为每个前缀保存一份 List
+        userRepository.findAll().forEach(userEntity -> prefixTrieIndex.insert(userEntity.getId().intValue(), userEntity.getName()));
+        log.info("prefixTrieIndex nodes:{} users:{} bytes:{}", prefixTrieIndex.nodeCount(),
+                prefixTrieIndex.userCount(), prefixTrieIndex.estimatedBytes());
+    }
+
+    public List<String> autoComplete(String prefix, int limit) {
+        return prefixTrieIndex.completeNames(prefix, limit);
+    }
+
+    //写库之后同步维护前缀树索引
+    public UserEntity addUser(String name) {
+        UserEntity userEntity = userRepository.save(new UserEntity(null, name));
+        prefixTrieIndex.insert(userEntity.getId().intValue(), userEntity.getName());
+        return userEntity;
+    }
+
+    public void deleteUser(long id) {
+        userRepository.deleteById(id);
+        prefixTrieIndex.delete((int) id);
+    }
 
     /**
      * 随机生成长度为6的英文名称，字母包含 abcdefghij
      *
      * @return
      */
-    private String randomName() {
+    static String randomName() {
         return String.valueOf(Character.toChars(ThreadLocalRandom.current().nextInt(10) + 'a')).toUpperCase() +
                 String.valueOf(Character.toChars(ThreadLocalRandom.current().nextInt(10) + 'a')) +
                 String.valueOf(Character.toChars(ThreadLocalRandom.current().nextInt(10) + 'a')) +
@@ -0,0 +1,316 @@
+package org.geekbang.time.commonmistakes.oom.weakhashmapoom;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * 按字节估算权重淘汰的有界缓存，容量不依赖 GC 时机
+ * <p>
+ * Key 按哈希分到多个段，每个段一把锁、各自负责自己那份容量：
+ * 堆内模式每段是一个按访问顺序排列的 LinkedHashMap，超出权重淘汰最久未访问的；
+ * 堆外模式 Value 序列化后写入每段一块 DirectByteBuffer 组成的环形区，按写入顺序淘汰，堆上只剩 Key 和位置
+ */
+public class BoundedCache<K, V> {
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final LongAdder evictions = new LongAdder();
+
+    public interface Codec<V> {
+        byte[] encode(V value);
+
+        V decode(ByteBuffer buffer, int length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BoundedCache(int segmentCount, Function<BoundedCache<K, V>, Segment<K, V>> segmentFactory) {
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = segmentFactory.apply(this);
+        }
+        segmentMask = segmentCount - 1;
+    }
+
+    /**
+     * @param maxWeightBytes   总容量（字节）
+     * @param concurrencyLevel 段数，会向上取整为 2 的幂，1 表示不分段
+     * @param weigher          估算一个 Key/Value 占用的字节数
+     */
+    public static <K, V> BoundedCache<K, V> onHeap(long maxWeightBytes, int concurrencyLevel, ToIntBiFunction<K, V> weigher) {
+        int segmentCount = segmentCount(concurrencyLevel);
+        long segmentWeight = maxWeightBytes / segmentCount;
+        return new BoundedCache<>(segmentCount, owner -> new HeapSegment<>(segmentWeight, weigher, owner));
+    }
+
+    /**
+     * @param maxOffHeapBytes  堆外总容量（字节），每段不能超过 2GB
+     * @param concurrencyLevel 段数，会向上取整为 2 的幂，1 表示不分段
+     * @param codec            Value 的序列化方式
+     */
+    public static <K, V> BoundedCache<K, V> offHeap(long maxOffHeapBytes, int concurrencyLevel, Codec<V> codec) {
+        int segmentCount = segmentCount(concurrencyLevel);
+        int segmentCapacity = (int) Math.min(Integer.MAX_VALUE, maxOffHeapBytes / segmentCount);
+        return new BoundedCache<>(segmentCount, owner -> new OffHeapSegment<>(segmentCapacity, codec, owner));
+    }
+
+    public V get(K key) {
+        return segmentFor(key).get(key);
+    }
+
+    public void put(K key, V value) {
+        segmentFor(key).put(key, value);
+    }
+
+    public void remove(K key) {
+        segmentFor(key).remove(key);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            weight += segment.weight();
+        }
+        return weight;
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private static int segmentCount(int concurrencyLevel) {
+        if (concurrencyLevel <= 1) {
+            return 1;
+        }
+        return Integer.highestOneBit(concurrencyLevel - 1) << 1;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & segmentMask];
+    }
+
+    private abstract static class Segment<K, V> {
+        protected final ReentrantLock lock = new ReentrantLock();
+        protected final BoundedCache<K, V> owner;
+
+        Segment(BoundedCache<K, V> owner) {
+            this.owner = owner;
+        }
+
+        abstract V get(K key);
+
+        abstract void put(K key, V value);
+
+        abstract void remove(K key);
+
+        abstract int size();
+
+        abstract long weight();
+    }
+
+    private static class HeapSegment<K, V> extends Segment<K, V> {
+        private final long maxWeight;
+        private final ToIntBiFunction<K, V> weigher;
+        private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+
+        HeapSegment(long maxWeight, ToIntBiFunction<K, V> weigher, BoundedCache<K, V> owner) {
+            super(owner);
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+        }
+
+        @Override
+        V get(K key) {
+            lock.lock();
+            try {
+                return map.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void put(K key, V value) {
+            //权重在锁外计算，缩短临界区
+            int w = weigher.applyAsInt(key, value);
+            lock.lock();
+            try {
+                V old = map.put(key, value);
+                if (old != null) {
+                    weight -= weigher.applyAsInt(key, old);
+                }
+                weight += w;
+                Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+                while (weight > maxWeight && iterator.hasNext()) {
+                    Map.Entry<K, V> eldest = iterator.next();
+                    weight -= weigher.applyAsInt(eldest.getKey(), eldest.getValue());
+                    iterator.remove();
+                    owner.evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void remove(K key) {
+            lock.lock();
+            try {
+                V old = map.remove(key);
+                if (old != null) {
+                    weight -= weigher.applyAsInt(key, old);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        int size() {
+            lock.lock();
+            try {
+                return map.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        long weight() {
+            lock.lock();
+            try {
+                return weight;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class OffHeapSegment<K, V> extends Segment<K, V> {
+        private final Codec<V> codec;
+        private final ByteBuffer buffer;
+        private final int capacity;
+        //按写入顺序排列，写入位置单调递增，最老的 Entry 一定在环的尾部
+        private final LinkedHashMap<K, Slot> slots = new LinkedHashMap<>();
+        private long head;
+        private long tail;
+
+        OffHeapSegment(int capacity, Codec<V> codec, BoundedCache<K, V> owner) {
+            super(owner);
+            this.capacity = capacity;
+            this.codec = codec;
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        @Override
+        V get(K key) {
+            lock.lock();
+            try {
+                Slot slot = slots.get(key);
+                if (slot == null) {
+                    return null;
+                }
+                ByteBuffer view = buffer.duplicate();
+                view.position((int) (slot.position % capacity));
+                return codec.decode(view, slot.length);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void put(K key, V value) {
+            byte[] bytes = codec.encode(value);
+            lock.lock();
+            try {
+                slots.remove(key);
+                //单个 Value 比整段还大，直接当作被淘汰
+                if (bytes.length > capacity) {
+                    owner.evictions.increment();
+                    return;
+                }
+                long position = head;
+                int offset = (int) (position % capacity);
+                //放不下就跳到环的开头，尾部这段空间作废
+                if (offset + bytes.length > capacity) {
+                    position += capacity - offset;
+                    offset = 0;
+                }
+                Iterator<Slot> iterator = slots.values().iterator();
+                while (position + bytes.length - tail > capacity) {
+                    if (!iterator.hasNext()) {
+                        tail = position;
+                        break;
+                    }
+                    Slot eldest = iterator.next();
+                    tail = eldest.position + eldest.length;
+                    iterator.remove();
+                    owner.evictions.increment();
+                }
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset);
+                view.put(bytes);
+                slots.put(key, new Slot(position, bytes.length));
+                head = position + bytes.length;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void remove(K key) {
+            lock.lock();
+            try {
+                slots.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        int size() {
+            lock.lock();
+            try {
+                return slots.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        long weight() {
+            lock.lock();
+            try {
+                return head - tail;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Slot {
+        private final long position;
+        private final int length;
+
+        Slot(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
@@ -7,13 +7,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.ConcurrentReferenceHashMap;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
 import java.util.stream.LongStream;
 
 @RestController
@@ -23,6 +31,29 @@ public class WeakHashMapOOMController {
     private Map<User, UserProfile> cache = new WeakHashMap<>();
     private Map<User, WeakReference<UserProfile>> cache2 = new WeakHashMap<>();
     private Map<User, UserProfile> cache3 = new ConcurrentReferenceHashMap<>();
+    private static final long MAX_CACHE_BYTES = 64 * 1024 * 1024;
+    private BoundedCache.Codec<UserProfile> profileCodec = new BoundedCache.Codec<UserProfile>() {
+        @Override
+        public byte[] encode(UserProfile value) {
+            byte[] name = value.getUser().getName().getBytes(StandardCharsets.UTF_8);
+            byte[] location = value.getLocation().getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(4 + name.length + location.length)
+                    .putShort((short) name.length).put(name)
+                    .putShort((short) location.length).put(location)
+                    .array();
+        }
+
+        @Override
+        public UserProfile decode(ByteBuffer buffer, int length) {
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            byte[] location = new byte[buffer.getShort()];
+            buffer.get(location);
+            return new UserProfile(new User(new String(name, StandardCharsets.UTF_8)), new String(location, StandardCharsets.UTF_8));
+        }
+    };
+    private BoundedCache<User, UserProfile> cache4 = BoundedCache.onHeap(MAX_CACHE_BYTES, 16, this::weigh);
+    private BoundedCache<User, UserProfile> cache5 = BoundedCache.offHeap(MAX_CACHE_BYTES, 16, profileCodec);
 
     @GetMapping("wrong")
     public void wrong() {
@@ -68,6 +99,82 @@ public class WeakHashMapOOMController {
         });
     }
 
+    @GetMapping("bounded")
+    public void bounded() {
+        String userName = "zhuye";
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
+                () -> log.info("cache size:{} weight:{} evictions:{}", cache4.size(), cache4.weight(), cache4.evictionCount()), 1, 1, TimeUnit.SECONDS);
+        LongStream.rangeClosed(1, 20000000).forEach(i -> {
+            User user = new User(userName + i);
+            cache4.put(user, new UserProfile(user, "location" + i));
+        });
+    }
+
+    @GetMapping("offheap")
+    public void offheap() {
+        String userName = "zhuye";
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
+                () -> log.info("cache size:{} weight:{} evictions:{}", cache5.size(), cache5.weight(), cache5.evictionCount()), 1, 1, TimeUnit.SECONDS);
+        LongStream.rangeClosed(1, 20000000).forEach(i -> {
+            User user = new User(userName + i);
+            cache5.put(user, new UserProfile(user, "location" + i));
+        });
+    }
+
+    //用同样的插入循环对比各种实现，wrong 的 WeakHashMap 会 OOM 所以不参与
+    @GetMapping("benchmark")
+    public Map<String, String> benchmark(@RequestParam(value = "count", defaultValue = "2000000") int count) {
+        Map<String, String> result = new LinkedHashMap<>();
+        Map<User, WeakReference<UserProfile>> weakHashMap = new WeakHashMap<>();
+        //弱引用的 Map 没有淘汰计数，被 GC 清掉的条数就是插入数减去剩下的条数（每次插入的 Key 都不同）
+        result.put("WeakHashMap+WeakReference", runBenchmark(count,
+                (user, profile) -> weakHashMap.put(user, new WeakReference<>(profile)), weakHashMap::size, () -> count - weakHashMap.size()));
+        Map<User, UserProfile> concurrentReferenceHashMap = new ConcurrentReferenceHashMap<>();
+        result.put("ConcurrentReferenceHashMap", runBenchmark(count,
+                concurrentReferenceHashMap::put, concurrentReferenceHashMap::size, () -> count - concurrentReferenceHashMap.size()));
+        BoundedCache<User, UserProfile> onHeap = BoundedCache.onHeap(MAX_CACHE_BYTES, 16, this::weigh);
+        result.put("BoundedCache(onHeap)", runBenchmark(count, onHeap::put, onHeap::size, onHeap::evictionCount));
+        BoundedCache<User, UserProfile> offHeap = BoundedCache.offHeap(MAX_CACHE_BYTES, 16, profileCodec);
+        result.put("BoundedCache(offHeap)", runBenchmark(count, offHeap::put, offHeap::size, offHeap::evictionCount));
+        return result;
+    }
+
+    private String runBenchmark(int count, BiConsumer<User, UserProfile> put, LongSupplier size, LongSupplier evictions) {
+        String userName = "zhuye";
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long begin = System.nanoTime();
+        LongStream.rangeClosed(1, count).forEach(i -> {
+            User user = new User(userName + i);
+            put.accept(user, new UserProfile(user, "location" + i));
+        });
+        long elapsed = System.nanoTime() - begin;
+        return String.format("puts/sec:%d size:%d evictions:%d gc count:%d gc time:%dms",
+                (long) (count * 1e9 / elapsed), size.getAsLong(), evictions.getAsLong(), gcCount() - gcCount, gcTime() - gcTime);
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    /**
+     * 粗略估算一个 User/UserProfile 在堆上的字节数（对象头、字符串、LinkedHashMap.Entry）
+     *
+     * @param user
+     * @param profile
+     * @return
+     */
+    private int weigh(User user, UserProfile profile) {
+        return 16 + stringBytes(user.getName()) + 24 + stringBytes(profile.getLocation()) + 40;
+    }
+
+    private static int stringBytes(String s) {
+        return s == null ? 0 : 24 + 16 + s.length() * 2;
+    }
 
     @Data
     @AllArgsConstructor
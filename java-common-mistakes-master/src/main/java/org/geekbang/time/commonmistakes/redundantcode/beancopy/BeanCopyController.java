@@ -8,16 +8,25 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 @Slf4j
 @RestController
 @RequestMapping("beancopy")
 public class BeanCopyController {
 
+    //编译时由 MapperProcessor 生成的实现类，只有普通的 getter/setter 调用
+    private static final ComplicatedOrderMapper orderMapper = new ComplicatedOrderMapperImpl();
+
     @GetMapping("wrong")
     public ComplicatedOrderDO wrong() {
-        ComplicatedOrderDTO orderDTO = new ComplicatedOrderDTO();
+        return copyByHand(new ComplicatedOrderDTO());
+    }
+
+    static ComplicatedOrderDO copyByHand(ComplicatedOrderDTO orderDTO) {
         ComplicatedOrderDO orderDO = new ComplicatedOrderDO();
         orderDO.setAcceptDate(orderDTO.getAcceptDate());
         orderDO.setAddress(orderDTO.getAddress());
@@ -66,6 +75,16 @@ public class BeanCopyController {
         orderDO.setUpdateTime(orderDTO.getUpdateTime());
         orderDO.setName(orderDTO.getName());
         orderDO.setUid(orderDTO.getUid());
+        List<OrderItemDO> items = new ArrayList<>();
+        for (OrderItemDTO itemDTO : orderDTO.getItems()) {
+            OrderItemDO itemDO = new OrderItemDO();
+            itemDO.setSkuId(itemDTO.getSkuId());
+            itemDO.setSkuName(itemDTO.getSkuName());
+            itemDO.setQuantity(itemDTO.getQuantity());
+            itemDO.setPrice(itemDTO.getPrice());
+            items.add(itemDO);
+        }
+        orderDO.setItems(items);
         return orderDO;
     }
 
@@ -73,12 +92,18 @@ public class BeanCopyController {
     public ComplicatedOrderDO right() {
         ComplicatedOrderDTO orderDTO = new ComplicatedOrderDTO();
         ComplicatedOrderDO orderDO = new ComplicatedOrderDO();
+        //注意 items 会把 List<OrderItemDTO> 原样塞给 List<OrderItemDO>，泛型擦除以后 BeanUtils 分辨不出来
         BeanUtils.copyProperties(orderDTO, orderDO, "id");
         return orderDO;
     }
 
+    @GetMapping("generated")
+    public ComplicatedOrderDO generated() {
+        return orderMapper.toDO(new ComplicatedOrderDTO());
+    }
+
     @Data
-    class ComplicatedOrderDO {
+    static class ComplicatedOrderDO {
         private Long id;
         private String orderNo;
         private Integer totalQuantity;
@@ -126,10 +151,11 @@ public class BeanCopyController {
         private String deliveryManName;
         private String deliveryManMobile;
         private Date updateTime;
+        private List<OrderItemDO> items;
     }
 
     @Data
-    class ComplicatedOrderDTO {
+    static class ComplicatedOrderDTO {
         private Long id = 1L;
         private String orderNo = "orderNo";
         private Integer totalQuantity = 1;
@@ -177,5 +203,22 @@ public class BeanCopyController {
         private String deliveryManName = "deliveryManName";
         private String deliveryManMobile = "deliveryManMobile";
         private Date updateTime = new Date();
+        private List<OrderItemDTO> items = Arrays.asList(new OrderItemDTO(), new OrderItemDTO());
+    }
+
+    @Data
+    static class OrderItemDO {
+        private Long skuId;
+        private String skuName;
+        private Integer quantity;
+        private BigDecimal price;
+    }
+
+    @Data
+    static class OrderItemDTO {
+        private Long skuId = 1L;
+        private String skuName = "skuName";
+        private Integer quantity = 1;
+        private BigDecimal price = BigDecimal.ONE;
     }
 }
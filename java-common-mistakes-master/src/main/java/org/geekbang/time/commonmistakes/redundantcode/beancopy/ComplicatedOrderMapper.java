@@ -0,0 +1,21 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy;
+
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.ComplicatedOrderDO;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.ComplicatedOrderDTO;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.OrderItemDO;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.BeanCopyController.OrderItemDTO;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper.GenerateMapper;
+import org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper.Mapping;
+
+/**
+ * 和 BeanUtils.copyProperties(orderDTO, orderDO, "id") 效果相同，但属性漏了、类型对不上在编译时就会报错，
+ * 运行时也没有反射。items 里的每个元素用 toDO(OrderItemDTO) 转换
+ */
+@GenerateMapper
+interface ComplicatedOrderMapper {
+
+    @Mapping(target = "id", ignore = true)
+    ComplicatedOrderDO toDO(ComplicatedOrderDTO orderDTO);
+
+    OrderItemDO toDO(OrderItemDTO itemDTO);
+}
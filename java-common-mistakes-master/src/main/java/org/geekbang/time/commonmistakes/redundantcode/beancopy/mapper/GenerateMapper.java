@@ -0,0 +1,31 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注在接口上，编译时由 MapperProcessor 生成同包下的 XxxImpl 实现类，用普通的 getter/setter 完成属性拷贝。
+ * 接口里的方法有两种写法：
+ * <pre>
+ * Target toTarget(Source source);               //创建新的目标对象
+ * void copy(Source source, Target target);      //拷贝到已有的目标对象
+ * </pre>
+ * 属性按名字匹配，名字不同或者要忽略的属性用 {@link Mapping} 说明；
+ * 嵌套对象和集合元素的类型不同时，会找接口里对应的方法来转换
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.SOURCE)
+public @interface GenerateMapper {
+
+    /**
+     * 目标对象有属性没有赋值时怎么处理，默认编译失败
+     */
+    ReportingPolicy unmappedTargetPolicy() default ReportingPolicy.ERROR;
+
+    /**
+     * 源对象有属性没有用到时怎么处理，默认只给出编译警告
+     */
+    ReportingPolicy unmappedSourcePolicy() default ReportingPolicy.WARN;
+}
@@ -0,0 +1,468 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * 为 {@link GenerateMapper} 标注的接口生成实现类。属性从 public 的 getter/setter 里找，
+ * 也认 Lombok 的 @Data、@Getter、@Setter、@Value（Lombok 和这个处理器在同一轮运行，看不到它生成的方法）。
+ * <p>
+ * 目标属性找不到来源、类型对不上、嵌套对象或集合元素找不到转换方法时都直接报编译错误，
+ * 不会像 BeanUtils.copyProperties 那样运行时静悄悄地漏掉或者错拷
+ */
+@SupportedAnnotationTypes("org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper.GenerateMapper")
+public class MapperProcessor extends AbstractProcessor {
+
+    private static final String LOMBOK = "lombok.";
+
+    private Elements elements;
+    private Types types;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateMapper.class)) {
+            if (element.getKind() != ElementKind.INTERFACE) {
+                error(element, "@GenerateMapper 只能标注在接口上");
+                continue;
+            }
+            new MapperWriter((TypeElement) element).write();
+        }
+        return true;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * 一个可以读或者写的属性，getter 或 setter 为 null 表示不可读或不可写
+     */
+    private static final class Property {
+        final String name;
+        String getter;
+        TypeMirror getterType;
+        String setter;
+        TypeMirror setterType;
+
+        Property(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * 接口里的一个映射方法
+     */
+    private static final class MappingMethod {
+        final ExecutableElement element;
+        final TypeMirror sourceType;
+        final TypeMirror targetType;
+        final boolean update;
+
+        MappingMethod(ExecutableElement element, TypeMirror sourceType, TypeMirror targetType, boolean update) {
+            this.element = element;
+            this.sourceType = sourceType;
+            this.targetType = targetType;
+            this.update = update;
+        }
+    }
+
+    private final class MapperWriter {
+        private final TypeElement mapper;
+        private final GenerateMapper config;
+        private final List<MappingMethod> methods = new ArrayList<>();
+        private final StringBuilder code = new StringBuilder();
+        //javac 同一个位置只报第一条诊断，同一个方法的问题攒起来一起报
+        private final Map<Element, List<String>> errors = new LinkedHashMap<>();
+        private final Map<Element, List<String>> warnings = new LinkedHashMap<>();
+        //当前方法里已经用掉的变量名，包括参数名，生成的局部变量不能和它们重名
+        private final Set<String> names = new HashSet<>();
+
+        MapperWriter(TypeElement mapper) {
+            this.mapper = mapper;
+            this.config = mapper.getAnnotation(GenerateMapper.class);
+        }
+
+        void write() {
+            DeclaredType mapperType = (DeclaredType) mapper.asType();
+            for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(mapper))) {
+                if (!method.getModifiers().contains(Modifier.ABSTRACT)) {
+                    continue;
+                }
+                ExecutableType type = (ExecutableType) types.asMemberOf(mapperType, method);
+                List<? extends TypeMirror> parameters = type.getParameterTypes();
+                if (parameters.size() == 1 && type.getReturnType().getKind() == TypeKind.DECLARED) {
+                    methods.add(new MappingMethod(method, parameters.get(0), type.getReturnType(), false));
+                } else if (parameters.size() == 2 && type.getReturnType().getKind() == TypeKind.VOID) {
+                    methods.add(new MappingMethod(method, parameters.get(0), parameters.get(1), true));
+                } else {
+                    fail(method, "映射方法只能是 Target map(Source) 或 void map(Source, Target)");
+                }
+            }
+            String packageName = elements.getPackageOf(mapper).getQualifiedName().toString();
+            String implName = implName(mapper);
+            code.append("package ").append(packageName).append(";\n\n")
+                    .append("/**\n * 由 MapperProcessor 根据 ").append(mapper.getSimpleName()).append(" 生成，不要手工修改\n */\n")
+                    .append("public final class ").append(implName).append(" implements ")
+                    .append(mapper.getQualifiedName()).append(" {\n");
+            for (MappingMethod method : methods) {
+                writeMethod(method);
+            }
+            code.append("}\n");
+            warnings.forEach((element, messages) -> processingEnv.getMessager()
+                    .printMessage(Diagnostic.Kind.WARNING, String.join("\n", messages), element));
+            if (!errors.isEmpty()) {
+                errors.forEach((element, messages) -> error(element, String.join("\n", messages)));
+                return;
+            }
+            try (Writer writer = processingEnv.getFiler().createSourceFile(packageName + "." + implName, mapper).openWriter()) {
+                writer.write(code.toString());
+            } catch (IOException e) {
+                error(mapper, "生成 " + implName + " 失败：" + e);
+            }
+        }
+
+        private void writeMethod(MappingMethod method) {
+            ExecutableElement element = method.element;
+            List<? extends VariableElement> parameters = element.getParameters();
+            names.clear();
+            parameters.forEach(parameter -> names.add(parameter.getSimpleName().toString()));
+            String source = parameters.get(0).getSimpleName().toString();
+            String target = method.update ? parameters.get(1).getSimpleName().toString() : local("target");
+            code.append("\n    @Override\n    public ")
+                    .append(method.update ? "void" : method.targetType.toString()).append(' ')
+                    .append(element.getSimpleName()).append("(final ").append(method.sourceType).append(' ').append(source);
+            if (method.update) {
+                code.append(", final ").append(method.targetType).append(' ').append(target);
+            }
+            code.append(") {\n");
+            code.append("        if (").append(source).append(" == null) {\n            return")
+                    .append(method.update ? "" : " null").append(";\n        }\n");
+            if (!method.update) {
+                TypeElement targetElement = (TypeElement) types.asElement(method.targetType);
+                if (!hasAccessibleConstructor(targetElement)) {
+                    fail(element, targetElement.getQualifiedName() + " 没有可以访问的无参构造方法，只能用 void map(Source, Target) 拷贝到已有对象");
+                    return;
+                }
+                code.append("        final ").append(method.targetType).append(' ').append(target)
+                        .append(" = new ").append(method.targetType).append("();\n");
+            }
+
+            Map<String, Mapping> mappings = new HashMap<>();
+            for (Mapping mapping : element.getAnnotationsByType(Mapping.class)) {
+                mappings.put(mapping.target(), mapping);
+            }
+            Map<String, Property> sourceProperties = properties((DeclaredType) method.sourceType);
+            Map<String, Property> targetProperties = properties((DeclaredType) method.targetType);
+            for (String name : mappings.keySet()) {
+                if (!targetProperties.containsKey(name) || targetProperties.get(name).setter == null) {
+                    fail(element, "@Mapping 的目标属性 " + name + " 在 " + method.targetType + " 里不存在或者没有 setter");
+                }
+            }
+            Set<String> usedSources = new HashSet<>();
+            for (Property targetProperty : targetProperties.values()) {
+                if (targetProperty.setter == null) {
+                    continue;
+                }
+                Mapping mapping = mappings.get(targetProperty.name);
+                if (mapping != null && mapping.ignore()) {
+                    usedSources.add(targetProperty.name);
+                    continue;
+                }
+                String sourceName = mapping != null && !mapping.source().isEmpty() ? mapping.source() : targetProperty.name;
+                Property sourceProperty = sourceProperties.get(sourceName);
+                if (sourceProperty == null || sourceProperty.getter == null) {
+                    if (mapping != null) {
+                        fail(element, "@Mapping 的源属性 " + sourceName + " 在 " + method.sourceType + " 里不存在或者没有 getter");
+                    } else {
+                        report(config.unmappedTargetPolicy(), element, "目标属性 " + method.targetType + "." + targetProperty.name
+                                + " 没有对应的源属性，用 @Mapping 指定来源或者 ignore = true");
+                    }
+                    continue;
+                }
+                usedSources.add(sourceName);
+                writeAssignment(element, source + "." + sourceProperty.getter + "()", sourceProperty.getterType,
+                        target, targetProperty);
+            }
+            for (Property sourceProperty : sourceProperties.values()) {
+                if (sourceProperty.getter != null && !usedSources.contains(sourceProperty.name)) {
+                    report(config.unmappedSourcePolicy(), element, "源属性 " + method.sourceType + "." + sourceProperty.name + " 没有被使用");
+                }
+            }
+            if (!method.update) {
+                code.append("        return ").append(target).append(";\n");
+            }
+            code.append("    }\n");
+        }
+
+        private void writeAssignment(ExecutableElement element, String getter, TypeMirror sourceType, String target, Property property) {
+            TypeMirror targetType = property.setterType;
+            String set = target + "." + property.setter;
+            //包装类型拆箱给基本类型，源属性是 null 时保留目标的默认值
+            if (!sourceType.getKind().isPrimitive() && targetType.getKind().isPrimitive() && isBoxOf(sourceType, targetType)) {
+                String local = local(property.name + "Value");
+                code.append("        final ").append(sourceType).append(' ').append(local).append(" = ").append(getter).append(";\n")
+                        .append("        if (").append(local).append(" != null) {\n")
+                        .append("            ").append(set).append('(').append(local).append(");\n")
+                        .append("        }\n");
+                return;
+            }
+            if (types.isAssignable(sourceType, targetType)) {
+                code.append("        ").append(set).append('(').append(getter).append(");\n");
+                return;
+            }
+            String collection = collectionImplementation(targetType);
+            if (collection != null && isCollection(sourceType)) {
+                TypeMirror sourceElement = elementType(sourceType);
+                TypeMirror targetElement = elementType(targetType);
+                String convert = converter(sourceElement, targetElement);
+                if (convert == null) {
+                    fail(element, "集合属性 " + property.name + " 的元素不能从 " + sourceElement + " 转换成 " + targetElement
+                            + "，需要在接口里声明 " + targetElement + " xxx(" + sourceElement + ")");
+                    return;
+                }
+                String local = local(property.name + "Source");
+                String converted = local(property.name);
+                String item = local("element");
+                code.append("        final ").append(sourceType).append(' ').append(local).append(" = ").append(getter).append(";\n")
+                        .append("        if (").append(local).append(" == null) {\n")
+                        .append("            ").append(set).append("(null);\n")
+                        .append("        } else {\n")
+                        .append("            final ").append(targetType).append(' ').append(converted)
+                        .append(" = new ").append(collection).append("<>(").append(local).append(".size());\n")
+                        .append("            for (").append(sourceElement).append(' ').append(item).append(" : ").append(local).append(") {\n")
+                        .append("                ").append(converted).append(".add(").append(convert).append('(').append(item).append("));\n")
+                        .append("            }\n")
+                        .append("            ").append(set).append('(').append(converted).append(");\n")
+                        .append("        }\n");
+                return;
+            }
+            String convert = converter(sourceType, targetType);
+            if (convert == null) {
+                fail(element, "属性 " + property.name + " 的类型不匹配：" + sourceType + " 不能赋值给 " + targetType
+                        + "，嵌套对象需要在接口里声明 " + targetType + " xxx(" + sourceType + ")");
+                return;
+            }
+            code.append("        ").append(set).append('(').append(convert).append('(').append(getter).append("));\n");
+        }
+
+        /**
+         * 生成一个当前方法里没用过的变量名，重名时在后面加数字
+         */
+        private String local(String name) {
+            String local = name;
+            for (int i = 1; !names.add(local); i++) {
+                local = name + i;
+            }
+            return local;
+        }
+
+        /**
+         * 元素可以直接赋值时返回空字符串（生成的是 list.add((element))），否则返回接口里对应的创建型映射方法名
+         */
+        private String converter(TypeMirror sourceType, TypeMirror targetType) {
+            if (types.isAssignable(sourceType, targetType)) {
+                return "";
+            }
+            for (MappingMethod method : methods) {
+                if (!method.update && types.isAssignable(sourceType, method.sourceType) && types.isSameType(method.targetType, targetType)) {
+                    return method.element.getSimpleName().toString();
+                }
+            }
+            return null;
+        }
+
+        private void fail(Element element, String message) {
+            errors.computeIfAbsent(element, key -> new ArrayList<>()).add(message);
+        }
+
+        private void report(ReportingPolicy policy, Element element, String message) {
+            if (policy == ReportingPolicy.ERROR) {
+                fail(element, message);
+            } else if (policy == ReportingPolicy.WARN) {
+                warnings.computeIfAbsent(element, key -> new ArrayList<>()).add(message);
+            }
+        }
+    }
+
+    private Map<String, Property> properties(DeclaredType type) {
+        Map<String, Property> properties = new LinkedHashMap<>();
+        TypeElement typeElement = (TypeElement) type.asElement();
+        //先按字段的声明顺序收集 Lombok 生成的访问方法，父类的字段在前
+        Deque<TypeElement> hierarchy = new ArrayDeque<>();
+        for (TypeElement current = typeElement; current != null && !current.getQualifiedName().contentEquals(Object.class.getName());
+             current = superclass(current)) {
+            hierarchy.push(current);
+        }
+        for (TypeElement current : hierarchy) {
+            boolean getters = hasLombok(current, "Data", "Getter", "Value");
+            boolean setters = hasLombok(current, "Data", "Setter");
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                if (field.getModifiers().contains(Modifier.STATIC)) {
+                    continue;
+                }
+                boolean getter = getters || hasLombok(field, "Getter");
+                boolean setter = (setters || hasLombok(field, "Setter")) && !field.getModifiers().contains(Modifier.FINAL);
+                if (!getter && !setter) {
+                    continue;
+                }
+                TypeMirror fieldType = types.asMemberOf(type, field);
+                String fieldName = field.getSimpleName().toString();
+                boolean isPrefixed = fieldType.getKind() == TypeKind.BOOLEAN && fieldName.length() > 2
+                        && fieldName.startsWith("is") && Character.isUpperCase(fieldName.charAt(2));
+                String baseName = isPrefixed ? fieldName.substring(2) : capitalize(fieldName);
+                Property property = properties.computeIfAbsent(isPrefixed ? Introspector.decapitalize(baseName) : fieldName, Property::new);
+                if (getter) {
+                    property.getter = isPrefixed ? fieldName : (fieldType.getKind() == TypeKind.BOOLEAN ? "is" : "get") + baseName;
+                    property.getterType = fieldType;
+                }
+                if (setter) {
+                    property.setter = "set" + baseName;
+                    property.setterType = fieldType;
+                }
+            }
+        }
+        //再加上手写的 getter/setter
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(typeElement))) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)
+                    || ((TypeElement) method.getEnclosingElement()).getQualifiedName().contentEquals(Object.class.getName())) {
+                continue;
+            }
+            String name = method.getSimpleName().toString();
+            ExecutableType methodType = (ExecutableType) types.asMemberOf(type, method);
+            int parameterCount = methodType.getParameterTypes().size();
+            TypeMirror returnType = methodType.getReturnType();
+            if (parameterCount == 0 && name.startsWith("get") && name.length() > 3 && returnType.getKind() != TypeKind.VOID) {
+                Property property = properties.computeIfAbsent(Introspector.decapitalize(name.substring(3)), Property::new);
+                property.getter = name;
+                property.getterType = returnType;
+            } else if (parameterCount == 0 && name.startsWith("is") && name.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN) {
+                Property property = properties.computeIfAbsent(Introspector.decapitalize(name.substring(2)), Property::new);
+                property.getter = name;
+                property.getterType = returnType;
+            } else if (parameterCount == 1 && name.startsWith("set") && name.length() > 3) {
+                Property property = properties.computeIfAbsent(Introspector.decapitalize(name.substring(3)), Property::new);
+                property.setter = name;
+                property.setterType = methodType.getParameterTypes().get(0);
+            }
+        }
+        return properties;
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+    }
+
+    private static boolean hasLombok(Element element, String... annotations) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            String name = ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+            for (String annotation : annotations) {
+                if (name.equals(LOMBOK + annotation)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isBoxOf(TypeMirror boxed, TypeMirror primitive) {
+        try {
+            return types.isSameType(types.unboxedType(boxed), primitive);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean isCollection(TypeMirror type) {
+        TypeMirror collection = types.erasure(elements.getTypeElement(Collection.class.getName()).asType());
+        return types.isAssignable(types.erasure(type), collection);
+    }
+
+    /**
+     * 目标集合类型对应的实现类，不是能处理的集合类型时返回 null
+     */
+    private String collectionImplementation(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        String name = ((TypeElement) types.asElement(type)).getQualifiedName().toString();
+        if (name.equals(List.class.getName()) || name.equals(Collection.class.getName()) || name.equals(ArrayList.class.getName())) {
+            return ArrayList.class.getName();
+        }
+        if (name.equals(Set.class.getName()) || name.equals(HashSet.class.getName()) || name.equals(LinkedHashSet.class.getName())) {
+            return LinkedHashSet.class.getName();
+        }
+        return null;
+    }
+
+    private TypeMirror elementType(TypeMirror collectionType) {
+        TypeElement collection = elements.getTypeElement(Collection.class.getName());
+        for (TypeMirror current = collectionType; current != null; ) {
+            if (types.isSameType(types.erasure(current), types.erasure(collection.asType()))) {
+                List<? extends TypeMirror> arguments = ((DeclaredType) current).getTypeArguments();
+                return arguments.isEmpty() ? elements.getTypeElement(Object.class.getName()).asType() : arguments.get(0);
+            }
+            TypeMirror next = null;
+            for (TypeMirror supertype : types.directSupertypes(current)) {
+                if (isCollection(supertype)) {
+                    next = supertype;
+                    break;
+                }
+            }
+            current = next;
+        }
+        return elements.getTypeElement(Object.class.getName()).asType();
+    }
+
+    private static String implName(TypeElement mapper) {
+        StringBuilder name = new StringBuilder(mapper.getSimpleName());
+        for (Element enclosing = mapper.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+        }
+        return name.append("Impl").toString();
+    }
+
+    private static boolean hasAccessibleConstructor(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        //内部类（非静态）没法在映射方法里直接 new
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+            return false;
+        }
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+        for (ExecutableElement constructor : constructors) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
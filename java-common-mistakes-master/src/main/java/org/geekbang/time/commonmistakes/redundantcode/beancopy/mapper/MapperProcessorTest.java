@@ -0,0 +1,180 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用 javax.tools.JavaCompiler 带着 MapperProcessor 编译一小段源码，检查编译诊断
+ */
+public class MapperProcessorTest {
+
+    private Path output;
+    private List<Diagnostic<? extends JavaFileObject>> diagnostics;
+
+    @Before
+    public void setUp() throws IOException {
+        output = Files.createTempDirectory("mapper");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(output)) {
+            files.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * 生成一个只有 public getter/setter 的 bean，properties 形如 "String name"
+     */
+    private static String bean(String name, String... properties) {
+        StringBuilder code = new StringBuilder("class ").append(name).append(" {\n");
+        for (String property : properties) {
+            String[] parts = property.split(" ");
+            String type = parts[0];
+            String field = parts[1];
+            String suffix = Character.toUpperCase(field.charAt(0)) + field.substring(1);
+            code.append("    private ").append(type).append(' ').append(field).append(";\n")
+                    .append("    public ").append(type).append(" get").append(suffix).append("() { return ").append(field).append("; }\n")
+                    .append("    public void set").append(suffix).append('(').append(type).append(" value) { ").append(field).append(" = value; }\n");
+        }
+        return code.append("}\n").toString();
+    }
+
+    /**
+     * 编译 demo 包下的一个文件，返回是否成功
+     */
+    private boolean compile(String annotation, String methods, String... beans) {
+        String code = "package demo;\n\n"
+                + "import org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper.*;\n\n"
+                + annotation + "\ninterface DemoMapper {\n" + methods + "\n}\n\n"
+                + String.join("\n", beans);
+        JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///demo/DemoMapper.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, collector,
+                Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path"), "-s", output.toString()),
+                null, Collections.singletonList(source));
+        task.setProcessors(Collections.singletonList(new MapperProcessor()));
+        boolean success = task.call();
+        diagnostics = collector.getDiagnostics();
+        return success;
+    }
+
+    private List<String> messages(Diagnostic.Kind kind) {
+        return diagnostics.stream().filter(diagnostic -> diagnostic.getKind() == kind)
+                .map(diagnostic -> diagnostic.getMessage(null)).collect(Collectors.toList());
+    }
+
+    private void assertOnly(Diagnostic.Kind kind, String expected) {
+        List<String> messages = messages(kind);
+        assertEquals(diagnostics.toString(), 1, messages.size());
+        assertTrue(messages.get(0), messages.get(0).contains(expected));
+    }
+
+    private boolean generated() {
+        return Files.exists(output.resolve("demo/DemoMapperImpl.java"));
+    }
+
+    @Test
+    public void allMapped() {
+        assertTrue(compile("@GenerateMapper", "Target map(Source source);",
+                bean("Source", "String name", "Long id"), bean("Target", "String name", "Long id")));
+        assertTrue(diagnostics.toString(), diagnostics.isEmpty());
+        assertTrue(generated());
+    }
+
+    @Test
+    public void unmappedTargetError() {
+        assertFalse(compile("@GenerateMapper", "Target map(Source source);",
+                bean("Source", "String name"), bean("Target", "String name", "String remark")));
+        assertOnly(Diagnostic.Kind.ERROR, "目标属性 demo.Target.remark 没有对应的源属性");
+        assertFalse(generated());
+    }
+
+    @Test
+    public void unmappedTargetWarn() {
+        assertTrue(compile("@GenerateMapper(unmappedTargetPolicy = ReportingPolicy.WARN)", "Target map(Source source);",
+                bean("Source", "String name"), bean("Target", "String name", "String remark")));
+        assertTrue(messages(Diagnostic.Kind.ERROR).isEmpty());
+        assertOnly(Diagnostic.Kind.WARNING, "目标属性 demo.Target.remark 没有对应的源属性");
+        assertTrue(generated());
+    }
+
+    @Test
+    public void unmappedTargetIgnore() {
+        assertTrue(compile("@GenerateMapper(unmappedTargetPolicy = ReportingPolicy.IGNORE)", "Target map(Source source);",
+                bean("Source", "String name"), bean("Target", "String name", "String remark")));
+        assertTrue(diagnostics.toString(), diagnostics.isEmpty());
+        assertTrue(generated());
+    }
+
+    @Test
+    public void unmappedSourcePolicies() {
+        String[] beans = {bean("Source", "String name", "String remark"), bean("Target", "String name")};
+        assertTrue(compile("@GenerateMapper", "Target map(Source source);", beans));
+        assertOnly(Diagnostic.Kind.WARNING, "源属性 demo.Source.remark 没有被使用");
+
+        assertFalse(compile("@GenerateMapper(unmappedSourcePolicy = ReportingPolicy.ERROR)", "Target map(Source source);", beans));
+        assertOnly(Diagnostic.Kind.ERROR, "源属性 demo.Source.remark 没有被使用");
+
+        assertTrue(compile("@GenerateMapper(unmappedSourcePolicy = ReportingPolicy.IGNORE)", "Target map(Source source);", beans));
+        assertTrue(diagnostics.toString(), diagnostics.isEmpty());
+    }
+
+    @Test
+    public void typeMismatch() {
+        assertFalse(compile("@GenerateMapper", "Target map(Source source);",
+                bean("Source", "String id"), bean("Target", "Long id")));
+        assertOnly(Diagnostic.Kind.ERROR, "属性 id 的类型不匹配：java.lang.String 不能赋值给 java.lang.Long");
+        assertFalse(generated());
+    }
+
+    @Test
+    public void missingNestedMapper() {
+        String[] beans = {bean("Source", "SourceItem item"), bean("Target", "TargetItem item"),
+                bean("SourceItem", "String name"), bean("TargetItem", "String name")};
+        assertFalse(compile("@GenerateMapper", "Target map(Source source);", beans));
+        assertOnly(Diagnostic.Kind.ERROR, "嵌套对象需要在接口里声明 demo.TargetItem xxx(demo.SourceItem)");
+        assertFalse(generated());
+
+        //声明了嵌套对象的映射方法以后就能编译
+        assertTrue(compile("@GenerateMapper", "Target map(Source source);\nTargetItem map(SourceItem item);", beans));
+        assertTrue(diagnostics.toString(), diagnostics.isEmpty());
+    }
+
+    @Test
+    public void missingCollectionMapper() {
+        String[] beans = {bean("Source", "java.util.List<SourceItem> items"), bean("Target", "java.util.List<TargetItem> items"),
+                bean("SourceItem", "String name"), bean("TargetItem", "String name")};
+        assertFalse(compile("@GenerateMapper", "Target map(Source source);", beans));
+        assertOnly(Diagnostic.Kind.ERROR, "集合属性 items 的元素不能从 demo.SourceItem 转换成 demo.TargetItem");
+        assertFalse(generated());
+
+        assertTrue(compile("@GenerateMapper", "Target map(Source source);\nTargetItem map(SourceItem item);", beans));
+        assertTrue(diagnostics.toString(), diagnostics.isEmpty());
+    }
+}
@@ -0,0 +1,25 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 说明目标对象的一个属性从源对象的哪个属性来，或者不需要赋值
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.SOURCE)
+@Repeatable(Mappings.class)
+public @interface Mapping {
+
+    String target();
+
+    /**
+     * 源对象的属性名，默认和 target 相同
+     */
+    String source() default "";
+
+    boolean ignore() default false;
+}
@@ -0,0 +1,12 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.SOURCE)
+public @interface Mappings {
+    Mapping[] value();
+}
@@ -0,0 +1,5 @@
+package org.geekbang.time.commonmistakes.redundantcode.beancopy.mapper;
+
+public enum ReportingPolicy {
+    IGNORE, WARN, ERROR
+}
@@ -0,0 +1,382 @@
+package org.geekbang.time.commonmistakes.redundantcode.reflection.right;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 @BankAPI 和 @BankAPIField 把请求对象编码成定长报文，末尾加 32 位 MD2 签名。
+ * 注解、字段排序和字段访问（MethodHandle）每个类只解析一次，之后每次编码直接写进调用方给的 byte 数组，
+ * 填充、数字和签名的十六进制都是手写的，不经过 String.format
+ * <p>
+ * 编码结果和原来反射 + String.format 的写法逐字节一致，区别是：值超过字段长度时直接抛异常，
+ * 不再输出一个比约定更长、银行解析不了的报文；不支持的字段类型在第一次解析类的时候就报错
+ */
+public final class BankApiCodec<T extends AbstractAPI> {
+
+    public static final int SIGNATURE_LENGTH = 32;
+
+    private static final Map<Class<?>, BankApiCodec<?>> CODECS = new ConcurrentHashMap<>();
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    //MessageDigest 不是线程安全的，每个线程一个，顺便带上放摘要结果的数组
+    private static final ThreadLocal<Signer> SIGNERS = ThreadLocal.withInitial(Signer::new);
+
+    private final Class<T> type;
+    private final String url;
+    private final String desc;
+    private final FieldCodec[] fields;
+    private final MethodHandle constructor;
+    private final int width;
+
+    private BankApiCodec(Class<T> type) {
+        BankAPI bankAPI = type.getAnnotation(BankAPI.class);
+        if (bankAPI == null) {
+            throw new IllegalArgumentException(type + " 没有标注 @BankAPI");
+        }
+        this.type = type;
+        this.url = bankAPI.url();
+        this.desc = bankAPI.desc();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<FieldCodec> fieldCodecs = new ArrayList<>();
+        Arrays.stream(type.getDeclaredFields())
+                .filter(field -> field.isAnnotationPresent(BankAPIField.class))
+                .sorted(Comparator.comparingInt(field -> field.getAnnotation(BankAPIField.class).order()))
+                .forEach(field -> fieldCodecs.add(new FieldCodec(lookup, field)));
+        this.fields = fieldCodecs.toArray(new FieldCodec[0]);
+        this.width = fieldCodecs.stream().mapToInt(field -> field.length).sum();
+        try {
+            this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(type + " 没有可以访问的无参构造方法", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends AbstractAPI> BankApiCodec<T> of(Class<T> type) {
+        //Java 8 的 computeIfAbsent 即使 key 已经存在也会锁住桶，先 get 一次
+        BankApiCodec<?> codec = CODECS.get(type);
+        if (codec == null) {
+            codec = CODECS.computeIfAbsent(type, key -> new BankApiCodec<>(type));
+        }
+        return (BankApiCodec<T>) codec;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public String desc() {
+        return desc;
+    }
+
+    /**
+     * 不含签名的报文字符数
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * 编码一个请求最多需要的字节数（字符串字段按 UTF-8 每个字符 3 个字节算）
+     */
+    public int capacity() {
+        return width * 3 + SIGNATURE_LENGTH;
+    }
+
+    /**
+     * 从 offset 开始写入报文和签名，返回写入的字节数，buffer 至少要留出 capacity() 个字节
+     */
+    public int encode(T api, byte[] buffer, int offset) {
+        int length = encodeFields(api, buffer, offset);
+        return SIGNERS.get().sign(buffer, offset, offset + length) - offset;
+    }
+
+    /**
+     * 只写字段不加签名，返回写入的字节数
+     */
+    public int encodeFields(T api, byte[] buffer, int offset) {
+        int position = offset;
+        for (FieldCodec field : fields) {
+            position = field.encode(api, buffer, position);
+        }
+        return position - offset;
+    }
+
+    /**
+     * 按同样的格式解析报文，报文带签名时校验签名
+     */
+    public T decode(byte[] data, int offset, int length) {
+        return decode(new String(data, offset, length, StandardCharsets.UTF_8));
+    }
+
+    public T decode(String message) {
+        if (message.length() != width && message.length() != width + SIGNATURE_LENGTH) {
+            throw new IllegalArgumentException(String.format("%s 的报文长度应该是 %d 或 %d，实际是 %d",
+                    type.getSimpleName(), width, width + SIGNATURE_LENGTH, message.length()));
+        }
+        if (message.length() > width) {
+            String content = message.substring(0, width);
+            if (!DigestUtils.md2Hex(content).equals(message.substring(width))) {
+                throw new IllegalArgumentException(type.getSimpleName() + " 的报文签名不正确");
+            }
+        }
+        try {
+            Object api = constructor.invokeExact();
+            int position = 0;
+            for (FieldCodec field : fields) {
+                field.decode(api, message, position);
+                position += field.length;
+            }
+            return type.cast(api);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("解析 " + type.getSimpleName() + " 失败", e);
+        }
+    }
+
+    /**
+     * 一个字段的编码方式：S 靠左、空位填 _，N 靠右、空位填 0，M 是以分为单位的金额
+     */
+    private static final class FieldCodec {
+        private final String name;
+        private final char kind;
+        private final int length;
+        private final Class<?> fieldType;
+        //整数类型的字段用 long 取值，避免装箱
+        private final boolean integral;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        FieldCodec(MethodHandles.Lookup lookup, Field field) {
+            BankAPIField bankAPIField = field.getAnnotation(BankAPIField.class);
+            this.name = field.getDeclaringClass().getSimpleName() + "." + field.getName();
+            this.length = bankAPIField.length();
+            this.fieldType = field.getType();
+            this.integral = fieldType == long.class || fieldType == int.class || fieldType == short.class || fieldType == byte.class;
+            switch (bankAPIField.type()) {
+                case "S":
+                case "N":
+                    this.kind = bankAPIField.type().charAt(0);
+                    break;
+                case "M":
+                    if (fieldType != BigDecimal.class) {
+                        throw new IllegalArgumentException(name + " 是金额字段，必须是 BigDecimal");
+                    }
+                    this.kind = 'M';
+                    break;
+                default:
+                    throw new IllegalArgumentException(name + " 的类型 " + bankAPIField.type() + " 不支持");
+            }
+            if (length <= 0) {
+                throw new IllegalArgumentException(name + " 没有指定长度");
+            }
+            field.setAccessible(true);
+            try {
+                MethodHandle get = lookup.unreflectGetter(field);
+                this.getter = integral ? get.asType(MethodType.methodType(long.class, Object.class))
+                        : get.asType(MethodType.methodType(Object.class, Object.class));
+                this.setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("无法访问 " + name, e);
+            }
+        }
+
+        int encode(Object api, byte[] buffer, int position) {
+            try {
+                if (integral) {
+                    return writeNumber(kind == 'S' ? ' ' : '0', (long) getter.invokeExact(api), buffer, position);
+                }
+                Object value = (Object) getter.invokeExact(api);
+                if (value == null) {
+                    throw new IllegalArgumentException(name + " 不能为 null");
+                }
+                if (kind == 'M') {
+                    //向下舍入到分，和 setScale(2, RoundingMode.DOWN).multiply(100).longValue() 相同
+                    return writeNumber('0', ((BigDecimal) value).movePointRight(2).longValue(), buffer, position);
+                }
+                return writeText(value.toString(), buffer, position);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("读取 " + name + " 失败", e);
+            }
+        }
+
+        /**
+         * S 靠左填 _，N 靠右填 0；和原来的 format + replace 一样，值里的空格也会被替换成填充字符
+         */
+        private int writeText(String value, byte[] buffer, int position) {
+            int padding = length - value.length();
+            if (padding < 0) {
+                throw new IllegalArgumentException(String.format("%s 的长度是 %d，值 %s 超长了", name, length, value));
+            }
+            byte pad = (byte) (kind == 'S' ? '_' : '0');
+            if (kind != 'S') {
+                position = fill(buffer, position, pad, padding);
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ' ') {
+                    buffer[position++] = pad;
+                } else if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xc0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xe0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            if (kind == 'S') {
+                position = fill(buffer, position, pad, padding);
+            }
+            return position;
+        }
+
+        /**
+         * 数字不转字符串直接写，负号的位置和原来的写法一致：N 是 00-36（先格式化再把空格换成 0），M 是 -0000105
+         */
+        private int writeNumber(char pad, long value, byte[] buffer, int position) {
+            if (kind == 'S') {
+                return writeText(Long.toString(value), buffer, position);
+            }
+            boolean negative = value < 0;
+            int digits = 1;
+            for (long v = value; v <= -10 || v >= 10; v /= 10) {
+                digits++;
+            }
+            int padding = length - digits - (negative ? 1 : 0);
+            if (padding < 0) {
+                throw new IllegalArgumentException(String.format("%s 的长度是 %d，值 %d 超长了", name, length, value));
+            }
+            if (value == Long.MIN_VALUE) {
+                //取绝对值会溢出，直接拷贝现成的数字，M 的负号在最前面
+                int sign = kind == 'M' ? 1 : 0;
+                if (sign == 1) {
+                    buffer[position++] = '-';
+                }
+                position = fill(buffer, position, (byte) pad, padding);
+                System.arraycopy(MIN_LONG, sign, buffer, position, MIN_LONG.length - sign);
+                return position + MIN_LONG.length - sign;
+            }
+            if (negative && kind == 'M') {
+                buffer[position++] = '-';
+            }
+            position = fill(buffer, position, (byte) pad, padding);
+            if (negative && kind == 'N') {
+                buffer[position++] = '-';
+            }
+            long remaining = Math.abs(value);
+            for (int i = position + digits - 1; i >= position; i--) {
+                buffer[i] = (byte) ('0' + remaining % 10);
+                remaining /= 10;
+            }
+            return position + digits;
+        }
+
+        private static int fill(byte[] buffer, int position, byte pad, int count) {
+            Arrays.fill(buffer, position, position + count, pad);
+            return position + count;
+        }
+
+        void decode(Object api, String message, int position) throws Throwable {
+            String text = message.substring(position, position + length);
+            Object value;
+            if (kind == 'S') {
+                int end = text.length();
+                while (end > 0 && text.charAt(end - 1) == '_') {
+                    end--;
+                }
+                value = convert(text.substring(0, end));
+            } else if (kind == 'M') {
+                value = BigDecimal.valueOf(Long.parseLong(text), 2);
+            } else {
+                value = convert(stripZeros(text));
+            }
+            setter.invokeExact(api, value);
+        }
+
+        private static String stripZeros(String text) {
+            //N 的负数是 00-36 这样的形式
+            int minus = text.indexOf('-');
+            if (minus >= 0) {
+                return "-" + stripZeros(text.substring(minus + 1));
+            }
+            int start = 0;
+            while (start < text.length() - 1 && text.charAt(start) == '0') {
+                start++;
+            }
+            return text.substring(start);
+        }
+
+        private Object convert(String text) {
+            if (fieldType == String.class) {
+                return text;
+            }
+            if (fieldType == long.class || fieldType == Long.class) {
+                return Long.valueOf(text);
+            }
+            if (fieldType == int.class || fieldType == Integer.class) {
+                return Integer.valueOf(text);
+            }
+            if (fieldType == short.class || fieldType == Short.class) {
+                return Short.valueOf(text);
+            }
+            if (fieldType == byte.class || fieldType == Byte.class) {
+                return Byte.valueOf(text);
+            }
+            if (fieldType == BigDecimal.class) {
+                return new BigDecimal(text);
+            }
+            throw new IllegalArgumentException(name + " 的类型 " + fieldType.getName() + " 不支持解析");
+        }
+    }
+
+    /**
+     * 银行那边按 MD2 验签，算法不能自己改，这里只是去掉中间的 String 和十六进制字符串
+     */
+    private static final class Signer {
+        private final MessageDigest digest = DigestUtils.getMd2Digest();
+        private final byte[] result = new byte[16];
+
+        int sign(byte[] buffer, int offset, int position) {
+            digest.update(buffer, offset, position - offset);
+            try {
+                digest.digest(result, 0, result.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            for (byte b : result) {
+                buffer[position++] = HEX[(b >> 4) & 0xf];
+                buffer[position++] = HEX[b & 0xf];
+            }
+            return position;
+        }
+    }
+}
@@ -1,19 +1,45 @@
 package org.geekbang.time.commonmistakes.redundantcode.reflection.right;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.http.client.fluent.Request;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class BetterBankService {
 
+    //所有请求共用一个带连接池的 HttpClient，并且设置超时，银行接口卡住时不会把调用方的线程一直挂着
+    private static final CloseableHttpClient HTTP_CLIENT = HttpClients.custom()
+            .setConnectionManager(connectionManager())
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(1000)
+                    .setConnectTimeout(1000)
+                    .setSocketTimeout(5000)
+                    .build())
+            .evictIdleConnections(30, TimeUnit.SECONDS)
+            .build();
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private static PoolingHttpClientConnectionManager connectionManager() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(100);
+        connectionManager.setDefaultMaxPerRoute(50);
+        return connectionManager;
+    }
+
     public static String createUser(String name, String identity, String mobile, int age) throws IOException {
         CreateUserAPI createUserAPI = new CreateUserAPI();
         createUserAPI.setName(name);
@@ -30,54 +56,34 @@ public class BetterBankService {
         return remoteCall(payAPI);
     }
 
-    private static String remoteCall(AbstractAPI api) throws IOException {
-        //从BankAPI注解获取请求地址
-        BankAPI bankAPI = api.getClass().getAnnotation(BankAPI.class);
-        bankAPI.url();
-        StringBuilder stringBuilder = new StringBuilder();
-        Arrays.stream(api.getClass().getDeclaredFields()) //获得所有字段
-                .filter(field -> field.isAnnotationPresent(BankAPIField.class)) //查找标记了注解的字段
-                .sorted(Comparator.comparingInt(a -> a.getAnnotation(BankAPIField.class).order())) //根据注解中的order对字段排序
-                .peek(field -> field.setAccessible(true)) //设置可以访问私有字段
-                .forEach(field -> {
-                    //获得注解
-                    BankAPIField bankAPIField = field.getAnnotation(BankAPIField.class);
-                    Object value = "";
-                    try {
-                        //反射获取字段值
-                        value = field.get(api);
-                    } catch (IllegalAccessException e) {
-                        e.printStackTrace();
-                    }
-                    //根据字段类型以正确的填充方式格式化字符串
-                    switch (bankAPIField.type()) {
-                        case "S": {
-                            stringBuilder.append(String.format("%-" + bankAPIField.length() + "s", value.toString()).replace(' ', '_'));
-                            break;
-                        }
-                        case "N": {
-                            stringBuilder.append(String.format("%" + bankAPIField.length() + "s", value.toString()).replace(' ', '0'));
-                            break;
-                        }
-                        case "M": {
-                            if (!(value instanceof BigDecimal))
-                                throw new RuntimeException(String.format("{} 的 {} 必须是BigDecimal", api, field));
-                            stringBuilder.append(String.format("%0" + bankAPIField.length() + "d", ((BigDecimal) value).setScale(2, RoundingMode.DOWN).multiply(new BigDecimal("100")).longValue()));
-                            break;
-                        }
-                        default:
-                            break;
-                    }
-                });
-        //签名逻辑
-        stringBuilder.append(DigestUtils.md2Hex(stringBuilder.toString()));
-        String param = stringBuilder.toString();
+    private static <T extends AbstractAPI> String remoteCall(T api) throws IOException {
+        //注解、字段顺序和字段访问方式每个类只解析一次
+        @SuppressWarnings("unchecked")
+        BankApiCodec<T> codec = BankApiCodec.of((Class<T>) api.getClass());
+        byte[] buffer = BUFFERS.get();
+        if (buffer.length < codec.capacity()) {
+            buffer = new byte[codec.capacity()];
+            BUFFERS.set(buffer);
+        }
+        //报文和签名直接写进线程自己的 byte 数组，不经过 String
+        int length = codec.encode(api, buffer, 0);
         long begin = System.currentTimeMillis();
-        //发请求
-        String result = Request.Post("http://localhost:45678/reflection" + bankAPI.url())
-                .bodyString(param, ContentType.APPLICATION_JSON)
-                .execute().returnContent().asString();
-        log.info("调用银行API {} url:{} 参数:{} 耗时:{}ms", bankAPI.desc(), bankAPI.url(), param, System.currentTimeMillis() - begin);
+        //发请求，连接池里的连接可以复用
+        HttpPost post = new HttpPost("http://localhost:45678/reflection" + codec.url());
+        post.setEntity(new ByteArrayEntity(buffer, 0, length, ContentType.APPLICATION_JSON));
+        String result;
+        try (CloseableHttpResponse response = HTTP_CLIENT.execute(post)) {
+            StatusLine statusLine = response.getStatusLine();
+            //读完响应体连接才会还回连接池
+            result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            if (statusLine.getStatusCode() >= 300) {
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            }
+        }
+        if (log.isInfoEnabled()) {
+            log.info("调用银行API {} url:{} 参数:{} 耗时:{}ms", codec.desc(), codec.url(),
+                    new String(buffer, 0, length, StandardCharsets.UTF_8), System.currentTimeMillis() - begin);
+        }
         return result;
     }
 }
@@ -49,4 +49,18 @@ public @interface Metrics {
      * @return
      */
     boolean ignoreException() default false;
+
+    /**
+     * 入参和出参日志的采样率，1 表示每次调用都记录；日志是异步序列化的，采样只影响日志量，不影响打点
+     *
+     * @return
+     */
+    double logSampleRate() default 1;
+
+    /**
+     * 入参和出参日志最多保留的字符数，超出的部分截断
+     *
+     * @return
+     */
+    int maxLogLength() default 1024;
 }
@@ -1,6 +1,10 @@
 package org.geekbang.time.commonmistakes.springpart1.aopmetrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jodd.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
@@ -15,11 +19,16 @@ import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
-import javax.servlet.http.HttpServletRequest;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.lang.reflect.Array;
-import java.time.Duration;
-import java.time.Instant;
+import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toMap;
@@ -32,13 +41,39 @@ public class MetricsAspect {
     private static final Map<Class<?>, Object> DEFAULT_VALUES = Stream
             .of(boolean.class, byte.class, char.class, double.class, float.class, int.class, long.class, short.class)
             .collect(toMap(clazz -> (Class<?>) clazz, clazz -> Array.get(Array.newInstance(clazz, 1), 0)));
+    //对于Controller和Repository，用注解的默认值
+    private static final Metrics DEFAULT_METRICS = DefaultMetrics.class.getAnnotation(Metrics.class);
+    private static final String METER_NAME = "aopMetrics.call";
+    private static final int LOG_QUEUE_CAPACITY = 10000;
+
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //注解配置、方法名和 Timer 每个方法只解析一次，之后每次调用只查一次 Map
+    private final Map<Method, MethodMetrics> methodMetrics = new ConcurrentHashMap<>();
+    private Counter droppedLogs;
+    //入参出参的序列化和日志输出放到单独的线程，队列满了直接丢弃，不拖慢业务线程
+    private final ThreadPoolExecutor logExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(LOG_QUEUE_CAPACITY),
+            new ThreadFactoryBuilder().setNameFormat("metrics-log-%d").setDaemon(true).get(),
+            (task, executor) -> droppedLogs.increment());
 
     public static <T> T getDefaultValue(Class<T> clazz) {
         return (T) DEFAULT_VALUES.get(clazz);
     }
 
+    @PostConstruct
+    public void init() {
+        droppedLogs = meterRegistry.counter("aopMetrics.log.dropped");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logExecutor.shutdown();
+    }
+
 //    @Pointcut("@annotation(org.geekbang.time.commonmistakes.spring.demo2.Metrics)")
 //    public void withMetricsAnnotation() {
 //    }
@@ -53,54 +88,138 @@ public class MetricsAspect {
 
     @Around("controllerBean() || withMetricsAnnotation())")
     public Object metrics(ProceedingJoinPoint pjp) throws Throwable {
-        //尝试获取当前方法的类名和方法名
-        MethodSignature signature = (MethodSignature) pjp.getSignature();
-        String name = String.format("【%s】【%s】", signature.getDeclaringType().toString(), signature.toLongString());
-
-        Metrics metrics = signature.getMethod().getAnnotation(Metrics.class);
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        //Java 8 的 computeIfAbsent 即使 key 已经存在也会锁住桶，先 get 一次
+        MethodMetrics metrics = methodMetrics.get(method);
         if (metrics == null) {
-            metrics = signature.getMethod().getDeclaringClass().getAnnotation(Metrics.class);
+            metrics = methodMetrics.computeIfAbsent(method, this::resolve);
         }
-        //对于Controller和Repository，我们需要初始化一个@Metrics注解出来
-        if (metrics == null) {
-            @Metrics
-            final class c {
-            }
-            metrics = c.class.getAnnotation(Metrics.class);
+        //每次调用只采样一次，入参和出参日志要么都有要么都没有；INFO 日志没开就连序列化都不用做
+        boolean sampled = (metrics.logParameters || metrics.logReturn) && log.isInfoEnabled()
+                && (metrics.logSampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < metrics.logSampleRate);
+        String name = sampled ? metrics.name + requestUrl() : null;
+        int maxLogLength = metrics.maxLogLength;
+        //实现的是入参的日志输出，参数在后台线程序列化，如果序列化之前参数被改了，日志里看到的是改过的值
+        if (sampled && metrics.logParameters) {
+            Object[] args = pjp.getArgs();
+            logExecutor.execute(() -> {
+                try {
+                    log.info(String.format("【入参日志】调用 %s 的参数是：【%s】", name, truncate(objectMapper.writeValueAsString(args), maxLogLength)));
+                } catch (Exception ex) {
+                    log.warn(String.format("【入参日志】调用 %s 的参数序列化失败：%s", name, ex.getMessage()));
+                }
+            });
         }
-        //对于Web项目我们可以从上下文中获取到额外的一些信息来丰富我们的日志
-        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
-        if (requestAttributes != null) {
-            HttpServletRequest request = ((ServletRequestAttributes) requestAttributes).getRequest();
-            if (request != null)
-                name += String.format("【%s】", request.getRequestURL().toString());
-        }
-        //实现的是入参的日志输出
-        if (metrics.logParameters())
-            log.info(String.format("【入参日志】调用 %s 的参数是：【%s】", name, objectMapper.writeValueAsString(pjp.getArgs())));
         //实现连接点方法的执行，以及成功失败的打点，出现异常的时候还会记录日志
-        //这里我们通过日志方式暂时替代了打点的实现，标准的实现是需要把信息对接打点服务，比如Micrometer
         Object returnValue;
-        Instant start = Instant.now();
+        long start = System.nanoTime();
         try {
             returnValue = pjp.proceed();
-            if (metrics.recordSuccessMetrics())
-                log.info(String.format("【成功打点】调用 %s 成功，耗时：%d ms", name, Duration.between(start, Instant.now()).toMillis()));
+            if (metrics.recordSuccessMetrics)
+                metrics.success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         } catch (Exception ex) {
-            if (metrics.recordFailMetrics())
-                log.info(String.format("【失败打点】调用 %s 失败，耗时：%d ms", name, Duration.between(start, Instant.now()).toMillis()));
-            if (metrics.logException())
-                log.error(String.format("【异常日志】调用 %s 出现异常！", name), ex);
+            if (metrics.recordFailMetrics)
+                metrics.failed(ex.getClass()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (metrics.logException)
+                log.error(String.format("【异常日志】调用 %s 出现异常！", metrics.name + requestUrl()), ex);
 
             //如果忽略异常那么直接返回默认值
-            if (metrics.ignoreException())
-                returnValue = getDefaultValue(signature.getReturnType());
+            if (metrics.ignoreException)
+                returnValue = metrics.defaultValue;
             else
                 throw ex;
         }
         //实现了返回值的日志输出
-        if (metrics.logReturn())
-            log.info(String.format("【出参日志】调用 %s 的返回是：【%s】", name, returnValue));
+        if (sampled && metrics.logReturn) {
+            Object result = returnValue;
+            logExecutor.execute(() -> log.info(String.format("【出参日志】调用 %s 的返回是：【%s】", name, truncate(String.valueOf(result), maxLogLength))));
+        }
         return returnValue;
     }
-}
\ No newline at end of file
+
+    private MethodMetrics resolve(Method method) {
+        Metrics metrics = method.getAnnotation(Metrics.class);
+        if (metrics == null) {
+            metrics = method.getDeclaringClass().getAnnotation(Metrics.class);
+        }
+        if (metrics == null) {
+            metrics = DEFAULT_METRICS;
+        }
+        return new MethodMetrics(method, metrics, meterRegistry);
+    }
+
+    //对于Web项目我们可以从上下文中获取到额外的一些信息来丰富我们的日志
+    private static String requestUrl() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes instanceof ServletRequestAttributes) {
+            return String.format("【%s】", ((ServletRequestAttributes) requestAttributes).getRequest().getRequestURL().toString());
+        }
+        return "";
+    }
+
+    private static String truncate(String value, int maxLength) {
+        if (value.length() <= maxLength) {
+            return value;
+        }
+        return value.substring(0, maxLength) + "...(" + value.length() + " chars)";
+    }
+
+    @Metrics
+    private static final class DefaultMetrics {
+    }
+
+    /**
+     * 一个方法的注解配置和打点用的 Timer，失败的 Timer 按异常类型区分
+     */
+    private static final class MethodMetrics {
+        //注解的属性每次读都是一次动态代理调用，这里拷贝成字段
+        final boolean recordSuccessMetrics;
+        final boolean recordFailMetrics;
+        final boolean logParameters;
+        final boolean logReturn;
+        final boolean logException;
+        final boolean ignoreException;
+        final double logSampleRate;
+        final int maxLogLength;
+        final String name;
+        final Object defaultValue;
+        final Timer success;
+        final Map<Class<?>, Timer> failed = new ConcurrentHashMap<>();
+        private final Method method;
+        private final MeterRegistry meterRegistry;
+
+        MethodMetrics(Method method, Metrics metrics, MeterRegistry meterRegistry) {
+            this.method = method;
+            this.recordSuccessMetrics = metrics.recordSuccessMetrics();
+            this.recordFailMetrics = metrics.recordFailMetrics();
+            this.logParameters = metrics.logParameters();
+            this.logReturn = metrics.logReturn();
+            this.logException = metrics.logException();
+            this.ignoreException = metrics.ignoreException();
+            this.logSampleRate = metrics.logSampleRate();
+            this.maxLogLength = metrics.maxLogLength();
+            this.meterRegistry = meterRegistry;
+            this.name = String.format("【%s】【%s】", method.getDeclaringClass().toString(), method.toString());
+            this.defaultValue = getDefaultValue(method.getReturnType());
+            this.success = timer("success", "none");
+        }
+
+        Timer failed(Class<?> exception) {
+            Timer timer = failed.get(exception);
+            if (timer == null) {
+                timer = failed.computeIfAbsent(exception, clazz -> timer("fail", clazz.getSimpleName()));
+            }
+            return timer;
+        }
+
+        private Timer timer(String result, String exception) {
+            return Timer.builder(METER_NAME)
+                    .tag("class", method.getDeclaringClass().getSimpleName())
+                    .tag("method", method.getName())
+                    .tag("result", result)
+                    .tag("exception", exception)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+    }
+}
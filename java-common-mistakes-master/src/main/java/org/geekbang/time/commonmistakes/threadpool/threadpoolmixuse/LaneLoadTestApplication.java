@@ -0,0 +1,113 @@
+package org.geekbang.time.commonmistakes.threadpool.threadpoolmixuse;
+
+import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.common.executor.LaneProfile;
+import org.geekbang.time.commonmistakes.common.executor.PriorityLaneExecutor;
+import org.geekbang.time.commonmistakes.common.executor.WorkloadExecutors;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//压测 /threadpoolmixuse/right 的场景：批处理循环打满线程池的同时，20 个客户端并发提交 10ms 的计算任务，
+//对比共用 CallerRunsPolicy 线程池和按工作负载分车道两种方式下计算任务的 p50/p99
+@Slf4j
+public class LaneLoadTestApplication {
+
+    private static final int CLIENTS = 20;
+    private static final int REQUESTS_PER_CLIENT = 50;
+
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("lane", ".txt");
+        byte[] payload = new byte[1024 * 1024];
+
+        ThreadPoolExecutor shared = new ThreadPoolExecutor(2, 2, 1, TimeUnit.HOURS,
+                new ArrayBlockingQueue<>(100), new ThreadPoolExecutor.CallerRunsPolicy());
+        long[] sharedLatency = run(() -> shared.execute(() -> write(file, payload)),
+                () -> shared.submit(calcTask()));
+        shared.shutdown();
+        shared.awaitTermination(1, TimeUnit.MINUTES);
+        report("shared pool", sharedLatency);
+
+        PriorityLaneExecutor batchLane = WorkloadExecutors.register(LaneProfile.ioBatch("loadtest-batch", 2, 100));
+        PriorityLaneExecutor requestLane = WorkloadExecutors.register(
+                LaneProfile.latencyCritical("loadtest-request", CLIENTS, 1000, Duration.ofSeconds(1)));
+        long[] laneLatency = run(() -> {
+                    try {
+                        batchLane.submit(() -> write(file, payload), PriorityLaneExecutor.Priority.LOW, null, 1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                () -> requestLane.submit(calcTask(), PriorityLaneExecutor.Priority.HIGH, Duration.ofSeconds(1)));
+        log.info("batch lane queued:{}", batchLane.getPendingCount());
+        batchLane.shutdown();
+        requestLane.shutdown();
+        batchLane.awaitTermination(1, TimeUnit.MINUTES);
+        report("isolated lanes", laneLatency);
+
+        Files.deleteIfExists(file);
+    }
+
+    private static long[] run(Runnable batchSubmit, Callable<Future<Integer>> requestSubmit) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> {
+            while (running.get()) {
+                batchSubmit.run();
+            }
+        });
+        producer.start();
+        //等批处理先把线程池打满
+        TimeUnit.SECONDS.sleep(2);
+
+        long[] latency = new long[CLIENTS * REQUESTS_PER_CLIENT];
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        for (int c = 0; c < CLIENTS; c++) {
+            int client = c;
+            clients.execute(() -> {
+                for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+                    long begin = System.nanoTime();
+                    try {
+                        requestSubmit.call().get();
+                    } catch (Exception e) {
+                        log.warn("request failed: {}", e.toString());
+                    }
+                    latency[client * REQUESTS_PER_CLIENT + i] = System.nanoTime() - begin;
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(10, TimeUnit.MINUTES);
+        running.set(false);
+        producer.join();
+        return latency;
+    }
+
+    private static void report(String name, long[] latency) {
+        Arrays.sort(latency);
+        log.info("{}: requests:{} p50:{}ms p99:{}ms max:{}ms", name, latency.length,
+                TimeUnit.NANOSECONDS.toMillis(latency[latency.length / 2]),
+                TimeUnit.NANOSECONDS.toMillis(latency[(int) (latency.length * 0.99)]),
+                TimeUnit.NANOSECONDS.toMillis(latency[latency.length - 1]));
+    }
+
+    private static Callable<Integer> calcTask() {
+        return () -> {
+            TimeUnit.MILLISECONDS.sleep(10);
+            return 1;
+        };
+    }
+
+    private static Void write(Path file, byte[] payload) {
+        try {
+            Files.write(file, payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return null;
+    }
+}
@@ -1,7 +1,10 @@
 package org.geekbang.time.commonmistakes.threadpool.threadpoolmixuse;
 
-import jodd.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.common.executor.LaneProfile;
+import org.geekbang.time.commonmistakes.common.executor.PriorityLaneExecutor;
+import org.geekbang.time.commonmistakes.common.executor.ThreadPools;
+import org.geekbang.time.commonmistakes.common.executor.WorkloadExecutors;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -10,6 +13,7 @@ import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalTime;
 import java.util.Collections;
 import java.util.concurrent.*;
@@ -25,31 +29,19 @@ import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 @Slf4j
 public class ThreadPoolMixuseController {
 
-    private static ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
-            2, 2,
-            1, TimeUnit.HOURS,
-            new ArrayBlockingQueue<>(100),
-            new ThreadFactoryBuilder().setNameFormat("batchfileprocess-threadpool-%d").get(),
-            new ThreadPoolExecutor.CallerRunsPolicy());
+    //线程池状态通过 executor.* 指标观察（/actuator/metrics/executor.queued?tag=name:batchfileprocess-threadpool）
+    private static ThreadPoolExecutor threadPool = ThreadPools.builder("batchfileprocess-threadpool")
+            .corePoolSize(2).maxPoolSize(2)
+            .keepAlive(1, TimeUnit.HOURS)
+            .queueCapacity(100)
+            .rejectedHandler(new ThreadPoolExecutor.CallerRunsPolicy())
+            .build();
 
-
-    private static ThreadPoolExecutor asyncCalcThreadPool = new ThreadPoolExecutor(
-            200, 200,
-            1, TimeUnit.HOURS,
-            new ArrayBlockingQueue<>(1000),
-            new ThreadFactoryBuilder().setNameFormat("asynccalc-threadpool-%d").get());
-
-    private void printStats(ThreadPoolExecutor threadPool) {
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
-            log.info("=========================");
-            log.info("Pool Size: {}", threadPool.getPoolSize());
-            log.info("Active Threads: {}", threadPool.getActiveCount());
-            log.info("Number of Tasks Completed: {}", threadPool.getCompletedTaskCount());
-            log.info("Number of Tasks in Queue: {}", threadPool.getQueue().size());
-
-            log.info("=========================");
-        }, 0, 1, TimeUnit.SECONDS);
-    }
+    //按工作负载分车道，批处理和请求处理各用各的线程，互不影响
+    private static PriorityLaneExecutor batchLane = WorkloadExecutors.register(LaneProfile.ioBatch("batchfileprocess", 2, 100));
+    //请求处理排队超过 1 秒就没有意义了，直接丢弃，避免积压
+    private static PriorityLaneExecutor requestLane = WorkloadExecutors.register(
+            LaneProfile.latencyCritical("asynccalc", 200, 1000, Duration.ofSeconds(1)));
 
     private Callable<Integer> calcTask() {
         return () -> {
@@ -65,13 +57,11 @@ public class ThreadPoolMixuseController {
 
     @GetMapping("right")
     public int right() throws ExecutionException, InterruptedException {
-        return asyncCalcThreadPool.submit(calcTask()).get();
+        return requestLane.submit(calcTask(), PriorityLaneExecutor.Priority.HIGH, Duration.ofSeconds(1)).get();
     }
 
     @PostConstruct
     public void init() {
-        printStats(threadPool);
-
         new Thread(() -> {
             String payload = IntStream.rangeClosed(1, 1_000_000)
                     .mapToObj(__ -> "a")
@@ -89,4 +79,27 @@ public class ThreadPoolMixuseController {
         }).start();
     }
 
+    //批处理提交到自己的车道，车道满了生产者线程自己等待，不会占用其他线程
+    //@PostConstruct
+    public void initLanes() {
+        new Thread(() -> {
+            String payload = IntStream.rangeClosed(1, 1_000_000)
+                    .mapToObj(__ -> "a")
+                    .collect(Collectors.joining(""));
+            while (true) {
+                try {
+                    batchLane.submit(() -> {
+                        Files.write(Paths.get("demo.txt"), Collections.singletonList(LocalTime.now().toString() + ":" + payload), UTF_8, CREATE, TRUNCATE_EXISTING);
+                        log.info("batch file processing done");
+                        return null;
+                    }, PriorityLaneExecutor.Priority.LOW, null, 1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RejectedExecutionException e) {
+                    log.warn("batch lane full", e);
+                }
+            }
+        }).start();
+    }
 }
@@ -2,6 +2,7 @@ package org.geekbang.time.commonmistakes.threadpool.threadpooloom;
 
 import jodd.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.common.executor.ThreadPools;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -165,4 +166,42 @@ public class ThreadPoolOOMController {
         TimeUnit.SECONDS.sleep(60);
         return atomicInteger.intValue();
     }
+
+    //和 better 一样的激进线程池，改用 ThreadPools 创建，线程池状态通过 executor.* 指标观察
+    private static final ThreadPoolExecutor betterThreadPool = ThreadPools.builder("better-threadpool")
+            .corePoolSize(2).maxPoolSize(5)
+            .keepAlive(5, TimeUnit.SECONDS)
+            .queueCapacity(10)
+            .eager(true)
+            .build();
+
+    @GetMapping("better2")
+    public int better2() throws InterruptedException {
+        AtomicInteger atomicInteger = new AtomicInteger();
+
+        IntStream.rangeClosed(1, 20).forEach(i -> {
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            int id = atomicInteger.incrementAndGet();
+            try {
+                betterThreadPool.submit(() -> {
+                    log.info("{} started", id);
+                    try {
+                        TimeUnit.SECONDS.sleep(10);
+                    } catch (InterruptedException e) {
+                    }
+                    log.info("{} finished", id);
+                });
+            } catch (Exception ex) {
+                log.error("error submitting task {}", id, ex);
+                atomicInteger.decrementAndGet();
+            }
+        });
+
+        TimeUnit.SECONDS.sleep(60);
+        return atomicInteger.intValue();
+    }
 }
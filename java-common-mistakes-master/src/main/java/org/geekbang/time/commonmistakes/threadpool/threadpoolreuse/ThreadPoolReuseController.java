@@ -1,13 +1,12 @@
 package org.geekbang.time.commonmistakes.threadpool.threadpoolreuse;
 
-import jodd.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.geekbang.time.commonmistakes.common.executor.ThreadPools;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -38,11 +37,11 @@ public class ThreadPoolReuseController {
     }
 
     static class ThreadPoolHelper {
-        private static ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
-                10, 50,
-                2, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(1000),
-                new ThreadFactoryBuilder().setNameFormat("demo-threadpool-%d").get());
+        private static ThreadPoolExecutor threadPoolExecutor = ThreadPools.builder("demo-threadpool")
+                .corePoolSize(10).maxPoolSize(50)
+                .keepAlive(2, TimeUnit.SECONDS)
+                .queueCapacity(1000)
+                .build();
 
         public static ThreadPoolExecutor getThreadPool() {
             return (ThreadPoolExecutor) Executors.newCachedThreadPool();